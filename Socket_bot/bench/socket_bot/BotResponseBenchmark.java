@@ -0,0 +1,77 @@
+package socket_bot;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks for the work {@link BotServer} does per message, generating a
+ * reply for different message mixes and getting the current time as the
+ * bot prints it, and per catalog reload, parsing the bundled catalog.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BotResponseBenchmark {
+    
+    /**
+     * Message mixes: the {@link ChatBotGUI} dropdown phrases, each intent on
+     * its own, and free text that falls through to the default replies.
+     */
+    @Param({"dropdown", "greeting", "time", "weather", "question", "default"})
+    public String mix;
+    
+    private BotServer server;
+    private ResponseSelector selector;
+    private String[] messages;
+    private ClockService clock;
+    private int next;
+    
+    @Setup
+    public void setUp() {
+        server = new BotServer();
+        selector = server.newResponseSelector();
+        messages = messagesFor(mix);
+        clock = new ClockService();
+    }
+    
+    static String[] messagesFor(String mix) {
+        switch (mix) {
+            case "dropdown":
+                return new String[]{"Hello!", "What's the weather like?", "What time is it?", "Goodbye"};
+            case "greeting":
+                return new String[]{"Hello!", "hey there", "Good evening"};
+            case "time":
+                return new String[]{"What time is it?", "time please"};
+            case "weather":
+                return new String[]{"What's the weather like?", "nice weather today"};
+            case "question":
+                return new String[]{"How are you?", "What do you do?", "Why is the sky blue?"};
+            case "default":
+                return new String[]{"I would like to know more about your opening hours and prices", "ok"};
+            default:
+                throw new IllegalArgumentException("Unknown mix: " + mix);
+        }
+    }
+    
+    @Benchmark
+    public String generateBotResponse() {
+        String message = messages[next];
+        next = (next + 1) % messages.length;
+        return server.generateBotResponse(message, selector);
+    }
+    
+    @Benchmark
+    public ResponseCatalog parseCatalog() {
+        return ResponseCatalog.defaults();
+    }
+    
+    @Benchmark
+    public String currentTime() {
+        return clock.currentTime();
+    }
+}
@@ -0,0 +1,84 @@
+package socket_bot;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the bundled {@link ResponseCatalog}'s keyword matcher with the
+ * {@code String.contains} chain it replaced in generateBotResponse, and
+ * with the server's cache of recent inputs in front of the matcher.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IntentMatcherBenchmark {
+    
+    @Param({"dropdown", "question", "default"})
+    public String mix;
+    
+    private ResponseCatalog catalog;
+    private LruCache<String, Intent> cache;
+    private String[] messages;
+    private int next;
+    
+    @Setup
+    public void setUp() {
+        catalog = ResponseCatalog.defaults();
+        messages = BotResponseBenchmark.messagesFor(mix);
+        cache = new LruCache<>(1024);
+    }
+    
+    @Benchmark
+    public Intent matcher() {
+        String message = messages[next];
+        next = (next + 1) % messages.length;
+        return catalog.classify(message);
+    }
+    
+    /**
+     * What BotServer does with {@code --intent-cache} set, for inputs short
+     * enough to cache. Every input of the mixes is a hit after warmup.
+     */
+    @Benchmark
+    public Intent cachedMatcher() {
+        String message = messages[next];
+        next = (next + 1) % messages.length;
+        String key = message.trim().toLowerCase(Locale.ROOT);
+        Intent intent = cache.get(key);
+        if (intent == null) {
+            intent = catalog.classify(message);
+            cache.put(key, intent);
+        }
+        return intent;
+    }
+    
+    @Benchmark
+    public Intent containsChain() {
+        String message = messages[next];
+        next = (next + 1) % messages.length;
+        return classifyWithContains(message);
+    }
+    
+    private static Intent classifyWithContains(String input) {
+        String cleanInput = input.toLowerCase().trim();
+        String[] greetings = {"hello", "hi", "hey", "good morning", "good afternoon", "good evening"};
+        String[] farewells = {"bye", "goodbye", "see you", "farewell", "good night"};
+        if (Arrays.stream(greetings).anyMatch(cleanInput::contains)) return Intent.GREETING;
+        if (Arrays.stream(farewells).anyMatch(cleanInput::contains)) return Intent.FAREWELL;
+        if (cleanInput.contains("time")) return Intent.TIME;
+        if (cleanInput.contains("weather")) return Intent.WEATHER;
+        if (cleanInput.contains("?")) {
+            if (cleanInput.contains("how are you")) return Intent.MOOD;
+            if (cleanInput.contains("what") || cleanInput.contains("how")) return Intent.CURIOSITY;
+            if (cleanInput.contains("why")) return Intent.WHY;
+        }
+        return Intent.DEFAULT;
+    }
+}
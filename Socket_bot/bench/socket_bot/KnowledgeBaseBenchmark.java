@@ -0,0 +1,140 @@
+package socket_bot;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the {@link KnowledgeBase} on a synthetic corpus: how long
+ * indexing it takes, how much heap the index takes (the
+ * {@code indexMegabytes} counter of {@link #footprint}) and how long a
+ * question takes to answer, with and without the answer cache.
+ *
+ * Words are drawn with a Zipf-like skew from a vocabulary of 100000, so
+ * the most common ones are in most documents, as stop words that slip
+ * through would be. Every document has its own answer.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class KnowledgeBaseBenchmark {
+    
+    private static final int VOCABULARY = 100000;
+    private static final int QUERIES = 1024;
+    
+    @Param({"100000", "1000000"})
+    public int documents;
+    
+    private String[] texts;
+    private String[] answers;
+    private String[] queries;
+    
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        String[] vocabulary = new String[VOCABULARY];
+        for (int i = 0; i < VOCABULARY; i++) {
+            vocabulary[i] = "t" + Integer.toString(i, 36);
+        }
+        texts = new String[documents];
+        answers = new String[documents];
+        StringBuilder text = new StringBuilder();
+        for (int d = 0; d < documents; d++) {
+            text.setLength(0);
+            for (int i = 6 + random.nextInt(15); i > 0; i--) {
+                text.append(vocabulary[skewed(random)]).append(' ');
+            }
+            texts[d] = text.toString();
+            answers[d] = "Answer number " + d + " from the knowledge base.";
+        }
+        // Questions in the words of a document, as users would ask them
+        queries = new String[QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            String[] words = texts[random.nextInt(documents)].split(" ");
+            text.setLength(0);
+            text.append("what is the ");
+            for (int i = 2 + random.nextInt(3); i > 0; i--) {
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            queries[q] = text.append('?').toString();
+        }
+    }
+    
+    private static int skewed(SplittableRandom random) {
+        return (int) Math.min(VOCABULARY - 1, Math.floor(Math.pow(VOCABULARY, random.nextDouble())) - 1);
+    }
+    
+    /**
+     * Indexes of the corpus, built once per trial; the cached one already
+     * holds the answer to every query.
+     */
+    @State(Scope.Benchmark)
+    public static class Index {
+        KnowledgeBase uncached;
+        KnowledgeBase cached;
+        int next;
+        
+        @Setup
+        public void setUp(KnowledgeBaseBenchmark corpus) {
+            uncached = corpus.build(0);
+            cached = corpus.build(QUERIES * 2);
+            // Filled up front: at a million documents the misses alone outlast the warmup
+            for (String query : corpus.queries) {
+                cached.answer(query);
+            }
+        }
+    }
+    
+    /**
+     * The size of the index built. Event counters add up over iterations,
+     * so the benchmark reporting it runs a single one.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public double indexMegabytes;
+    }
+    
+    KnowledgeBase build(int cacheSize) {
+        KnowledgeBase.Builder builder = new KnowledgeBase.Builder();
+        for (int d = 0; d < documents; d++) {
+            builder.add(texts[d], answers[d]);
+        }
+        return builder.build(cacheSize, 0);
+    }
+    
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public KnowledgeBase build() {
+        return build(0);
+    }
+    
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public KnowledgeBase footprint(Footprint footprint) {
+        KnowledgeBase index = build(0);
+        footprint.indexMegabytes = index.memoryBytes() / (1024.0 * 1024.0);
+        return index;
+    }
+    
+    @Benchmark
+    public String answer(Index index) {
+        return index.uncached.answer(queries[index.next++ & (QUERIES - 1)]);
+    }
+    
+    @Benchmark
+    public String cachedAnswer(Index index) {
+        return index.cached.answer(queries[index.next++ & (QUERIES - 1)]);
+    }
+}
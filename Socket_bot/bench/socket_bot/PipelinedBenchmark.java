@@ -0,0 +1,70 @@
+package socket_bot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Throughput of a client that pipelines a batch of requests over one
+ * connection, with server-side write coalescing on (the default flush
+ * deadline) and off (a deadline of zero flushes after every reply).
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipelinedBenchmark {
+    private static final int BATCH = 100;
+    
+    @Param({"BLOCKING", "NIO"})
+    public ServerConfig.Mode mode;
+    
+    @Param({"0", "1000"})
+    public long flushDeadlineMicros;
+    
+    @Param({"LINE", "FRAMED"})
+    public BotClient.Protocol protocol;
+    
+    private BotServer server;
+    private BotClient client;
+    private List<String> batch;
+    
+    @Setup
+    public void setUp() throws Exception {
+        server = new BotServer(new ServerConfig()
+                .setMode(mode)
+                .setPort(0)
+                .setFlushDeadlineMicros(flushDeadlineMicros));
+        server.start();
+        
+        client = new BotClient("localhost", server.getLocalPort());
+        client.setProtocol(protocol);
+        client.connect();
+        
+        String[] mix = BotResponseBenchmark.messagesFor("dropdown");
+        batch = new ArrayList<>();
+        for (int i = 0; i < BATCH; i++) {
+            batch.add(mix[i % mix.length]);
+        }
+    }
+    
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        client.disconnect();
+        server.stop();
+        server.awaitTermination(10, TimeUnit.SECONDS);
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public String sendBatch() throws Exception {
+        List<CompletableFuture<String>> replies = client.sendAll(batch);
+        return replies.get(replies.size() - 1).get();
+    }
+}
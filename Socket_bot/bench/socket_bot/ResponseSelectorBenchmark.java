@@ -0,0 +1,59 @@
+package socket_bot;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Picks replies from several threads at once, comparing the shared
+ * {@code Math.random()} generator replies used to be picked with against
+ * per-session {@link ResponseSelector}s.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class ResponseSelectorBenchmark {
+    
+    @State(Scope.Benchmark)
+    public static class Catalog {
+        final ResponseCatalog catalog = ResponseCatalog.defaults();
+        final AtomicLong sessions = new AtomicLong();
+    }
+    
+    /**
+     * One selector per benchmark thread, as the server has one per session.
+     */
+    @State(Scope.Thread)
+    public static class Session {
+        @Param({"uniform", "weighted", "no-repeat", "seeded"})
+        public String policy;
+        
+        ResponseSelector selector;
+        
+        @Setup
+        public void setUp(Catalog state) {
+            selector = new ResponseSelector(
+                    policy.equals("weighted") ? ServerConfig.Selection.WEIGHTED : ServerConfig.Selection.UNIFORM,
+                    policy.equals("no-repeat"),
+                    policy.equals("seeded") ? new SplittableRandom(42) : null,
+                    state.sessions.getAndIncrement());
+        }
+    }
+    
+    @Benchmark
+    public ResponseCatalog.Reply sharedMathRandom(Catalog state) {
+        ResponseCatalog.Reply[] replies = state.catalog.replies(Intent.DEFAULT);
+        return replies[(int) (Math.random() * replies.length)];
+    }
+    
+    @Benchmark
+    public ResponseCatalog.Reply sessionSelector(Catalog state, Session session) {
+        return session.selector.pick(state.catalog, Intent.DEFAULT);
+    }
+}
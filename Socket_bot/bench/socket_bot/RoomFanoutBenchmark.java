@@ -0,0 +1,50 @@
+package socket_bot;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the fan-out of one room message to every member of a room,
+ * that is queueing the shared message for each member and each member's
+ * connection taking it off its queue, without the socket writes.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoomFanoutBenchmark {
+    
+    @Param({"10", "1000", "10000"})
+    public int members;
+    
+    private BotServer server;
+    private ChatRooms.Member sender;
+    
+    @Setup
+    public void setUp() {
+        server = new BotServer();
+        for (int i = 0; i < members; i++) {
+            ChatRooms.Member[] member = new ChatRooms.Member[1];
+            // Takes the messages off at once, as an idle connection's writer would
+            member[0] = server.newRoomMember(server.newResponseSelector(), () -> {
+                do {
+                    while (member[0].poll() != null) {
+                        // Written to the socket here
+                    }
+                } while (member[0].finishWriting());
+            });
+            server.handleMessage("/join lobby", member[0]);
+        }
+        sender = server.newRoomMember(server.newResponseSelector(), () -> { });
+        server.handleMessage("/join lobby", sender);
+    }
+    
+    @Benchmark
+    public String say() {
+        return server.handleMessage("/say lobby good morning everyone", sender);
+    }
+}
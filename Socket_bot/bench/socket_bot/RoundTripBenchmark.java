@@ -0,0 +1,51 @@
+package socket_bot;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Full request/reply round trip over loopback: {@link BotClient#sendMessage}
+ * against a {@link BotServer} running in the same JVM, for each server mode
+ * and wire protocol.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoundTripBenchmark {
+    
+    @Param({"BLOCKING", "EXECUTOR", "NIO"})
+    public ServerConfig.Mode mode;
+    
+    @Param({"LINE", "FRAMED"})
+    public BotClient.Protocol protocol;
+    
+    private BotServer server;
+    private BotClient client;
+    
+    @Setup
+    public void setUp() throws Exception {
+        server = new BotServer(new ServerConfig().setMode(mode).setPort(0));
+        server.start();
+        
+        client = new BotClient("localhost", server.getLocalPort());
+        client.setProtocol(protocol);
+        client.connect();
+    }
+    
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        client.disconnect();
+        server.stop();
+        server.awaitTermination(10, TimeUnit.SECONDS);
+    }
+    
+    @Benchmark
+    public String sendMessage() {
+        return client.sendMessage("What's the weather like?");
+    }
+}
@@ -0,0 +1,49 @@
+package socket_bot;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks what recording an exchange in the transcript costs the
+ * handler thread, which only queues it for the writer thread.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TranscriptBenchmark {
+    
+    private Path directory;
+    private TranscriptLog log;
+    private long session;
+    
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("transcript-bench");
+        log = new TranscriptLog(directory, 64 * 1024 * 1024, new BotMetrics());
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        log.close();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+    
+    @Benchmark
+    public void append() {
+        log.append(session++ & 1023, "What's the weather like?", "It's a sunny day!");
+    }
+}
@@ -0,0 +1,4 @@
+package socket_bot.jmh_generated;
+public class BotResponseBenchmark_jmhType extends BotResponseBenchmark_jmhType_B3 {
+}
+
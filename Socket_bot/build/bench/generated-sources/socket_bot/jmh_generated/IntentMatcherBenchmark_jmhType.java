@@ -0,0 +1,4 @@
+package socket_bot.jmh_generated;
+public class IntentMatcherBenchmark_jmhType extends IntentMatcherBenchmark_jmhType_B3 {
+}
+
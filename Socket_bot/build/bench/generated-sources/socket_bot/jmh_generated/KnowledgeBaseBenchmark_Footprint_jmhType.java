@@ -0,0 +1,4 @@
+package socket_bot.jmh_generated;
+public class KnowledgeBaseBenchmark_Footprint_jmhType extends KnowledgeBaseBenchmark_Footprint_jmhType_B3 {
+}
+
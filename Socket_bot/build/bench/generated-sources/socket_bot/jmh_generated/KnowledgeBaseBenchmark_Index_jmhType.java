@@ -0,0 +1,4 @@
+package socket_bot.jmh_generated;
+public class KnowledgeBaseBenchmark_Index_jmhType extends KnowledgeBaseBenchmark_Index_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package socket_bot.jmh_generated;
+public class PipelinedBenchmark_jmhType extends PipelinedBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package socket_bot.jmh_generated;
+public class ResponseSelectorBenchmark_Catalog_jmhType extends ResponseSelectorBenchmark_Catalog_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package socket_bot.jmh_generated;
+public class ResponseSelectorBenchmark_Session_jmhType extends ResponseSelectorBenchmark_Session_jmhType_B3 {
+}
+
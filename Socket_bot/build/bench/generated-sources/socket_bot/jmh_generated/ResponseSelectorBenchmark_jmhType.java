@@ -0,0 +1,4 @@
+package socket_bot.jmh_generated;
+public class ResponseSelectorBenchmark_jmhType extends ResponseSelectorBenchmark_jmhType_B3 {
+}
+
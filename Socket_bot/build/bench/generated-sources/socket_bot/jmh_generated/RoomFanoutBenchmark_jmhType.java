@@ -0,0 +1,4 @@
+package socket_bot.jmh_generated;
+public class RoomFanoutBenchmark_jmhType extends RoomFanoutBenchmark_jmhType_B3 {
+}
+
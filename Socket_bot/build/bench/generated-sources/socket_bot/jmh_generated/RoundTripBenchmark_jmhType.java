@@ -0,0 +1,4 @@
+package socket_bot.jmh_generated;
+public class RoundTripBenchmark_jmhType extends RoundTripBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package socket_bot.jmh_generated;
+public class TranscriptBenchmark_jmhType extends TranscriptBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,89 @@
+package socket_bot;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the server's {@link BotMetrics} as plain text on a port bound to
+ * the loopback interface only. Every connection gets the current metrics
+ * and is closed, so both {@code curl http://localhost:<port>/} and a bare
+ * TCP connection work: a request that looks like HTTP gets an HTTP
+ * response, anything else just the text.
+ *
+ * @version 1.0
+ */
+final class AdminEndpoint implements Runnable {
+    private static final int REQUEST_TIMEOUT_MILLIS = 1000;
+    
+    private final BotMetrics metrics;
+    private final ServerSocket serverSocket;
+    
+    AdminEndpoint(BotMetrics metrics, int port) throws IOException {
+        this.metrics = metrics;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+    
+    /**
+     * Starts serving on a daemon thread.
+     */
+    void start() {
+        Thread thread = new Thread(this, "bot-admin");
+        thread.setDaemon(true);
+        thread.start();
+        System.out.println("Admin endpoint on port " + serverSocket.getLocalPort());
+    }
+    
+    /**
+     * Closes the listening socket, which ends the serving thread.
+     */
+    void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.out.println("Admin Error: " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            try (Socket socket = serverSocket.accept()) {
+                serve(socket);
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.out.println("Admin Error: " + e.getMessage());
+                }
+            }
+        }
+    }
+    
+    private void serve(Socket socket) throws IOException {
+        socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+        boolean http = false;
+        try {
+            String requestLine = in.readLine();
+            http = requestLine != null && requestLine.startsWith("GET ");
+            // Skip the headers so the client sees its request consumed
+            String header = requestLine;
+            while (http && header != null && !header.isEmpty()) {
+                header = in.readLine();
+            }
+        } catch (SocketTimeoutException e) {
+            // A bare connection that sends nothing still gets the metrics
+        }
+        
+        byte[] body = metrics.toText().getBytes(StandardCharsets.UTF_8);
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+        if (http) {
+            out.write(("HTTP/1.0 200 OK\r\n"
+                    + "Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n"
+                    + "Content-Length: " + body.length + "\r\n"
+                    + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        out.write(body);
+        out.flush();
+    }
+}
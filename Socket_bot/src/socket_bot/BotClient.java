@@ -2,45 +2,359 @@ package socket_bot;
 
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 
 /**
  * A client-side socket implementation for the chat bot application.
  * This class handles the connection to the bot server, message sending,
  * and connection management.
  *
+ * Messages can be pipelined: {@link #sendAsync(String)} writes the message
+ * and returns at once, and a reader thread completes the returned futures
+ * in order as replies arrive, so many requests can be in flight on the
+ * same socket.
+ *
+ * Messages the server pushes from chat rooms (see {@link ChatRooms}) are
+ * not replies to anything, and go to the room listener instead.
+ *
+ * With {@link Protocol#FRAMED} the client asks the server to switch to
+ * length-prefixed frames when connecting, and falls back to lines if the
+ * server does not support them.
+ *
+ * A client can be given several endpoints, such as the servers behind a
+ * {@link BotRouter} or the routers themselves. It connects to the first one
+ * that answers, and if that connection is lost, the next messages sent
+ * reconnect to the next endpoint that answers. Replies still outstanding
+ * on the lost connection fail; resending them is up to the caller. A
+ * client with a single endpoint stays disconnected, as before.
+ *
  * @author Ornella Gigante
  * @version 1.0
  */
 public class BotClient {
+    
+    /**
+     * Wire protocol used on the connection.
+     */
+    public enum Protocol {
+        /** One line of text per message. Understood by every server. */
+        LINE,
+        /** Length-prefixed UTF-8 frames, see {@link FrameCodec}. */
+        FRAMED
+    }
+    
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    
     private Socket socket;
     private PrintWriter out;
     private BufferedReader in;
-    private final String HOST = "localhost";
-    private final int PORT = 5000;
+    private DataOutputStream frameOut;
+    private DataInputStream frameIn;
+    private Protocol requestedProtocol = Protocol.LINE;
+    private Protocol protocol = Protocol.LINE;
+    private final List<InetSocketAddress> endpoints;
+    private int endpointIndex;
+    private final Object writeLock = new Object();
+    // Replaced on every connect, so a reader of an earlier connection only fails its own replies
+    private Queue<CompletableFuture<String>> pending = new ConcurrentLinkedQueue<>();
+    private boolean closed = true;
+    // Set when the connection was lost rather than closed by disconnect()
+    private boolean lost;
+    private volatile Consumer<String> roomListener = message -> { };
+    
+    public BotClient() {
+        this("localhost", 5000);
+    }
+    
+    public BotClient(String host, int port) {
+        this(Collections.singletonList(InetSocketAddress.createUnresolved(host, port)));
+    }
+    
+    /**
+     * A client that fails over between several endpoints, tried in order.
+     */
+    public BotClient(List<InetSocketAddress> endpoints) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one endpoint is needed");
+        }
+        this.endpoints = new ArrayList<>(endpoints);
+    }
+    
+    /**
+     * Parses endpoints written as {@code host:port,host:port}.
+     */
+    public static List<InetSocketAddress> parseEndpoints(String text) {
+        List<InetSocketAddress> endpoints = new ArrayList<>();
+        for (String endpoint : text.split(",")) {
+            int colon = endpoint.lastIndexOf(':');
+            if (colon < 1) {
+                throw new IllegalArgumentException("Expected host:port but got: " + endpoint);
+            }
+            endpoints.add(InetSocketAddress.createUnresolved(endpoint.substring(0, colon).trim(),
+                    Integer.parseInt(endpoint.substring(colon + 1).trim())));
+        }
+        return endpoints;
+    }
+    
+    /**
+     * Chooses the protocol to ask for on the next {@link #connect()}.
+     */
+    public void setProtocol(Protocol protocol) {
+        this.requestedProtocol = protocol;
+    }
     
+    /**
+     * Receives the room messages pushed to this client, formatted as
+     * {@code #ROOM <room> <sender>: <text>}. Called on the reader thread,
+     * so it should not block.
+     */
+    public void setRoomListener(Consumer<String> roomListener) {
+        this.roomListener = roomListener;
+    }
+    
+    /**
+     * The protocol actually in use, once connected.
+     */
+    public Protocol getProtocol() {
+        return protocol;
+    }
+    
+    /**
+     * The endpoint of the current or last connection.
+     */
+    public InetSocketAddress getEndpoint() {
+        synchronized (writeLock) {
+            return endpoints.get(endpointIndex);
+        }
+    }
+    
+    /**
+     * Connects to the first endpoint that answers, starting with the one
+     * used last.
+     *
+     * @throws IOException if no endpoint answers
+     */
     public void connect() throws IOException {
-        socket = new Socket(HOST, PORT);
-        out = new PrintWriter(socket.getOutputStream(), true);
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        synchronized (writeLock) {
+            IOException failure = null;
+            for (int i = 0; i < endpoints.size(); i++) {
+                int index = (endpointIndex + i) % endpoints.size();
+                try {
+                    open(endpoints.get(index));
+                    endpointIndex = index;
+                    return;
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            throw failure;
+        }
     }
     
+    private void open(InetSocketAddress endpoint) throws IOException {
+        Socket candidate = new Socket();
+        try {
+            // Resolved here rather than when parsed, so a changed address is picked up
+            candidate.connect(new InetSocketAddress(endpoint.getHostString(), endpoint.getPort()),
+                    CONNECT_TIMEOUT_MILLIS);
+        } catch (IOException e) {
+            candidate.close();
+            throw e;
+        }
+        socket = candidate;
+        protocol = Protocol.LINE;
+        if (requestedProtocol == Protocol.FRAMED) {
+            negotiateFrames();
+        }
+        if (protocol == Protocol.FRAMED) {
+            frameOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            frameIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        } else {
+            out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)));
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        }
+        closed = false;
+        lost = false;
+        pending = new ConcurrentLinkedQueue<>();
+        
+        Socket readerSocket = socket;
+        Queue<CompletableFuture<String>> readerPending = pending;
+        Protocol readerProtocol = protocol;
+        BufferedReader lineIn = in;
+        DataInputStream readerFrameIn = frameIn;
+        startReader(() -> readResponses(readerSocket, readerPending, readerProtocol, lineIn, readerFrameIn));
+    }
+    
+    /**
+     * Reads replies on a virtual thread when the JVM has them (looked up
+     * reflectively so the project still builds for Java 8), so a process
+     * with thousands of clients, like {@link LoadGenerator}, does not need
+     * a platform thread for each.
+     */
+    private static void startReader(Runnable task) {
+        try {
+            Thread.class.getMethod("startVirtualThread", Runnable.class).invoke(null, task);
+        } catch (ReflectiveOperationException e) {
+            Thread reader = new Thread(task, "bot-client-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+    
+    private void negotiateFrames() throws IOException {
+        OutputStream rawOut = socket.getOutputStream();
+        rawOut.write((FrameCodec.UPGRADE_REQUEST + "\n").getBytes(StandardCharsets.UTF_8));
+        rawOut.flush();
+        String reply = FrameCodec.readHandshakeLine(socket.getInputStream());
+        // An older server answers the request like any other message
+        if (FrameCodec.UPGRADE_ACCEPTED.equals(reply)) {
+            protocol = Protocol.FRAMED;
+        }
+    }
+    
+    /**
+     * Sends one message and blocks until its reply arrives.
+     */
     public String sendMessage(String message) {
         try {
-            out.println(message);
-            return in.readLine();
+            return sendAsync(message).get();
+        } catch (ExecutionException e) {
+            return "Error: " + e.getCause().getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Error: Interrupted";
+        }
+    }
+    
+    /**
+     * Sends one message without waiting for the reply. The future completes
+     * with the reply, or exceptionally if the connection is lost first.
+     */
+    public CompletableFuture<String> sendAsync(String message) {
+        return sendAll(Collections.singletonList(message)).get(0);
+    }
+    
+    /**
+     * Sends a batch of messages with a single flush and returns one future
+     * per message, in the same order.
+     */
+    public List<CompletableFuture<String>> sendAll(List<String> messages) {
+        List<CompletableFuture<String>> replies = new ArrayList<>(messages.size());
+        synchronized (writeLock) {
+            if (closed && lost && endpoints.size() > 1) {
+                reconnect();
+            }
+            for (String message : messages) {
+                CompletableFuture<String> reply = new CompletableFuture<>();
+                replies.add(reply);
+                if (closed) {
+                    reply.completeExceptionally(new IOException("Not connected"));
+                } else {
+                    pending.add(reply);
+                    write(message);
+                }
+            }
+            if (!closed) {
+                flush();
+            }
+        }
+        return replies;
+    }
+    
+    /**
+     * Moves to the next endpoint that answers after the connection was
+     * lost. If none does, the client stays closed.
+     */
+    private void reconnect() {
+        endpointIndex = (endpointIndex + 1) % endpoints.size();
+        try {
+            connect();
         } catch (IOException e) {
-            return "Error: " + e.getMessage();
+            System.out.println("Client Error: no endpoint available: " + e.getMessage());
         }
     }
     
-    public void disconnect() {
+    private void write(String message) {
+        if (protocol == Protocol.FRAMED) {
+            try {
+                FrameCodec.writeFrame(frameOut, message);
+            } catch (IOException e) {
+                closeQuietly();
+            }
+        } else {
+            out.println(message);
+        }
+    }
+    
+    private void flush() {
+        if (protocol == Protocol.FRAMED) {
+            try {
+                frameOut.flush();
+            } catch (IOException e) {
+                closeQuietly();
+            }
+        } else {
+            out.flush();
+            if (out.checkError()) {
+                closeQuietly();
+            }
+        }
+    }
+    
+    private void readResponses(Socket socket, Queue<CompletableFuture<String>> pending, Protocol protocol,
+            BufferedReader in, DataInputStream frameIn) {
+        IOException failure = null;
         try {
-            if (socket != null && !socket.isClosed()) {
-                out.println("bye");
-                socket.close();
+            String line;
+            while ((line = protocol == Protocol.FRAMED ? FrameCodec.readFrame(frameIn) : in.readLine()) != null) {
+                if (line.startsWith(ChatRooms.PUSH_PREFIX)) {
+                    roomListener.accept(line);
+                    continue;
+                }
+                CompletableFuture<String> reply = pending.poll();
+                if (reply != null) {
+                    reply.complete(line);
+                }
             }
+        } catch (IOException e) {
+            failure = e;
+        }
+        
+        synchronized (writeLock) {
+            if (socket == this.socket && !closed) {
+                closed = true;
+                lost = true;
+            }
+        }
+        IOException cause = failure != null && !socket.isClosed()
+                ? failure
+                : new IOException("Connection closed");
+        CompletableFuture<String> reply;
+        while ((reply = pending.poll()) != null) {
+            reply.completeExceptionally(cause);
+        }
+    }
+    
+    private void closeQuietly() {
+        try {
+            socket.close();
         } catch (IOException e) {
             System.out.println("Error closing connection: " + e.getMessage());
         }
     }
+    
+    public void disconnect() {
+        synchronized (writeLock) {
+            closed = true;
+            lost = false;
+            if (socket != null && !socket.isClosed()) {
+                write("bye");
+                flush();
+                closeQuietly();
+            }
+        }
+    }
 }
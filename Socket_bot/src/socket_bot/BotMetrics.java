@@ -0,0 +1,606 @@
+package socket_bot;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connection, message and response catalog counters for a running
+ * {@link BotServer}. Counters are {@link LongAdder}s and the latency
+ * histogram is striped, so that updating them from many handler threads
+ * at once does not turn into a contention point. Anything derived, like
+ * rates and percentiles, is only worked out when it is read.
+ *
+ * The same numbers are available over JMX (see {@link BotMetricsMXBean})
+ * and as plain text on the admin port (see {@link #toText()}).
+ *
+ * @version 1.0
+ */
+public class BotMetrics implements BotMetricsMXBean {
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder reaped = new LongAdder();
+    private final LongAdder conversationsOpened = new LongAdder();
+    private final LongAdder conversationsClosed = new LongAdder();
+    private final LongAdder roomsOpened = new LongAdder();
+    private final LongAdder roomsClosed = new LongAdder();
+    private final LongAdder roomMessages = new LongAdder();
+    private final LongAdder roomDeliveries = new LongAdder();
+    private final LongAdder roomDrops = new LongAdder();
+    private final LongAdder connectionRateLimited = new LongAdder();
+    private final LongAdder addressRateLimited = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder overloads = new LongAdder();
+    private final ConcurrentSkipListMap<String, PluginStats> plugins = new ConcurrentSkipListMap<>();
+    private final LongAdder transcriptRecords = new LongAdder();
+    private final LongAdder transcriptStalls = new LongAdder();
+    private final LongAdder transcriptDropped = new LongAdder();
+    private final LongAdder transcriptSegments = new LongAdder();
+    private final LongAdder handlerLifetimeNanos = new LongAdder();
+    private final AtomicLong maxHandlerLifetimeNanos = new AtomicLong();
+    private final LongAdder catalogLoads = new LongAdder();
+    private final LongAdder catalogLoadFailures = new LongAdder();
+    private volatile int catalogSize;
+    private volatile KnowledgeBase knowledgeBase;
+    private volatile long knowledgeBaseLoadNanos;
+    private volatile long lastCatalogLoadNanos;
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder[] intentCounts = new LongAdder[Intent.values().length];
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private volatile LruCache<String, Intent> intentCache;
+    private final LongAdder retiredIntentCacheHits = new LongAdder();
+    private final LongAdder retiredIntentCacheMisses = new LongAdder();
+    private final AtomicReference<RateWindow> messageRate =
+            new AtomicReference<>(new RateWindow(System.nanoTime(), 0, 0));
+    
+    public BotMetrics() {
+        for (int i = 0; i < intentCounts.length; i++) {
+            intentCounts[i] = new LongAdder();
+        }
+    }
+    
+    void connectionOpened() {
+        accepted.increment();
+    }
+    
+    void connectionClosed(long lifetimeNanos) {
+        closed.increment();
+        handlerLifetimeNanos.add(lifetimeNanos);
+        long max = maxHandlerLifetimeNanos.get();
+        while (lifetimeNanos > max && !maxHandlerLifetimeNanos.compareAndSet(max, lifetimeNanos)) {
+            max = maxHandlerLifetimeNanos.get();
+        }
+    }
+    
+    void connectionReaped() {
+        reaped.increment();
+    }
+    
+    void conversationOpened() {
+        conversationsOpened.increment();
+    }
+    
+    void conversationClosed() {
+        conversationsClosed.increment();
+    }
+    
+    void roomOpened() {
+        roomsOpened.increment();
+    }
+    
+    void roomClosed() {
+        roomsClosed.increment();
+    }
+    
+    /**
+     * Records one message sent to a room: how many members it was queued
+     * for and how many missed it because their queue was full.
+     */
+    void roomMessageSent(int queued, int dropped) {
+        roomMessages.increment();
+        roomDeliveries.add(queued);
+        roomDrops.add(dropped);
+    }
+    
+    void rateLimited(RateLimiter.Limit limit) {
+        (limit == RateLimiter.Limit.ADDRESS ? addressRateLimited : connectionRateLimited).increment();
+    }
+    
+    void messageShed() {
+        shed.increment();
+    }
+    
+    void overloadStarted() {
+        overloads.increment();
+    }
+    
+    /**
+     * The counters of an intent handler plugin. Handlers of the same name
+     * share them.
+     */
+    PluginStats pluginRegistered(String name) {
+        return plugins.computeIfAbsent(name, key -> new PluginStats());
+    }
+    
+    void transcriptRecordsWritten(int count) {
+        transcriptRecords.add(count);
+    }
+    
+    void transcriptStalled() {
+        transcriptStalls.increment();
+    }
+    
+    void transcriptDropped() {
+        transcriptDropped.increment();
+    }
+    
+    void transcriptSegmentStarted() {
+        transcriptSegments.increment();
+    }
+    
+    /**
+     * Records one answered message: its intent and how long producing the
+     * reply took.
+     */
+    void messageHandled(Intent intent, long nanos) {
+        messages.increment();
+        intentCounts[intent.ordinal()].increment();
+        latency.record(nanos);
+    }
+    
+    /**
+     * Switches to the intent cache of a newly loaded catalog, carrying over
+     * the counts of the one it replaces.
+     */
+    void intentCacheReplaced(LruCache<String, Intent> retired, LruCache<String, Intent> current) {
+        intentCache = current;
+        if (retired != null) {
+            retiredIntentCacheHits.add(retired.getHits());
+            retiredIntentCacheMisses.add(retired.getMisses());
+        }
+    }
+    
+    void catalogLoaded(int size, long loadNanos) {
+        catalogLoads.increment();
+        catalogSize = size;
+        lastCatalogLoadNanos = loadNanos;
+    }
+    
+    void knowledgeBaseLoaded(KnowledgeBase knowledgeBase, long loadNanos) {
+        this.knowledgeBase = knowledgeBase;
+        knowledgeBaseLoadNanos = loadNanos;
+    }
+    
+    void catalogLoadFailed() {
+        catalogLoadFailures.increment();
+    }
+    
+    public long getActiveConnections() {
+        return accepted.sum() - closed.sum();
+    }
+    
+    public long getAcceptedConnections() {
+        return accepted.sum();
+    }
+    
+    public long getClosedConnections() {
+        return closed.sum();
+    }
+    
+    /**
+     * Connections closed by the server because they were idle too long.
+     */
+    public long getReapedConnections() {
+        return reaped.sum();
+    }
+    
+    public long getConversations() {
+        return conversationsOpened.sum() - conversationsClosed.sum();
+    }
+    
+    /**
+     * Rooms with at least one member.
+     */
+    public long getRooms() {
+        return roomsOpened.sum() - roomsClosed.sum();
+    }
+    
+    public long getRoomMessages() {
+        return roomMessages.sum();
+    }
+    
+    /**
+     * Room messages queued for a member, one per member reached.
+     */
+    public long getRoomDeliveries() {
+        return roomDeliveries.sum();
+    }
+    
+    /**
+     * Room messages a member missed because it was not reading them fast
+     * enough.
+     */
+    public long getRoomDrops() {
+        return roomDrops.sum();
+    }
+    
+    /**
+     * Messages refused because their connection was over its rate limit.
+     */
+    public long getConnectionRateLimited() {
+        return connectionRateLimited.sum();
+    }
+    
+    /**
+     * Messages refused because the connections from their remote address
+     * together were over the address rate limit.
+     */
+    public long getAddressRateLimited() {
+        return addressRateLimited.sum();
+    }
+    
+    /**
+     * Messages answered with the busy reply while the server was
+     * overloaded.
+     */
+    public long getShedMessages() {
+        return shed.sum();
+    }
+    
+    /**
+     * Times the server became overloaded and started shedding load.
+     */
+    public long getOverloads() {
+        return overloads.sum();
+    }
+    
+    /**
+     * Exchanges written to the transcript.
+     */
+    public long getTranscriptRecords() {
+        return transcriptRecords.sum();
+    }
+    
+    /**
+     * Times a handler had to wait because the transcript writer was too
+     * far behind. Anything but zero means the disk is not keeping up.
+     */
+    public long getTranscriptStalls() {
+        return transcriptStalls.sum();
+    }
+    
+    /**
+     * Exchanges left out of the transcript because they could not be
+     * written, or because the writer had stopped.
+     */
+    public long getTranscriptDropped() {
+        return transcriptDropped.sum();
+    }
+    
+    /**
+     * Transcript segment files started by this server.
+     */
+    public long getTranscriptSegments() {
+        return transcriptSegments.sum();
+    }
+    
+    /**
+     * Average time a connection stayed open, over every closed connection.
+     */
+    public double getAverageHandlerLifetimeMillis() {
+        long count = closed.sum();
+        return count == 0 ? 0 : handlerLifetimeNanos.sum() / 1e6 / count;
+    }
+    
+    public double getMaxHandlerLifetimeMillis() {
+        return maxHandlerLifetimeNanos.get() / 1e6;
+    }
+    
+    public long getMessages() {
+        return messages.sum();
+    }
+    
+    /**
+     * Messages answered per second since the previous reading, or over the
+     * last second if it was read more recently than that.
+     */
+    public double getMessagesPerSecond() {
+        long now = System.nanoTime();
+        long count = messages.sum();
+        RateWindow window = messageRate.get();
+        if (now - window.startedAt < TimeUnit.SECONDS.toNanos(1)) {
+            return window.rate;
+        }
+        double rate = (count - window.count) * 1e9 / (now - window.startedAt);
+        // A concurrent reader may have moved the window on already; either is fine
+        messageRate.compareAndSet(window, new RateWindow(now, count, rate));
+        return rate;
+    }
+    
+    public long getIntentCount(Intent intent) {
+        return intentCounts[intent.ordinal()].sum();
+    }
+    
+    public Map<String, Long> getIntentCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Intent intent : Intent.values()) {
+            counts.put(intent.name(), getIntentCount(intent));
+        }
+        return counts;
+    }
+    
+    /** Calls to each intent handler plugin that returned, keyed by its name. */
+    public Map<String, Long> getPluginCalls() {
+        Map<String, Long> calls = new LinkedHashMap<>();
+        for (Map.Entry<String, PluginStats> plugin : plugins.entrySet()) {
+            calls.put(plugin.getKey(), plugin.getValue().calls.sum());
+        }
+        return calls;
+    }
+    
+    /** Calls to each plugin that did not return within its timeout. */
+    public Map<String, Long> getPluginTimeouts() {
+        Map<String, Long> timeouts = new LinkedHashMap<>();
+        for (Map.Entry<String, PluginStats> plugin : plugins.entrySet()) {
+            timeouts.put(plugin.getKey(), plugin.getValue().timeouts.sum());
+        }
+        return timeouts;
+    }
+    
+    /** Calls to each plugin that threw or could not be queued. */
+    public Map<String, Long> getPluginFailures() {
+        Map<String, Long> failures = new LinkedHashMap<>();
+        for (Map.Entry<String, PluginStats> plugin : plugins.entrySet()) {
+            failures.put(plugin.getKey(), plugin.getValue().failures.sum() + plugin.getValue().rejected.sum());
+        }
+        return failures;
+    }
+    
+    public Map<String, Double> getPluginLatencyP99Micros() {
+        Map<String, Double> latencies = new LinkedHashMap<>();
+        for (Map.Entry<String, PluginStats> plugin : plugins.entrySet()) {
+            latencies.put(plugin.getKey(), plugin.getValue().latency.snapshot().valueAt(0.99) / 1e3);
+        }
+        return latencies;
+    }
+    
+    public double getLatencyP50Micros() {
+        return latency.snapshot().valueAt(0.5) / 1e3;
+    }
+    
+    public double getLatencyP99Micros() {
+        return latency.snapshot().valueAt(0.99) / 1e3;
+    }
+    
+    public double getLatencyP999Micros() {
+        return latency.snapshot().valueAt(0.999) / 1e3;
+    }
+    
+    public double getLatencyMaxMicros() {
+        return latency.snapshot().getMax() / 1e3;
+    }
+    
+    /**
+     * Number of catalogs loaded, the initial one included.
+     */
+    public long getCatalogLoads() {
+        return catalogLoads.sum();
+    }
+    
+    /**
+     * Number of reloads rejected because the file could not be read or parsed.
+     */
+    public long getCatalogLoadFailures() {
+        return catalogLoadFailures.sum();
+    }
+    
+    /**
+     * Messages whose intent was found in the intent cache.
+     */
+    public long getIntentCacheHits() {
+        LruCache<String, Intent> cache = intentCache;
+        return retiredIntentCacheHits.sum() + (cache == null ? 0 : cache.getHits());
+    }
+    
+    /**
+     * Messages that were looked up in the intent cache and had to be
+     * classified. Messages too long to cache are not counted.
+     */
+    public long getIntentCacheMisses() {
+        LruCache<String, Intent> cache = intentCache;
+        return retiredIntentCacheMisses.sum() + (cache == null ? 0 : cache.getMisses());
+    }
+    
+    public double getIntentCacheHitRate() {
+        long hits = getIntentCacheHits();
+        long lookups = hits + getIntentCacheMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+    
+    /**
+     * Inputs currently cached, all classified by the current catalog.
+     */
+    public int getIntentCacheSize() {
+        LruCache<String, Intent> cache = intentCache;
+        return cache == null ? 0 : cache.size();
+    }
+    
+    /**
+     * Number of replies in the catalog currently in use.
+     */
+    public int getCatalogSize() {
+        return catalogSize;
+    }
+    
+    /**
+     * How long reading and compiling the current catalog took.
+     */
+    public double getLastCatalogLoadMillis() {
+        return lastCatalogLoadNanos / 1e6;
+    }
+    
+    /**
+     * Documents in the knowledge base, or 0 if there is none.
+     */
+    public int getKnowledgeBaseDocuments() {
+        KnowledgeBase current = knowledgeBase;
+        return current == null ? 0 : current.documents();
+    }
+    
+    /**
+     * Roughly how much heap the knowledge base index takes.
+     */
+    public long getKnowledgeBaseBytes() {
+        KnowledgeBase current = knowledgeBase;
+        return current == null ? 0 : current.memoryBytes();
+    }
+    
+    /**
+     * How long reading and indexing the knowledge base took.
+     */
+    public double getKnowledgeBaseLoadMillis() {
+        return knowledgeBaseLoadNanos / 1e6;
+    }
+    
+    public double getKnowledgeBaseCacheHitRate() {
+        KnowledgeBase current = knowledgeBase;
+        return current == null ? 0 : current.cacheHitRate();
+    }
+    
+    /**
+     * Every metric as one {@code name value} line, in the Prometheus text
+     * format, as served on the admin port.
+     */
+    public String toText() {
+        LatencyHistogram.Snapshot latencies = latency.snapshot();
+        StringBuilder text = new StringBuilder();
+        line(text, "bot_connections_active", getActiveConnections());
+        line(text, "bot_connections_accepted_total", getAcceptedConnections());
+        line(text, "bot_connections_closed_total", getClosedConnections());
+        line(text, "bot_connections_reaped_total", getReapedConnections());
+        line(text, "bot_conversations", getConversations());
+        line(text, "bot_rooms", getRooms());
+        line(text, "bot_room_messages_total", getRoomMessages());
+        line(text, "bot_room_deliveries_total", getRoomDeliveries());
+        line(text, "bot_room_drops_total", getRoomDrops());
+        line(text, "bot_connection_lifetime_avg_ms", getAverageHandlerLifetimeMillis());
+        line(text, "bot_connection_lifetime_max_ms", getMaxHandlerLifetimeMillis());
+        line(text, "bot_messages_total", getMessages());
+        line(text, "bot_messages_per_second", getMessagesPerSecond());
+        for (Intent intent : Intent.values()) {
+            line(text, "bot_intent_total{intent=\"" + intent.name().toLowerCase(Locale.ROOT) + "\"}", getIntentCount(intent));
+        }
+        line(text, "bot_message_latency_us{quantile=\"0.5\"}", latencies.valueAt(0.5) / 1e3);
+        line(text, "bot_message_latency_us{quantile=\"0.99\"}", latencies.valueAt(0.99) / 1e3);
+        line(text, "bot_message_latency_us{quantile=\"0.999\"}", latencies.valueAt(0.999) / 1e3);
+        line(text, "bot_message_latency_us_max", latencies.getMax() / 1e3);
+        line(text, "bot_message_latency_us_count", latencies.getCount());
+        line(text, "bot_intent_cache_hits_total", getIntentCacheHits());
+        line(text, "bot_intent_cache_misses_total", getIntentCacheMisses());
+        line(text, "bot_intent_cache_hit_rate", getIntentCacheHitRate());
+        line(text, "bot_intent_cache_size", getIntentCacheSize());
+        line(text, "bot_rate_limited_total{limit=\"connection\"}", getConnectionRateLimited());
+        line(text, "bot_rate_limited_total{limit=\"address\"}", getAddressRateLimited());
+        line(text, "bot_shed_messages_total", getShedMessages());
+        line(text, "bot_overloads_total", getOverloads());
+        for (Map.Entry<String, PluginStats> plugin : plugins.entrySet()) {
+            plugin.getValue().toText(text, "{plugin=\"" + plugin.getKey() + "\"");
+        }
+        line(text, "bot_transcript_records_total", getTranscriptRecords());
+        line(text, "bot_transcript_stalls_total", getTranscriptStalls());
+        line(text, "bot_transcript_dropped_total", getTranscriptDropped());
+        line(text, "bot_transcript_segments_total", getTranscriptSegments());
+        line(text, "bot_catalog_size", getCatalogSize());
+        line(text, "bot_catalog_loads_total", getCatalogLoads());
+        line(text, "bot_catalog_load_failures_total", getCatalogLoadFailures());
+        line(text, "bot_catalog_last_load_ms", getLastCatalogLoadMillis());
+        line(text, "bot_knowledge_base_documents", getKnowledgeBaseDocuments());
+        line(text, "bot_knowledge_base_bytes", getKnowledgeBaseBytes());
+        line(text, "bot_knowledge_base_load_ms", getKnowledgeBaseLoadMillis());
+        line(text, "bot_knowledge_base_cache_hit_rate", getKnowledgeBaseCacheHitRate());
+        return text.toString();
+    }
+    
+    private static void line(StringBuilder text, String name, long value) {
+        text.append(name).append(' ').append(value).append('\n');
+    }
+    
+    private static void line(StringBuilder text, String name, double value) {
+        text.append(name).append(' ').append(String.format(Locale.ROOT, "%.3f", value)).append('\n');
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("active=%d accepted=%d closed=%d reaped=%d conversations=%d rooms=%d avgLifetime=%.1fms maxLifetime=%.1fms"
+                + " messages=%d p99=%.1fus intentCacheHitRate=%.3f catalogSize=%d catalogLoads=%d catalogLoadFailures=%d lastCatalogLoad=%.2fms",
+                getActiveConnections(), getAcceptedConnections(), getClosedConnections(),
+                getReapedConnections(), getConversations(), getRooms(), getAverageHandlerLifetimeMillis(), getMaxHandlerLifetimeMillis(),
+                getMessages(), getLatencyP99Micros(), getIntentCacheHitRate(), getCatalogSize(), getCatalogLoads(), getCatalogLoadFailures(), getLastCatalogLoadMillis());
+    }
+    
+    /**
+     * How an intent handler plugin is doing: its outcomes and how long it
+     * takes to run, whether or not it ran within its timeout.
+     */
+    static final class PluginStats {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder replies = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        
+        void called(boolean replied, long nanos) {
+            calls.increment();
+            if (replied) {
+                replies.increment();
+            }
+            latency.record(nanos);
+        }
+        
+        void failed(long nanos) {
+            failures.increment();
+            latency.record(nanos);
+        }
+        
+        void timedOut() {
+            timeouts.increment();
+        }
+        
+        void rejected() {
+            rejected.increment();
+        }
+        
+        /**
+         * @param labels the plugin label, to be closed by each line
+         */
+        void toText(StringBuilder text, String labels) {
+            LatencyHistogram.Snapshot latencies = latency.snapshot();
+            line(text, "bot_plugin_calls_total" + labels + "}", calls.sum());
+            line(text, "bot_plugin_replies_total" + labels + "}", replies.sum());
+            line(text, "bot_plugin_timeouts_total" + labels + "}", timeouts.sum());
+            line(text, "bot_plugin_failures_total" + labels + "}", failures.sum());
+            line(text, "bot_plugin_rejected_total" + labels + "}", rejected.sum());
+            line(text, "bot_plugin_latency_us" + labels + ",quantile=\"0.5\"}", latencies.valueAt(0.5) / 1e3);
+            line(text, "bot_plugin_latency_us" + labels + ",quantile=\"0.99\"}", latencies.valueAt(0.99) / 1e3);
+            line(text, "bot_plugin_latency_us_max" + labels + "}", latencies.getMax() / 1e3);
+        }
+    }
+    
+    private static final class RateWindow {
+        final long startedAt;
+        final long count;
+        final double rate;
+        
+        RateWindow(long startedAt, long count, double rate) {
+            this.startedAt = startedAt;
+            this.count = count;
+            this.rate = rate;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package socket_bot;
+
+import java.util.Map;
+
+/**
+ * The {@link BotMetrics} of a running {@link BotServer} as seen over JMX,
+ * registered as {@code socket_bot:type=BotServer,port=<port>}.
+ *
+ * @version 1.0
+ */
+public interface BotMetricsMXBean {
+    long getActiveConnections();
+    
+    long getAcceptedConnections();
+    
+    long getClosedConnections();
+    
+    long getReapedConnections();
+    
+    /** Sessions whose conversation state the server is keeping. */
+    long getConversations();
+    
+    /** Chat rooms with at least one member. */
+    long getRooms();
+    
+    long getRoomMessages();
+    
+    long getRoomDeliveries();
+    
+    /** Room messages a member missed because its queue was full. */
+    long getRoomDrops();
+    
+    double getAverageHandlerLifetimeMillis();
+    
+    double getMaxHandlerLifetimeMillis();
+    
+    long getMessages();
+    
+    double getMessagesPerSecond();
+    
+    /** Messages answered per intent, keyed by intent name. */
+    Map<String, Long> getIntentCounts();
+    
+    /** Calls to each intent handler plugin that returned, keyed by its name. */
+    Map<String, Long> getPluginCalls();
+    
+    Map<String, Long> getPluginTimeouts();
+    
+    Map<String, Long> getPluginFailures();
+    
+    Map<String, Double> getPluginLatencyP99Micros();
+    
+    double getLatencyP50Micros();
+    
+    double getLatencyP99Micros();
+    
+    double getLatencyP999Micros();
+    
+    double getLatencyMaxMicros();
+    
+    long getIntentCacheHits();
+    
+    long getIntentCacheMisses();
+    
+    double getIntentCacheHitRate();
+    
+    int getIntentCacheSize();
+    
+    long getConnectionRateLimited();
+    
+    long getAddressRateLimited();
+    
+    /** Messages answered with the busy reply during overload. */
+    long getShedMessages();
+    
+    long getOverloads();
+    
+    long getTranscriptRecords();
+    
+    /** Times a handler waited for the transcript writer to catch up. */
+    long getTranscriptStalls();
+    
+    long getTranscriptDropped();
+    
+    long getTranscriptSegments();
+    
+    long getCatalogLoads();
+    
+    long getCatalogLoadFailures();
+    
+    int getCatalogSize();
+    
+    double getLastCatalogLoadMillis();
+    
+    int getKnowledgeBaseDocuments();
+    
+    long getKnowledgeBaseBytes();
+    
+    double getKnowledgeBaseLoadMillis();
+    
+    double getKnowledgeBaseCacheHitRate();
+}
@@ -0,0 +1,569 @@
+package socket_bot;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A front end that spreads client connections over several
+ * {@link BotServer}s, so that more clients can be served than one server
+ * can take. Clients connect to the router as if it were a server.
+ *
+ * Each client connection is paired with a connection to one backend,
+ * picked by one of two {@link Balancing} policies. The router forwards
+ * whole messages, lines or frames (see {@link FrameCodec}), and remembers
+ * the ones not answered yet. If the backend goes away, because it crashed
+ * or was stopped, the session moves to another backend, which is sent the
+ * unanswered messages again. The client only notices that some replies
+ * took longer. A message may thus be answered by the second backend after
+ * the first one had already handled it, which is harmless for the bot.
+ *
+ * A background thread checks every backend with a TCP connect at a fixed
+ * interval. Backends that fail it, or that a session failed to reach, get
+ * no new sessions until they pass it again.
+ *
+ * Options are given as {@code --key=value}:
+ * - {@code --port=5000}
+ * - {@code --backends=localhost:5001,localhost:5002}
+ * - {@code --balancing=least-connections|consistent-hash}
+ * - {@code --health-interval-ms=1000}
+ *
+ * @version 1.0
+ */
+public class BotRouter {
+    private static final int VIRTUAL_NODES = 100;
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    
+    /**
+     * How the router picks a backend for a new session.
+     */
+    public enum Balancing {
+        /** The healthy backend with the fewest open sessions. */
+        LEAST_CONNECTIONS,
+        /**
+         * A backend chosen by the client's address on a hash ring, so a
+         * client keeps going to the same backend, and to its conversation
+         * state, and adding a backend only moves a share of the clients.
+         */
+        CONSISTENT_HASH
+    }
+    
+    private int port = 5000;
+    private final List<Backend> backends = new ArrayList<>();
+    private Balancing balancing = Balancing.LEAST_CONNECTIONS;
+    private long healthCheckIntervalMillis = 1000;
+    
+    private ServerSocket serverSocket;
+    private ExecutorService workers;
+    private TreeMap<Integer, Backend> ring;
+    private Thread acceptor;
+    private Thread healthChecker;
+    private volatile int localPort = -1;
+    private final AtomicInteger nextBackend = new AtomicInteger();
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    
+    /**
+     * The port to listen on. Zero picks a free port, which
+     * {@link #getLocalPort()} tells once the router is started.
+     */
+    public BotRouter setPort(int port) {
+        this.port = port;
+        return this;
+    }
+    
+    public BotRouter addBackend(String host, int port) {
+        backends.add(new Backend(new InetSocketAddress(host, port)));
+        return this;
+    }
+    
+    public BotRouter setBalancing(Balancing balancing) {
+        this.balancing = balancing;
+        return this;
+    }
+    
+    public BotRouter setHealthCheckIntervalMillis(long healthCheckIntervalMillis) {
+        if (healthCheckIntervalMillis < 1) {
+            throw new IllegalArgumentException("healthCheckIntervalMillis must be at least 1");
+        }
+        this.healthCheckIntervalMillis = healthCheckIntervalMillis;
+        return this;
+    }
+    
+    /**
+     * Binds the listening socket and starts routing on background threads,
+     * then returns.
+     *
+     * @throws IOException if the port cannot be bound
+     * @throws IllegalStateException if there are no backends, or the router
+     *         was started or stopped before
+     */
+    public void start() throws IOException {
+        if (backends.isEmpty()) {
+            throw new IllegalStateException("No backends to route to");
+        }
+        if (stopped.get() || !started.compareAndSet(false, true)) {
+            throw new IllegalStateException("A router can only be started once");
+        }
+        ring = buildRing();
+        try {
+            serverSocket = new ServerSocket(port);
+        } catch (IOException e) {
+            terminated.countDown();
+            throw e;
+        }
+        localPort = serverSocket.getLocalPort();
+        workers = BotServer.newHandlerExecutor();
+        System.out.println("Bot Router started on port " + localPort + " for " + backends);
+        
+        healthChecker = new Thread(this::checkHealth, "bot-router-health");
+        healthChecker.setDaemon(true);
+        healthChecker.start();
+        acceptor = new Thread(this::acceptLoop, "bot-router-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+    
+    /**
+     * Stops accepting clients and closes every session. Returns at once;
+     * {@link #awaitTermination} waits for the router to finish.
+     */
+    public void stop() {
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
+        if (!started.get()) {
+            terminated.countDown();
+            return;
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.out.println("Router Error: " + e.getMessage());
+        }
+    }
+    
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+    
+    /**
+     * The port the router is listening on, or -1 before it is started.
+     */
+    public int getLocalPort() {
+        return localPort;
+    }
+    
+    /**
+     * Number of backends that passed their last health check.
+     */
+    public int getHealthyBackends() {
+        int healthy = 0;
+        for (Backend backend : backends) {
+            if (backend.healthy) {
+                healthy++;
+            }
+        }
+        return healthy;
+    }
+    
+    private void acceptLoop() {
+        while (!stopped.get()) {
+            Socket client;
+            try {
+                client = serverSocket.accept();
+            } catch (IOException e) {
+                if (!stopped.get()) {
+                    System.out.println("Router Error: " + e.getMessage());
+                }
+                break;
+            }
+            try {
+                client.setTcpNoDelay(true);
+                Session session = new Session(client);
+                sessions.add(session);
+                workers.execute(session);
+            } catch (IOException e) {
+                // Say a client that reset right away; only its session is lost
+                System.out.println("Router Error: " + e.getMessage());
+                try {
+                    client.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        
+        stopped.set(true);
+        for (Session session : sessions) {
+            session.close();
+        }
+        healthChecker.interrupt();
+        workers.shutdown();
+        System.out.println("Bot Router on port " + localPort + " stopped");
+        terminated.countDown();
+    }
+    
+    private void checkHealth() {
+        while (!Thread.currentThread().isInterrupted()) {
+            for (Backend backend : backends) {
+                try (Socket probe = new Socket()) {
+                    probe.connect(backend.address, CONNECT_TIMEOUT_MILLIS);
+                    backend.setHealthy(true);
+                } catch (IOException e) {
+                    backend.setHealthy(false);
+                }
+            }
+            try {
+                Thread.sleep(healthCheckIntervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+    
+    private TreeMap<Integer, Backend> buildRing() {
+        TreeMap<Integer, Backend> nodes = new TreeMap<>();
+        for (Backend backend : backends) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                nodes.put(hash(backend.address + "#" + i), backend);
+            }
+        }
+        return nodes;
+    }
+    
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 15);
+    }
+    
+    /**
+     * Picks a backend for a session, leaving out the ones it has already
+     * failed to use. Healthy backends are preferred; if none is left, the
+     * others are tried anyway in case the health checks are behind.
+     *
+     * @return the backend, or null if every backend was tried
+     */
+    private Backend choose(InetAddress client, Set<Backend> tried) {
+        Backend healthy = balancing == Balancing.CONSISTENT_HASH
+                ? chooseOnRing(client, tried, true)
+                : chooseLeastConnections(tried, true);
+        if (healthy != null) {
+            return healthy;
+        }
+        return balancing == Balancing.CONSISTENT_HASH
+                ? chooseOnRing(client, tried, false)
+                : chooseLeastConnections(tried, false);
+    }
+    
+    private Backend chooseLeastConnections(Set<Backend> tried, boolean healthyOnly) {
+        Backend best = null;
+        // Start at a different backend each time so ties are spread round
+        int start = Math.floorMod(nextBackend.getAndIncrement(), backends.size());
+        for (int i = 0; i < backends.size(); i++) {
+            Backend backend = backends.get((start + i) % backends.size());
+            if (tried.contains(backend) || (healthyOnly && !backend.healthy)) {
+                continue;
+            }
+            if (best == null || backend.sessions.get() < best.sessions.get()) {
+                best = backend;
+            }
+        }
+        return best;
+    }
+    
+    private Backend chooseOnRing(InetAddress client, Set<Backend> tried, boolean healthyOnly) {
+        Map.Entry<Integer, Backend> entry = ring.ceilingEntry(hash(client.getHostAddress()));
+        for (int i = 0; i < ring.size(); i++) {
+            if (entry == null) {
+                entry = ring.firstEntry();
+            }
+            Backend backend = entry.getValue();
+            if (!tried.contains(backend) && (!healthyOnly || backend.healthy)) {
+                return backend;
+            }
+            entry = ring.higherEntry(entry.getKey());
+        }
+        return null;
+    }
+    
+    /**
+     * A backend server and what the router knows about it.
+     */
+    private static final class Backend {
+        final InetSocketAddress address;
+        final AtomicInteger sessions = new AtomicInteger();
+        volatile boolean healthy = true;
+        
+        Backend(InetSocketAddress address) {
+            this.address = address;
+        }
+        
+        void setHealthy(boolean healthy) {
+            if (this.healthy != healthy) {
+                System.out.println("Router: backend " + this + (healthy ? " is up" : " is down"));
+            }
+            this.healthy = healthy;
+        }
+        
+        @Override
+        public String toString() {
+            return address.getHostString() + ":" + address.getPort();
+        }
+    }
+    
+    /**
+     * One client connection and the backend connection serving it. The
+     * session's thread reads messages from the client and forwards them;
+     * a second task reads the backend's replies and passes them back.
+     * Everything that touches the backend connection holds the session's
+     * lock, so a failover never interleaves with forwarding.
+     */
+    private final class Session implements Runnable {
+        private final Socket client;
+        private final OutputStream clientOut;
+        private final Deque<String> unanswered = new ArrayDeque<>();
+        private final Set<Backend> failed = new HashSet<>();
+        private boolean framed;
+        private boolean closed;
+        private Backend backend;
+        private Socket backendSocket;
+        private OutputStream backendOut;
+        // Tells the current backend's reader from those of earlier backends
+        private int generation;
+        
+        Session(Socket client) throws IOException {
+            this.client = client;
+            this.clientOut = new BufferedOutputStream(client.getOutputStream());
+        }
+        
+        @Override
+        public void run() {
+            try {
+                InputStream rawIn = client.getInputStream();
+                String first = FrameCodec.readHandshakeLine(rawIn);
+                framed = FrameCodec.UPGRADE_REQUEST.equals(first);
+                synchronized (this) {
+                    if (!connectBackend()) {
+                        return;
+                    }
+                    if (framed) {
+                        writeLine(clientOut, FrameCodec.UPGRADE_ACCEPTED);
+                        clientOut.flush();
+                    }
+                }
+                if (framed) {
+                    DataInputStream frameIn = new DataInputStream(new BufferedInputStream(rawIn));
+                    String message;
+                    while ((message = FrameCodec.readFrame(frameIn)) != null) {
+                        forward(message);
+                    }
+                } else {
+                    forward(first);
+                    BufferedReader lineIn = new BufferedReader(new InputStreamReader(rawIn, StandardCharsets.UTF_8));
+                    String message;
+                    while ((message = lineIn.readLine()) != null) {
+                        forward(message);
+                    }
+                }
+            } catch (IOException e) {
+                // The client went away
+            } finally {
+                close();
+            }
+        }
+        
+        private synchronized void forward(String message) {
+            if (closed) {
+                return;
+            }
+            unanswered.add(message);
+            try {
+                send(backendOut, message);
+                backendOut.flush();
+            } catch (IOException e) {
+                failover();
+            }
+        }
+        
+        /**
+         * Connects to a backend the session has not failed on yet, repeats
+         * the protocol upgrade if there was one and starts reading replies.
+         *
+         * @return false if no backend could be reached
+         */
+        private boolean connectBackend() {
+            Backend next;
+            while ((next = choose(client.getInetAddress(), failed)) != null) {
+                Socket socket = new Socket();
+                try {
+                    socket.connect(next.address, CONNECT_TIMEOUT_MILLIS);
+                    socket.setTcpNoDelay(true);
+                    OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                    InputStream in = socket.getInputStream();
+                    if (framed) {
+                        writeLine(out, FrameCodec.UPGRADE_REQUEST);
+                        out.flush();
+                        if (!FrameCodec.UPGRADE_ACCEPTED.equals(FrameCodec.readHandshakeLine(in))) {
+                            throw new IOException("Backend did not accept frames");
+                        }
+                    }
+                    for (String message : unanswered) {
+                        send(out, message);
+                    }
+                    out.flush();
+                    
+                    backend = next;
+                    backendSocket = socket;
+                    backendOut = out;
+                    next.sessions.incrementAndGet();
+                    int readerGeneration = ++generation;
+                    workers.execute(() -> readReplies(socket, in, readerGeneration));
+                    return true;
+                } catch (IOException e) {
+                    closeQuietly(socket);
+                    failed.add(next);
+                    next.setHealthy(false);
+                }
+            }
+            System.out.println("Router Error: no backend available for " + client.getRemoteSocketAddress());
+            close();
+            return false;
+        }
+        
+        /**
+         * Moves the session to another backend after the current one
+         * failed. Called with the session's lock held.
+         */
+        private void failover() {
+            if (closed) {
+                return;
+            }
+            releaseBackend();
+            failed.add(backend);
+            connectBackend();
+        }
+        
+        private void readReplies(Socket socket, InputStream in, int readerGeneration) {
+            try {
+                DataInputStream frameIn = framed ? new DataInputStream(new BufferedInputStream(in)) : null;
+                BufferedReader lineIn = framed
+                        ? null
+                        : new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                while (true) {
+                    String reply = framed ? FrameCodec.readFrame(frameIn) : lineIn.readLine();
+                    if (reply == null) {
+                        break;
+                    }
+                    boolean more = framed ? frameIn.available() > 0 : lineIn.ready();
+                    synchronized (this) {
+                        if (readerGeneration != generation || closed) {
+                            return;
+                        }
+                        // Room messages are pushed, not answers
+                        if (!reply.startsWith(ChatRooms.PUSH_PREFIX)) {
+                            unanswered.poll();
+                        }
+                        send(clientOut, reply);
+                        if (!more) {
+                            clientOut.flush();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Either side went away, sorted out below
+            }
+            synchronized (this) {
+                if (readerGeneration != generation || closed) {
+                    return;
+                }
+                if (client.isClosed()) {
+                    close();
+                } else {
+                    failover();
+                }
+            }
+        }
+        
+        private void send(OutputStream out, String message) throws IOException {
+            if (framed) {
+                FrameCodec.writeFrame(new DataOutputStream(out), message);
+            } else {
+                writeLine(out, message);
+            }
+        }
+        
+        private void releaseBackend() {
+            if (backendSocket != null) {
+                closeQuietly(backendSocket);
+                backend.sessions.decrementAndGet();
+                backendSocket = null;
+            }
+        }
+        
+        synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            releaseBackend();
+            closeQuietly(client);
+            sessions.remove(this);
+        }
+    }
+    
+    private static void writeLine(OutputStream out, String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.out.println("Error closing connection: " + e.getMessage());
+        }
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        BotRouter router = new BotRouter();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("Expected --key=value but got: " + arg);
+            }
+            String key = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            switch (key) {
+                case "port":
+                    router.setPort(Integer.parseInt(value));
+                    break;
+                case "backends":
+                    for (InetSocketAddress address : BotClient.parseEndpoints(value)) {
+                        router.addBackend(address.getHostString(), address.getPort());
+                    }
+                    break;
+                case "balancing":
+                    router.setBalancing(Balancing.valueOf(value.toUpperCase(Locale.ROOT).replace('-', '_')));
+                    break;
+                case "health-interval-ms":
+                    router.setHealthCheckIntervalMillis(Long.parseLong(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: --" + key);
+            }
+        }
+        
+        try {
+            router.start();
+        } catch (IOException e) {
+            System.out.println("Router Error: " + e.getMessage());
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(router::stop, "bot-router-shutdown"));
+        router.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+}
@@ -2,8 +2,18 @@ package socket_bot;
 
 import java.io.*;
 import java.net.*;
-import java.util.*;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.management.*;
 
 /**
  * A server implementation for the chat bot application that handles
@@ -12,8 +22,23 @@ import java.text.SimpleDateFormat;
  * types of user inputs and supports basic conversation patterns.
  *
  * Features:
- * - Multi-client support through threaded handlers
- * - Customizable response patterns
+ * - Multi-client support through threaded handlers or a
+ *   non-blocking selector event loop (see {@link ServerConfig.Mode})
+ * - A cap on concurrent connections with backpressure on accept
+ * - Per-connection and per-address rate limits, and load shedding when
+ *   overloaded
+ * - Idle connections are closed after a configurable timeout
+ * - Line or length-prefixed frame protocol, negotiated per connection
+ * - Replies to pipelined requests are coalesced into one write
+ * - Customizable response patterns, reloaded when their file changes
+ * - A cache of the intents of recently seen inputs
+ * - Metrics over JMX and on a local admin port
+ * - Graceful shutdown that drains in-flight messages
+ * - Per-session memory of the user's name and the replies already given
+ * - An asynchronous, memory-mapped transcript of every exchange
+ * - Chat rooms whose messages fan out to every member, the bot included
+ * - Intent handler plugins, the slow ones run off the connection's thread
+ * - Answers to free-form questions from a local, BM25 ranked corpus
  * - Time-aware greetings
  * - Context-based responses
  *
@@ -21,178 +46,893 @@ import java.text.SimpleDateFormat;
  * @version 1.0
  */
 public class BotServer {
+    private static final long FORCED_CLOSE_TIMEOUT_MILLIS = 1000;
+    /** Longer inputs are rarely repeated and would only push out the common ones. */
+    private static final int MAX_CACHED_INPUT_LENGTH = 128;
+    static final String RATE_LIMITED_REPLY = "Slow down, you are sending messages too fast.";
+    static final String BUSY_REPLY = "The server is busy, please try again later.";
+    static final String ERROR_REPLY = "Sorry, something went wrong, please try again.";
+    
     private ServerSocket serverSocket;
-    private final int PORT = 5000;
-    private Map<String, String[]> responses;
+    private NioServer nioServer;
+    private ExecutorService handlerPool;
+    private ExecutorService roomWriters;
+    private AdminEndpoint adminEndpoint;
+    private TranscriptLog transcriptLog;
+    private ObjectName mbeanName;
+    private Thread acceptor;
+    private volatile int localPort = -1;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    private final Set<ClientHandler> handlers = ConcurrentHashMap.newKeySet();
+    private final ServerConfig config;
+    private final BotMetrics metrics = new BotMetrics();
+    private final ClockService clock = new ClockService();
+    private final Semaphore connectionSlots;
+    private final AtomicReference<ResponseCatalog> catalog = new AtomicReference<>();
+    private CatalogWatcher catalogWatcher;
+    private final AtomicLong sessions = new AtomicLong();
+    private final ConversationStore conversations = new ConversationStore();
+    private final AtomicReference<IntentCache> intentCache = new AtomicReference<>();
+    private final ChatRooms rooms;
+    private final RateLimiter rateLimiter;
+    private final LoadShedder loadShedder;
+    private final IntentHandlers intentHandlers;
+    private final IdleReaper idleReaper;
     
     public BotServer() {
-        initializeResponses();
-    }
-    
-    private void initializeResponses() {
-        responses = new HashMap<>();
-        
-        responses.put("hello", new String[]{
-            "Hello! How can I help you today?",
-            "Hi there! What can I do for you?",
-            "Greetings! How may I assist you?",
-            "Hello! It's great to hear from you!",
-            "Hi! I'm here to help. What's on your mind?"
-        });
-        
-        responses.put("weather", new String[]{
-            "The weather is quite pleasant today!",
-            "It's a beautiful day outside!",
-            "Perfect weather for any activity!",
-            "The weather's been lovely lately!",
-            "A wonderful day to be outside!"
-        });
-        
-        responses.put("bye", new String[]{
-            "Goodbye! Have a great day!",
-            "See you later! Take care!",
-            "Farewell! Hope to chat again soon!",
-            "Bye! It was nice talking to you!",
-            "Take care! Come back anytime!"
-        });
-    }
-    
-    public void start() {
+        this(new ServerConfig());
+    }
+    
+    public BotServer(ServerConfig config) {
+        this.config = config;
+        this.connectionSlots = new Semaphore(config.getMaxConnections());
+        this.idleReaper = config.getIdleTimeoutMillis() > 0
+                ? new IdleReaper(config.getIdleTimeoutMillis())
+                : null;
+        this.rooms = new ChatRooms(this, config.getRoomQueueCapacity());
+        this.rateLimiter = config.getRateLimitPerSecond() > 0 || config.getAddressRateLimitPerSecond() > 0
+                ? new RateLimiter(config.getRateLimitPerSecond(), config.getRateLimitBurst(),
+                        config.getAddressRateLimitPerSecond(), config.getAddressRateLimitBurst())
+                : null;
+        this.loadShedder = config.getOverloadInFlight() > 0 || config.getOverloadLatencyMicros() > 0
+                ? new LoadShedder(config.getOverloadInFlight(), config.getOverloadLatencyMicros(), metrics)
+                : null;
+        this.intentHandlers = new IntentHandlers(config, metrics);
+        intentHandlers.loadServices();
+        loadCatalog();
+        loadKnowledgeBase();
+    }
+    
+    public BotMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * The keyword rules and replies currently in use.
+     */
+    public ResponseCatalog getCatalog() {
+        return catalog.get();
+    }
+    
+    private void loadCatalog() {
+        if (config.getCatalogFile() == null) {
+            long startedAt = System.nanoTime();
+            catalog.set(ResponseCatalog.defaults());
+            metrics.catalogLoaded(catalog.get().size(), System.nanoTime() - startedAt);
+            return;
+        }
+        catalogWatcher = new CatalogWatcher(config.getCatalogFile(), catalog, metrics);
+        if (!catalogWatcher.reload()) {
+            throw new IllegalArgumentException("Cannot load catalog " + config.getCatalogFile());
+        }
+    }
+    
+    private void loadKnowledgeBase() {
+        if (config.getKnowledgeBaseFile() == null) {
+            return;
+        }
+        long startedAt = System.nanoTime();
+        KnowledgeBase knowledgeBase;
         try {
-            serverSocket = new ServerSocket(PORT);
-            System.out.println("Bot Server started on port " + PORT);
-            
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
-                new ClientHandler(clientSocket).start();
+            knowledgeBase = KnowledgeBase.load(config.getKnowledgeBaseFile(),
+                    config.getKnowledgeBaseCacheSize(), config.getKnowledgeBaseMinScore());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot load knowledge base " + config.getKnowledgeBaseFile(), e);
+        }
+        metrics.knowledgeBaseLoaded(knowledgeBase, System.nanoTime() - startedAt);
+        // After the plugins, which can so answer some questions their own way
+        intentHandlers.add(knowledgeBase);
+    }
+    
+    /**
+     * Binds the listening socket and starts accepting connections on a
+     * background thread, then returns. When the configuration asks for
+     * port 0, {@link #getLocalPort()} tells which port was picked.
+     *
+     * @throws IOException if the port cannot be bound
+     * @throws IllegalStateException if the server was started or stopped before
+     */
+    public void start() throws IOException {
+        if (stopped.get() || !started.compareAndSet(false, true)) {
+            throw new IllegalStateException("A server can only be started once");
+        }
+        try {
+            if (config.getTranscriptDirectory() != null) {
+                transcriptLog = new TranscriptLog(config.getTranscriptDirectory(),
+                        config.getTranscriptSegmentBytes(), metrics);
+            }
+            if (config.getMode() == ServerConfig.Mode.NIO) {
+                nioServer = new NioServer(this, config);
+                localPort = nioServer.bind();
+            } else {
+                serverSocket = new ServerSocket();
+                bind(serverSocket);
+                localPort = serverSocket.getLocalPort();
+                handlerPool = config.getMode() == ServerConfig.Mode.EXECUTOR ? newHandlerExecutor() : null;
+                roomWriters = newHandlerExecutor();
+                System.out.println("Bot Server started on port " + localPort
+                        + " (" + config.getMode().name().toLowerCase(Locale.ROOT) + ")");
+            }
+        } catch (IOException e) {
+            if (transcriptLog != null) {
+                transcriptLog.close();
+            }
+            terminated.countDown();
+            throw e;
+        }
+        
+        if (catalogWatcher != null) {
+            catalogWatcher.start();
+        }
+        registerMBean();
+        if (idleReaper != null) {
+            idleReaper.start();
+        }
+        if (config.getAdminPort() >= 0) {
+            try {
+                adminEndpoint = new AdminEndpoint(metrics, config.getAdminPort());
+                adminEndpoint.start();
+            } catch (IOException e) {
+                System.out.println("Admin Error: " + e.getMessage());
+            }
+        }
+        
+        acceptor = new Thread(this::serve, "bot-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+    
+    /**
+     * Stops accepting connections and starts draining the open ones: each
+     * connection is sent the replies to the messages the server has already
+     * read from it, then closed. Connections still open when the drain
+     * timeout runs out (see {@link ServerConfig#setDrainTimeoutMillis}) are
+     * closed regardless. Returns at once; {@link #awaitTermination} waits
+     * for the server to finish.
+     */
+    public void stop() {
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
+        if (!started.get()) {
+            terminated.countDown();
+            return;
+        }
+        try {
+            if (nioServer != null) {
+                nioServer.close();
+            } else {
+                serverSocket.close();
             }
         } catch (IOException e) {
             System.out.println("Server Error: " + e.getMessage());
         }
+        // Wakes the acceptor up if it is waiting for a free connection slot
+        acceptor.interrupt();
+    }
+    
+    /**
+     * Blocks until the server has stopped and every connection is closed,
+     * or the timeout runs out.
+     *
+     * @return whether the server terminated within the timeout
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+    
+    /**
+     * The port the server is listening on, or -1 before it is started.
+     */
+    public int getLocalPort() {
+        return localPort;
+    }
+    
+    private void serve() {
+        try {
+            if (nioServer != null) {
+                nioServer.acceptLoop();
+            } else {
+                acceptLoop();
+            }
+        } catch (IOException e) {
+            if (!stopped.get()) {
+                System.out.println("Server Error: " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            // Interrupted by stop()
+        }
+        stopped.set(true);
+        drainAndClose();
+    }
+    
+    private void acceptLoop() throws IOException, InterruptedException {
+        while (!stopped.get()) {
+            acquireConnectionSlot();
+            Socket clientSocket;
+            try {
+                clientSocket = serverSocket.accept();
+            } catch (IOException e) {
+                releaseConnectionSlot();
+                throw e;
+            }
+            try {
+                configure(clientSocket);
+            } catch (IOException e) {
+                // Say a client that reset right away; only its connection is lost
+                System.out.println("Handler Error: " + e.getMessage());
+                try {
+                    clientSocket.close();
+                } catch (IOException ignored) {
+                }
+                releaseConnectionSlot();
+                continue;
+            }
+            ClientHandler handler = new ClientHandler(clientSocket);
+            handlers.add(handler);
+            if (handlerPool != null) {
+                handlerPool.execute(handler);
+            } else {
+                new Thread(handler).start();
+            }
+        }
+    }
+    
+    /**
+     * Runs on the acceptor thread once it has stopped accepting. Every open
+     * connection holds a connection slot, so getting all the slots back
+     * means every connection is closed.
+     */
+    private void drainAndClose() {
+        if (nioServer != null) {
+            nioServer.drain();
+        } else {
+            for (ClientHandler handler : handlers) {
+                handler.drain();
+            }
+        }
+        
+        if (!awaitAllConnectionSlots(config.getDrainTimeoutMillis())) {
+            if (nioServer != null) {
+                nioServer.closeAll();
+            } else {
+                for (ClientHandler handler : handlers) {
+                    handler.close();
+                }
+            }
+            awaitAllConnectionSlots(FORCED_CLOSE_TIMEOUT_MILLIS);
+        }
+        
+        if (nioServer != null) {
+            nioServer.stopReactors();
+        }
+        if (handlerPool != null) {
+            handlerPool.shutdown();
+        }
+        if (roomWriters != null) {
+            roomWriters.shutdown();
+        }
+        intentHandlers.shutdown();
+        if (idleReaper != null) {
+            idleReaper.stop();
+        }
+        if (catalogWatcher != null) {
+            catalogWatcher.stop();
+        }
+        if (adminEndpoint != null) {
+            adminEndpoint.stop();
+        }
+        if (transcriptLog != null) {
+            // After the connections, so every exchange they had is written
+            transcriptLog.close();
+        }
+        unregisterMBean();
+        System.out.println("Bot Server on port " + localPort + " stopped");
+        terminated.countDown();
+    }
+    
+    /**
+     * Applies the listening socket options and binds. Shared with the NIO
+     * mode, which binds the socket of its channel.
+     */
+    void bind(ServerSocket socket) throws IOException {
+        socket.setReuseAddress(config.isReuseAddress());
+        if (config.getReceiveBufferSize() > 0) {
+            // Before binding, so the window scale can account for it
+            socket.setReceiveBufferSize(config.getReceiveBufferSize());
+        }
+        socket.bind(new InetSocketAddress(config.getPort()), config.getBacklog());
+    }
+    
+    /**
+     * Applies the per-connection socket options to an accepted socket.
+     */
+    void configure(Socket socket) throws SocketException {
+        socket.setTcpNoDelay(config.isTcpNoDelay());
+        if (config.getSendBufferSize() > 0) {
+            socket.setSendBufferSize(config.getSendBufferSize());
+        }
+    }
+    
+    /**
+     * The reaper closing idle connections, or {@code null} if there is no
+     * idle timeout.
+     */
+    IdleReaper getIdleReaper() {
+        return idleReaper;
+    }
+    
+    private void registerMBean() {
+        try {
+            mbeanName = new ObjectName("socket_bot:type=BotServer,port=" + localPort);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(mbeanName)) {
+                // Left behind by an earlier server on the same port
+                server.unregisterMBean(mbeanName);
+            }
+            server.registerMBean(metrics, mbeanName);
+        } catch (JMException e) {
+            System.out.println("JMX Error: " + e.getMessage());
+            mbeanName = null;
+        }
+    }
+    
+    /**
+     * Waits until every connection has given its slot back.
+     */
+    private boolean awaitAllConnectionSlots(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            try {
+                return connectionSlots.tryAcquire(config.getMaxConnections(),
+                        deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                // stop() may interrupt the acceptor after it got here, keep waiting
+            }
+        }
+    }
+    
+    private void unregisterMBean() {
+        if (mbeanName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+        } catch (JMException e) {
+            System.out.println("JMX Error: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Creates the reply selector for a newly accepted connection and opens
+     * its conversation. Called in accept order, so with a seed the same
+     * connection always gets the same generator.
+     */
+    ResponseSelector newResponseSelector() {
+        long session = sessions.getAndIncrement();
+        SplittableRandom random = config.getSeed() == null
+                ? null
+                : new SplittableRandom(config.getSeed() + session);
+        conversations.open(session);
+        metrics.conversationOpened();
+        return new ResponseSelector(config.getSelection(), config.isNoRepeat(), random, session);
+    }
+    
+    /**
+     * Creates the room membership of a newly accepted connection.
+     *
+     * @param wakeup called when room messages are waiting to be written to
+     *        the connection, see {@link ChatRooms.Member}
+     */
+    ChatRooms.Member newRoomMember(ResponseSelector selector, Runnable wakeup) {
+        return rooms.newMember(selector, wakeup);
+    }
+    
+    /**
+     * Creates the rate limit state of a newly accepted connection, or
+     * returns {@code null} if there are no rate limits.
+     */
+    RateLimiter.Client newRateLimitClient(InetAddress address) {
+        return rateLimiter == null ? null : rateLimiter.newClient(address);
+    }
+    
+    /**
+     * Forgets the conversation of a session whose connection has closed
+     * and takes it out of its rooms.
+     */
+    void closeSession(ChatRooms.Member member) {
+        rooms.leaveAll(member);
+        conversations.close(member.getSelector().getSession());
+        metrics.conversationClosed();
+    }
+    
+    /**
+     * The name a session goes by in rooms: the one the user gave, or one
+     * made up from the session number.
+     */
+    String displayName(ResponseSelector selector) {
+        String name = conversations.getName(selector.getSession());
+        return name != null ? name : "user" + selector.getSession();
+    }
+    
+    /**
+     * Blocks until the number of open connections is below the configured
+     * maximum, then reserves a slot for the next accepted connection.
+     */
+    void acquireConnectionSlot() throws InterruptedException {
+        connectionSlots.acquire();
+    }
+    
+    void releaseConnectionSlot() {
+        connectionSlots.release();
+    }
+    
+    /**
+     * Uses a virtual thread per connection on JVMs that have them (looked up
+     * reflectively so the project still builds for Java 8), and a cached pool
+     * of daemon threads otherwise. Either way the number of live handlers is
+     * bounded by the connection slots, not by the executor.
+     */
+    static ExecutorService newHandlerExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "bot-handler-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
     }
     
-    private class ClientHandler extends Thread {
+    private class ClientHandler extends IdleReaper.Entry implements Runnable {
         private Socket clientSocket;
+        private volatile boolean reaped;
+        // Replies and room messages are written from different threads, under this
+        // lock. Not a monitor: a virtual thread blocked writing would pin its carrier
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private OutputStream rawOut;
         private PrintWriter out;
+        private DataOutputStream frameOut;
         private BufferedReader in;
+        private final ChatRooms.Member member = newRoomMember(newResponseSelector(),
+                this::wakeRoomWriter);
+        private final RateLimiter.Client rateLimitClient;
+        private final long flushDeadlineNanos = TimeUnit.MICROSECONDS.toNanos(config.getFlushDeadlineMicros());
+        private long unflushedSince = -1;
         
         public ClientHandler(Socket socket) {
             this.clientSocket = socket;
+            this.rateLimitClient = newRateLimitClient(socket.getInetAddress());
         }
         
         public void run() {
+            long openedAt = System.nanoTime();
+            metrics.connectionOpened();
+            if (idleReaper != null) {
+                idleReaper.register(this);
+            }
             try {
-                out = new PrintWriter(clientSocket.getOutputStream(), true);
-                in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+                writeLock.lock();
+                try {
+                    rawOut = new BufferedOutputStream(clientSocket.getOutputStream());
+                    out = new PrintWriter(new OutputStreamWriter(rawOut, StandardCharsets.UTF_8));
+                } finally {
+                    writeLock.unlock();
+                }
+                in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream(), StandardCharsets.UTF_8));
                 
-                String inputLine;
-                while ((inputLine = in.readLine()) != null) {
-                    String response = generateBotResponse(inputLine);
-                    out.println(response);
+                String inputLine = in.readLine();
+                touch();
+                if (FrameCodec.UPGRADE_REQUEST.equals(inputLine)) {
+                    writeLock.lock();
+                    try {
+                        out.println(FrameCodec.UPGRADE_ACCEPTED);
+                        out.flush();
+                    } finally {
+                        writeLock.unlock();
+                    }
+                    serveFrames();
+                    return;
+                }
+                
+                while (inputLine != null) {
+                    String response = handleMessage(inputLine, member, rateLimitClient);
+                    boolean moreInput = in.ready();
+                    writeLock.lock();
+                    try {
+                        out.println(response);
+                        flushIfDue(out, moreInput);
+                    } finally {
+                        writeLock.unlock();
+                    }
+                    inputLine = in.readLine();
+                    touch();
+                }
+                writeLock.lock();
+                try {
+                    out.flush();
+                } finally {
+                    writeLock.unlock();
                 }
             } catch (IOException e) {
-                System.out.println("Handler Error: " + e.getMessage());
+                if (!reaped) {
+                    System.out.println("Handler Error: " + e.getMessage());
+                }
+            } finally {
+                try {
+                    clientSocket.close();
+                } catch (IOException e) {
+                    System.out.println("Error closing connection: " + e.getMessage());
+                }
+                metrics.connectionClosed(System.nanoTime() - openedAt);
+                closeSession(member);
+                handlers.remove(this);
+                releaseConnectionSlot();
             }
         }
         
-        private String generateBotResponse(String input) {
-            String cleanInput = input.toLowerCase().trim();
-            
-            // Check for greetings
-            if (isGreeting(cleanInput)) {
-                return getTimeOfDayGreeting() + "! " + getRandomResponse(responses.get("hello"));
+        /**
+         * Makes the handler see the end of its input once it has read what
+         * is already buffered, so it answers that and closes.
+         */
+        void drain() {
+            try {
+                clientSocket.shutdownInput();
+            } catch (IOException e) {
+                // Already closed
             }
-            
-            // Check for farewells
-            if (isFarewell(cleanInput)) {
-                return getRandomResponse(responses.get("bye"));
+        }
+        
+        void close() {
+            try {
+                clientSocket.close();
+            } catch (IOException e) {
+                System.out.println("Error closing connection: " + e.getMessage());
             }
-            
-            // Time-related responses
-            if (cleanInput.contains("time")) {
-                String[] timeResponses = {
-                    "It's currently " + formatTime(new Date()),
-                    "The time right now is " + formatTime(new Date()),
-                    "Looking at my clock, it's " + formatTime(new Date()),
-                    "It's " + formatTime(new Date()) + ". Time flies, doesn't it?",
-                    "According to my internal clock, it's " + formatTime(new Date())
-                };
-                return getRandomResponse(timeResponses);
+        }
+        
+        @Override
+        boolean isOpen() {
+            return !clientSocket.isClosed();
+        }
+        
+        /**
+         * Has a writer task write the room messages just queued. Called on
+         * the sending connection's thread.
+         */
+        private void wakeRoomWriter() {
+            try {
+                roomWriters.execute(this::writeRoomMessages);
+            } catch (RejectedExecutionException e) {
+                // The server has stopped, and this connection is closing with it
+                close();
             }
-            
-            // Weather-related responses
-            if (cleanInput.contains("weather")) {
-                return getRandomResponse(responses.get("weather"));
+        }
+        
+        /**
+         * Writes the room messages queued for this connection, on a writer
+         * task so that a slow reader only holds up itself. The handler's
+         * unflushed replies go out with them.
+         */
+        private void writeRoomMessages() {
+            do {
+                writeLock.lock();
+                try {
+                    boolean framed = frameOut != null;
+                    if (!framed) {
+                        out.flush();
+                    }
+                    OutputStream target = framed ? frameOut : rawOut;
+                    ChatRooms.Broadcast message;
+                    while ((message = member.poll()) != null) {
+                        target.write(message.encoded(framed));
+                    }
+                    target.flush();
+                    unflushedSince = -1;
+                } catch (IOException e) {
+                    // The handler sees the closed socket and cleans up
+                    close();
+                    return;
+                } finally {
+                    writeLock.unlock();
+                }
+            } while (member.finishWriting());
+        }
+        
+        /**
+         * Closing the socket wakes the handler up from its blocking read.
+         */
+        @Override
+        void expire() {
+            reaped = true;
+            metrics.connectionReaped();
+            close();
+        }
+        
+        /**
+         * Flushes the replies written so far unless more requests are
+         * already buffered and the oldest unflushed reply is still within
+         * the flush deadline. Pipelined requests thus get their replies in
+         * one write instead of one write each.
+         */
+        private void flushIfDue(Flushable output, boolean moreInput) throws IOException {
+            long now = System.nanoTime();
+            if (unflushedSince < 0) {
+                unflushedSince = now;
+            }
+            if (!moreInput || now - unflushedSince >= flushDeadlineNanos) {
+                output.flush();
+                unflushedSince = -1;
+            }
+        }
+        
+        /**
+         * Serves a connection that upgraded to length-prefixed frames. The
+         * client waits for the upgrade reply before sending any frame, so
+         * the line reader has nothing buffered past the handshake.
+         */
+        private void serveFrames() throws IOException {
+            DataInputStream frameIn = new DataInputStream(
+                    new BufferedInputStream(clientSocket.getInputStream()));
+            writeLock.lock();
+            try {
+                frameOut = new DataOutputStream(rawOut);
+            } finally {
+                writeLock.unlock();
             }
             
-            // Question handling
-            if (cleanInput.contains("?")) {
-                if (cleanInput.contains("how are you")) {
-                    String[] moodResponses = {
-                        "I'm doing great, thanks for asking! How about you?",
-                        "I'm functioning perfectly! How's your day going?",
-                        "All systems operational and in a good mood! How are you?",
-                        "I'm having a wonderful day! How about yourself?"
-                    };
-                    return getRandomResponse(moodResponses);
-                }
-                
-                if (cleanInput.contains("what") || cleanInput.contains("how")) {
-                    String[] curiosityResponses = {
-                        "That's an interesting question! Could you tell me more about what you'd like to know?",
-                        "I'd love to help with that. Could you provide more details?",
-                        "Great question! Let me make sure I understand exactly what you're asking.",
-                        "I'm curious about your question. Could you elaborate a bit more?"
-                    };
-                    return getRandomResponse(curiosityResponses);
+            String message;
+            while ((message = FrameCodec.readFrame(frameIn)) != null) {
+                touch();
+                String response = handleMessage(message, member, rateLimitClient);
+                boolean moreInput = frameIn.available() > 0;
+                writeLock.lock();
+                try {
+                    FrameCodec.writeFrame(frameOut, response);
+                    flushIfDue(frameOut, moreInput);
+                } finally {
+                    writeLock.unlock();
                 }
-                
-                if (cleanInput.contains("why")) {
-                    String[] whyResponses = {
-                        "That's a thought-provoking question! Could you give me more context?",
-                        "Interesting! What made you think about that?",
-                        "I'd need a bit more information to properly answer that. Could you explain further?",
-                        "That's quite intriguing! What aspects specifically interest you?"
-                    };
-                    return getRandomResponse(whyResponses);
+            }
+            writeLock.lock();
+            try {
+                frameOut.flush();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+    
+    String handleMessage(String input, ChatRooms.Member member) {
+        return handleMessage(input, member, null);
+    }
+    
+    /**
+     * Answers one message from a connection, waiting for the reply if an
+     * expensive intent handler works it out. Suits the threaded modes,
+     * where the wait holds up no other connection.
+     *
+     * @param client the connection's rate limit state, or {@code null}
+     */
+    String handleMessage(String input, ChatRooms.Member member, RateLimiter.Client client) {
+        return handleMessageAsync(input, member, client).join();
+    }
+    
+    /**
+     * Answers one message from a connection: refuses it if the connection
+     * is over its rate limit or the server is shedding load, runs it if it
+     * is a room command, and has the bot reply to it otherwise, then queues
+     * the exchange for the transcript. Shared by every server mode.
+     *
+     * The reply is complete on return unless an expensive intent handler
+     * is working it out. It never completes exceptionally.
+     *
+     * @param client the connection's rate limit state, or {@code null}
+     */
+    CompletableFuture<String> handleMessageAsync(String input, ChatRooms.Member member, RateLimiter.Client client) {
+        String refusal = null;
+        if (client != null) {
+            RateLimiter.Limit limit = rateLimiter.tryAcquire(client);
+            if (limit != RateLimiter.Limit.NONE) {
+                metrics.rateLimited(limit);
+                refusal = RATE_LIMITED_REPLY;
+            }
+        }
+        CompletableFuture<String> reply;
+        if (refusal != null) {
+            reply = CompletableFuture.completedFuture(refusal);
+        } else if (loadShedder == null) {
+            reply = processMessage(input, member);
+        } else if (loadShedder.tryEnter()) {
+            long startedAt = System.nanoTime();
+            boolean started = false;
+            try {
+                reply = processMessage(input, member);
+                started = true;
+            } finally {
+                if (!started) {
+                    // Thrown before there was a reply to wait for
+                    loadShedder.exit(System.nanoTime() - startedAt);
                 }
             }
-            
-            // Default responses
-            String[] defaultResponses = {
-                "I'm not quite sure about that. Could you rephrase?",
-                "Interesting! Could you tell me more about what you mean?",
-                "I'd like to help, but I need a bit more information.",
-                "Could you elaborate on that? I want to make sure I understand correctly.",
-                "That's interesting! Would you mind providing more details?"
-            };
-            return getRandomResponse(defaultResponses);
+            reply = reply.whenComplete((processed, error) -> loadShedder.exit(System.nanoTime() - startedAt));
+        } else {
+            metrics.messageShed();
+            reply = CompletableFuture.completedFuture(BUSY_REPLY);
         }
-        
-        private boolean isGreeting(String input) {
-            String[] greetings = {"hello", "hi", "hey", "good morning", "good afternoon", "good evening"};
-            return Arrays.stream(greetings).anyMatch(input::contains);
+        if (transcriptLog != null) {
+            // Chained rather than a side branch, so the reply is only sent once it is queued
+            reply = reply.thenApply(answered -> {
+                transcriptLog.append(member.getSelector().getSession(), input, answered);
+                return answered;
+            });
         }
-        
-        private boolean isFarewell(String input) {
-            String[] farewells = {"bye", "goodbye", "see you", "farewell", "good night"};
-            return Arrays.stream(farewells).anyMatch(input::contains);
+        return reply;
+    }
+    
+    /**
+     * Runs a room command or answers a message. A message that fails is
+     * answered with an apology, so one bad message never costs the
+     * connection or its thread.
+     */
+    private CompletableFuture<String> processMessage(String input, ChatRooms.Member member) {
+        try {
+            CompletableFuture<String> reply = input.startsWith("/") ? rooms.handle(input, member) : null;
+            return reply != null ? reply : answer(input, member.getSelector());
+        } catch (RuntimeException e) {
+            System.out.println("Handler Error: " + e);
+            return CompletableFuture.completedFuture(ERROR_REPLY);
         }
-        
-        private String getTimeOfDayGreeting() {
-            int hour = Calendar.getInstance().get(Calendar.HOUR_OF_DAY);
-            if (hour < 12) return "Good morning";
-            if (hour < 18) return "Good afternoon";
-            return "Good evening";
+    }
+    
+    /**
+     * Whether the server is shedding load at the moment.
+     */
+    boolean isShedding() {
+        return loadShedder != null && loadShedder.isShedding();
+    }
+    
+    /**
+     * Adds an intent handler to those found on the class path (see
+     * {@link IntentHandler}). Handlers added later are asked later.
+     */
+    public void addIntentHandler(IntentHandler handler) {
+        intentHandlers.add(handler);
+    }
+    
+    /**
+     * Produces the bot's reply to a single line of user input, waiting for
+     * it if an expensive intent handler works it out.
+     */
+    String generateBotResponse(String input, ResponseSelector selector) {
+        return answer(input, selector).join();
+    }
+    
+    /**
+     * Produces the bot's reply to a single line of user input: an intent
+     * handler's if one replies, the catalog's otherwise. Shared by every
+     * server mode so they all answer identically.
+     *
+     * The session must not send another message until the reply is
+     * complete, as working it out uses the session's selector.
+     */
+    CompletableFuture<String> answer(String input, ResponseSelector selector) {
+        // Read the catalog once so a concurrent reload cannot mix two of them
+        long startedAt = System.nanoTime();
+        ResponseCatalog current = catalog.get();
+        Intent classified = classify(current, input);
+        String introduced = ConversationStore.extractName(input);
+        // The keywords cannot tell "call me Ada" from "call me later", the name check can
+        Intent intent = introduced != null && classified == Intent.DEFAULT ? Intent.GREETING : classified;
+        String name = conversations.updateName(selector.getSession(), introduced);
+        String reply = intentHandlers.replyInline(input, intent);
+        if (reply == null) {
+            CompletableFuture<String> pending = intentHandlers.dispatch(input, intent);
+            if (pending != null) {
+                String userName = name;
+                return pending.thenApply(answer -> finishReply(answer, current, intent, selector, userName, startedAt));
+            }
+        }
+        return CompletableFuture.completedFuture(finishReply(reply, current, intent, selector, name, startedAt));
+    }
+    
+    private String finishReply(String reply, ResponseCatalog current, Intent intent, ResponseSelector selector,
+            String name, long startedAt) {
+        if (reply == null) {
+            reply = selector.pick(current, intent).render(clock, name);
+        }
+        metrics.messageHandled(intent, System.nanoTime() - startedAt);
+        return reply;
+    }
+    
+    /**
+     * Classifies an input through the cache of recent inputs. Inputs that
+     * differ only in case or surrounding space share an entry, as the
+     * matcher ignores both.
+     */
+    private Intent classify(ResponseCatalog current, String input) {
+        if (config.getIntentCacheSize() == 0 || input.length() > MAX_CACHED_INPUT_LENGTH) {
+            return current.classify(input);
+        }
+        IntentCache cache = intentCache.get();
+        if (cache == null || cache.catalog != current) {
+            IntentCache fresh = new IntentCache(current, new LruCache<>(config.getIntentCacheSize()));
+            if (!intentCache.compareAndSet(cache, fresh)) {
+                // Another thread just switched caches, skip it this once
+                return current.classify(input);
+            }
+            metrics.intentCacheReplaced(cache == null ? null : cache.intents, fresh.intents);
+            cache = fresh;
         }
         
-        private String formatTime(Date date) {
-            return new SimpleDateFormat("h:mm a").format(date);
+        String key = input.trim().toLowerCase(Locale.ROOT);
+        Intent intent = cache.intents.get(key);
+        if (intent == null) {
+            intent = current.classify(input);
+            cache.intents.put(key, intent);
         }
+        return intent;
+    }
+    
+    /**
+     * The intents cached for one catalog. A reloaded catalog gets a cache
+     * of its own, so an intent worked out with the old rules is never
+     * served once the new ones are in use.
+     */
+    private static final class IntentCache {
+        final ResponseCatalog catalog;
+        final LruCache<String, Intent> intents;
         
-        private String getRandomResponse(String[] responses) {
-            int index = (int) (Math.random() * responses.length);
-            return responses[index];
+        IntentCache(ResponseCatalog catalog, LruCache<String, Intent> intents) {
+            this.catalog = catalog;
+            this.intents = intents;
+        }
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        ServerConfig config = ServerConfig.fromArgs(args);
+        BotServer server = new BotServer(config);
+        try {
+            server.start();
+        } catch (IOException e) {
+            System.out.println("Server Error: " + e.getMessage());
+            return;
         }
+        // Drain on Ctrl+C or SIGTERM, e.g. during a rolling restart
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            try {
+                server.awaitTermination(config.getDrainTimeoutMillis() + FORCED_CLOSE_TIMEOUT_MILLIS,
+                        TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "bot-shutdown"));
+        server.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
     }
 }
@@ -0,0 +1,56 @@
+package socket_bot;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of equally sized direct buffers.
+ * Direct buffers avoid the extra copy the JDK makes when writing a heap
+ * buffer to a channel, but are expensive to allocate, so they are reused.
+ * The pool keeps at most {@code maxPooled} idle buffers; anything beyond
+ * that is left to the garbage collector.
+ *
+ * @version 1.0
+ */
+final class BufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+    private final Queue<ByteBuffer> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    
+    BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+    
+    int bufferSize() {
+        return bufferSize;
+    }
+    
+    /**
+     * Returns a cleared buffer of {@link #bufferSize()} bytes.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = idle.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        idleCount.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+    
+    void release(ByteBuffer buffer) {
+        // Read-only buffers are views of shared room messages, never ours
+        if (!buffer.isDirect() || buffer.isReadOnly() || buffer.capacity() != bufferSize) {
+            return;
+        }
+        if (idleCount.incrementAndGet() <= maxPooled) {
+            idle.add(buffer);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package socket_bot;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reloads a {@link ResponseCatalog} file whenever it changes on disk.
+ *
+ * The new catalog is built completely off to the side and then published
+ * with a single reference swap, so handlers either see the old catalog or
+ * the new one, never a mix. A file that fails to parse is reported and
+ * the current catalog stays in place.
+ *
+ * @version 1.0
+ */
+final class CatalogWatcher implements Runnable {
+    private final Path file;
+    private final AtomicReference<ResponseCatalog> catalog;
+    private final BotMetrics metrics;
+    private WatchService watcher;
+    private Thread thread;
+    
+    CatalogWatcher(Path file, AtomicReference<ResponseCatalog> catalog, BotMetrics metrics) {
+        this.file = file.toAbsolutePath();
+        this.catalog = catalog;
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Loads the file and publishes it. Returns false, keeping the current
+     * catalog, if the file cannot be read or parsed.
+     */
+    boolean reload() {
+        long startedAt = System.nanoTime();
+        try {
+            ResponseCatalog loaded = ResponseCatalog.load(file);
+            catalog.set(loaded);
+            metrics.catalogLoaded(loaded.size(), System.nanoTime() - startedAt);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            metrics.catalogLoadFailed();
+            System.out.println("Catalog Error: " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Starts watching the file. Changes made once this returns are seen;
+     * they are reloaded on a daemon thread.
+     */
+    void start() {
+        // Watch the directory: editors often save by replacing the file
+        try {
+            watcher = file.getFileSystem().newWatchService();
+            file.getParent().register(watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            System.out.println("Catalog Error: " + e.getMessage());
+            return;
+        }
+        thread = new Thread(this, "bot-catalog-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    void stop() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+    
+    @Override
+    public void run() {
+        try (WatchService watcher = this.watcher) {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                            || file.getFileName().equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    reload();
+                }
+                if (!key.reset()) {
+                    System.out.println("Catalog Error: stopped watching " + file.getParent());
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Catalog Error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
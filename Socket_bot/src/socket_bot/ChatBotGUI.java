@@ -5,6 +5,12 @@ import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import javax.swing.plaf.basic.BasicListUI;
 import javax.swing.plaf.basic.BasicScrollBarUI;
 
 /**
@@ -14,19 +20,33 @@ import javax.swing.plaf.basic.BasicScrollBarUI;
  * featuring a chat area and commands panel. It includes customized UI components
  * with a dark theme color scheme and responsive design elements.
  * 
+ * All network calls run off the event dispatch thread: connecting happens
+ * in a {@link SwingWorker} and messages go through the client's async API,
+ * with replies appended back on the event dispatch thread. A status label
+ * shows how many replies are still pending.
+ * 
+ * The chat history is a {@link JList} over a {@link ChatTranscript}, so only
+ * visible rows are laid out and old messages are paged out to disk once
+ * the in-memory cap is reached. Messages wrap to the width of the list,
+ * and a row's height is only measured once it is shown. The cap defaults to 1000 messages and can
+ * be changed with the {@code chatbot.transcript.capacity} system property.
+ * 
  * @author Ornella Gigante
  * @version 1.0
  */
 
 public class ChatBotGUI extends JFrame {
-    private JTextArea chatArea;
+    private JList<String> chatList;
+    private ChatTranscript transcript;
     private JTextArea commandsArea;
     private JTextField inputField;
     private JButton sendButton;
     private JButton clearButton;
     private JButton disconnectButton;
     private JComboBox<String> questionOptions;
+    private JLabel statusLabel;
     private BotClient client;
+    private int pendingReplies;
     
     // Color scheme
     private final Color PRIMARY_COLOR = new Color(60, 63, 65);
@@ -55,18 +75,13 @@ public class ChatBotGUI extends JFrame {
         client = new BotClient();
         setupComponents();
         
-        try {
-            client.connect();
-            appendMessage("System: Connected to server");
-            displayAvailableCommands();
-        } catch (IOException e) {
-            showError("Could not connect to server");
-        }
+        connect();
         
         addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent e) {
                 client.disconnect();
+                transcript.close();
             }
         });
     }
@@ -84,16 +99,21 @@ public class ChatBotGUI extends JFrame {
         leftPanel.setBorder(new EmptyBorder(10, 10, 10, 5));
         
         // Chat area setup
-        chatArea = new JTextArea();
-        chatArea.setEditable(false);
-        chatArea.setFont(new Font("Segoe UI", Font.PLAIN, 14));
-        chatArea.setBackground(PRIMARY_COLOR);
-        chatArea.setForeground(TEXT_COLOR);
-        chatArea.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
-        chatArea.setLineWrap(true);
-        chatArea.setWrapStyleWord(true);
-        
-        JScrollPane chatScrollPane = new JScrollPane(chatArea);
+        transcript = new ChatTranscript(Integer.getInteger("chatbot.transcript.capacity", 1000));
+        chatList = new JList<>(transcript);
+        chatList.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        chatList.setBackground(PRIMARY_COLOR);
+        chatList.setForeground(TEXT_COLOR);
+        chatList.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        chatList.setCellRenderer(new TranscriptCellRenderer());
+        // Fixed cell sizes stop JList from measuring every row, and cells
+        // span the whole viewport width. The height is only the estimate for
+        // rows TranscriptListUI has not measured yet
+        chatList.setFixedCellHeight(chatList.getFontMetrics(chatList.getFont()).getHeight() + 6);
+        chatList.setFixedCellWidth(1);
+        chatList.setUI(new TranscriptListUI());
+        
+        JScrollPane chatScrollPane = new JScrollPane(chatList);
         chatScrollPane.setBorder(BorderFactory.createLineBorder(ACCENT_COLOR, 1));
         chatScrollPane.getVerticalScrollBar().setUI(new ModernScrollBarUI());
         
@@ -140,6 +160,10 @@ public class ChatBotGUI extends JFrame {
         
         disconnectButton = createStyledButton("Disconnect");
         
+        statusLabel = new JLabel(" ");
+        statusLabel.setForeground(TEXT_COLOR);
+        statusLabel.setFont(new Font("Segoe UI", Font.ITALIC, 12));
+        
         // Input panel
         JPanel inputPanel = new JPanel(new BorderLayout(10, 0));
         inputPanel.setBackground(BACKGROUND_COLOR);
@@ -163,7 +187,7 @@ public class ChatBotGUI extends JFrame {
         
         // Action listeners
         sendButton.addActionListener(e -> sendMessage());
-        clearButton.addActionListener(e -> chatArea.setText(""));
+        clearButton.addActionListener(e -> transcript.clear());
         inputField.addActionListener(e -> sendMessage());
         disconnectButton.addActionListener(e -> disconnect());
         questionOptions.addActionListener(e -> handleQuestionSelection());
@@ -171,6 +195,7 @@ public class ChatBotGUI extends JFrame {
         // Assembly
         optionsPanel.add(questionOptions);
         optionsPanel.add(disconnectButton);
+        optionsPanel.add(statusLabel);
         
         buttonPanel.add(sendButton);
         buttonPanel.add(clearButton);
@@ -236,8 +261,49 @@ public class ChatBotGUI extends JFrame {
         }
     }
     
+    private void connect() {
+        setInputEnabled(false);
+        statusLabel.setText("Connecting...");
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                client.connect();
+                return null;
+            }
+            
+            @Override
+            protected void done() {
+                try {
+                    get();
+                    appendMessage("System: Connected to server");
+                    displayAvailableCommands();
+                    setInputEnabled(true);
+                } catch (InterruptedException | ExecutionException e) {
+                    showError("Could not connect to server");
+                }
+                updateStatus();
+            }
+        }.execute();
+    }
+    
+    private void setInputEnabled(boolean enabled) {
+        sendButton.setEnabled(enabled);
+        inputField.setEnabled(enabled);
+        questionOptions.setEnabled(enabled);
+    }
+    
+    private void updateStatus() {
+        if (pendingReplies == 0) {
+            statusLabel.setText(" ");
+        } else if (pendingReplies == 1) {
+            statusLabel.setText("Waiting for reply...");
+        } else {
+            statusLabel.setText("Waiting for " + pendingReplies + " replies...");
+        }
+    }
+    
     private void disconnect() {
-        client.disconnect();
+        new Thread(client::disconnect, "bot-client-disconnect").start();
         appendMessage("System: Disconnected from server");
         disconnectButton.setEnabled(false);
         sendButton.setEnabled(false);
@@ -249,22 +315,175 @@ public class ChatBotGUI extends JFrame {
         String message = inputField.getText().trim();
         if (!message.isEmpty()) {
             appendMessage("You: " + message);
-            String response = client.sendMessage(message);
-            appendMessage("Bot: " + response);
+            pendingReplies++;
+            updateStatus();
+            client.sendAsync(message).whenComplete((response, error) ->
+                SwingUtilities.invokeLater(() -> receiveReply(response, error)));
             inputField.setText("");
             questionOptions.setSelectedIndex(0);
         }
     }
     
+    private void receiveReply(String response, Throwable error) {
+        pendingReplies--;
+        updateStatus();
+        if (error == null) {
+            appendMessage("Bot: " + response);
+        } else {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause()
+                : error;
+            appendMessage("System: Error: " + cause.getMessage());
+        }
+    }
+    
     private void appendMessage(String message) {
-        chatArea.append(message + "\n");
-        chatArea.setCaretPosition(chatArea.getDocument().getLength());
+        transcript.add(message);
+        chatList.ensureIndexIsVisible(transcript.getSize() - 1);
     }
     
     private void showError(String message) {
         JOptionPane.showMessageDialog(this, message, "Error", JOptionPane.ERROR_MESSAGE);
     }
     
+    // Renders one transcript message, wrapped at word boundaries and
+    // colored by who sent it
+    private class TranscriptCellRenderer extends JTextArea implements ListCellRenderer<Object> {
+        private static final long serialVersionUID = 1L;
+        
+        TranscriptCellRenderer() {
+            setLineWrap(true);
+            setWrapStyleWord(true);
+            setEditable(false);
+            setBackground(PRIMARY_COLOR);
+            setBorder(BorderFactory.createEmptyBorder(3, 2, 3, 2));
+        }
+        
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                boolean isSelected, boolean cellHasFocus) {
+            String message = String.valueOf(value);
+            setFont(list.getFont());
+            setText(message);
+            if (message.startsWith("You: ")) {
+                setForeground(Color.WHITE);
+            } else if (message.startsWith("System: ")) {
+                setForeground(ACCENT_COLOR.brighter());
+            } else {
+                setForeground(TEXT_COLOR);
+            }
+            return this;
+        }
+    }
+    
+    /**
+     * Lays out transcript rows of different heights without measuring the
+     * whole transcript, as {@link BasicListUI} would. A row counts as the
+     * list's fixed cell height until it is painted, or added as the last
+     * row, and is measured at the list's width then. Resizing the list
+     * forgets every measurement.
+     */
+    private static class TranscriptListUI extends BasicListUI {
+        // Measured heights by row, 0 for rows not measured yet
+        private int[] heights = new int[0];
+        private int measuredWidth = -1;
+        
+        @Override
+        protected ListDataListener createListDataListener() {
+            ListDataListener layout = super.createListDataListener();
+            return new ListDataListener() {
+                @Override
+                public void intervalAdded(ListDataEvent e) {
+                    layout.intervalAdded(e);
+                }
+                
+                @Override
+                public void intervalRemoved(ListDataEvent e) {
+                    heights = new int[0];
+                    layout.intervalRemoved(e);
+                }
+                
+                @Override
+                public void contentsChanged(ListDataEvent e) {
+                    heights = new int[0];
+                    layout.contentsChanged(e);
+                }
+            };
+        }
+        
+        @Override
+        protected void updateLayoutState() {
+            super.updateLayoutState();
+            int rows = list.getModel().getSize();
+            int width = rowWidth();
+            if (width != measuredWidth) {
+                heights = new int[rows];
+                measuredWidth = width;
+            } else if (heights.length != rows) {
+                heights = Arrays.copyOf(heights, rows);
+            }
+            // The latest message is scrolled to as soon as it is added
+            if (rows > 0 && heights[rows - 1] == 0) {
+                heights[rows - 1] = measure(rows - 1);
+            }
+            cellHeights = new int[rows];
+            for (int row = 0; row < rows; row++) {
+                cellHeights[row] = heights[row] != 0 ? heights[row] : cellHeight;
+            }
+        }
+        
+        @Override
+        public void paint(Graphics g, JComponent c) {
+            if (rowWidth() != measuredWidth) {
+                updateLayoutStateNeeded |= modelChanged;
+            }
+            maybeUpdateLayoutState();
+            Rectangle clip = g.getClipBounds();
+            int row = clip == null ? -1 : locationToIndex(list, clip.getLocation());
+            if (row >= 0) {
+                boolean changed = false;
+                int y = getCellBounds(list, row, row).y;
+                for (; row < heights.length && y < clip.y + clip.height; row++) {
+                    if (heights[row] == 0) {
+                        heights[row] = measure(row);
+                        changed |= heights[row] != cellHeights[row];
+                        cellHeights[row] = heights[row];
+                    }
+                    y += cellHeights[row];
+                }
+                if (changed) {
+                    // The rows are painted at their new heights right away;
+                    // the scroll pane still has to learn the list's new size
+                    list.revalidate();
+                }
+            }
+            super.paint(g, c);
+        }
+        
+        private int rowWidth() {
+            Insets insets = list.getInsets();
+            return list.getWidth() - insets.left - insets.right;
+        }
+        
+        private int measure(int row) {
+            if (measuredWidth <= 0) {
+                return cellHeight;
+            }
+            // BasicListUI keeps the list as a raw type
+            JList<?> rows = list;
+            Component renderer = rendererOf(rows, row);
+            rendererPane.add(renderer);
+            // Text components wrap to their current width when asked for a size
+            renderer.setSize(measuredWidth, Short.MAX_VALUE);
+            return renderer.getPreferredSize().height;
+        }
+        
+        private static <E> Component rendererOf(JList<E> rows, int row) {
+            ListCellRenderer<? super E> renderer = rows.getCellRenderer();
+            return renderer.getListCellRendererComponent(rows, rows.getModel().getElementAt(row), row, false, false);
+        }
+    }
+    
     // Custom ScrollBarUI class for modern look
     private class ModernScrollBarUI extends BasicScrollBarUI {
         protected void configureScrollBarColors() {
@@ -290,12 +509,15 @@ public class ChatBotGUI extends JFrame {
     }
     
     public static void main(String[] args) {
+        // Listening before the window opens, so its first connect succeeds
+        try {
+            new BotServer(ServerConfig.fromArgs(args)).start();
+        } catch (IOException e) {
+            System.out.println("Server Error: " + e.getMessage());
+        }
+        
         SwingUtilities.invokeLater(() -> {
             new ChatBotGUI().setVisible(true);
         });
-        
-        new Thread(() -> {
-            new BotServer().start();
-        }).start();
     }
 }
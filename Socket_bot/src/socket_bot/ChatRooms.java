@@ -0,0 +1,311 @@
+package socket_bot;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Named chat rooms whose messages go to every member, with the bot taking
+ * part as one more member.
+ *
+ * Clients use commands sent as ordinary messages, each answered with one
+ * reply like any other message:
+ * - {@code /join <room>} and {@code /leave <room>}
+ * - {@code /say <room> <text>} sends the text to the other members; text
+ *   starting with {@code @bot} is also answered by the bot, in the room
+ * - {@code /rooms} lists the rooms the client is in
+ *
+ * Room messages reach a member as unsolicited lines or frames starting with
+ * {@link #PUSH_PREFIX}, which {@link BotClient} tells apart from replies.
+ *
+ * A message is encoded once, into a {@link Broadcast} shared by every
+ * member, and only a reference to it is queued per member. Each connection
+ * writes its own queue, on its reactor in the NIO mode and on a writer task
+ * otherwise, so the sender never waits for the members. The queues are
+ * bounded: a member that does not keep up loses the messages that do not
+ * fit instead of holding up the room.
+ *
+ * @version 1.0
+ */
+final class ChatRooms {
+    static final String PUSH_PREFIX = "#ROOM ";
+    static final String BOT_NAME = "bot";
+    private static final String BOT_MENTION = "@" + BOT_NAME;
+    private static final Pattern ROOM_NAME = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+    
+    private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+    private final BotServer bot;
+    private final int queueCapacity;
+    
+    ChatRooms(BotServer bot, int queueCapacity) {
+        this.bot = bot;
+        this.queueCapacity = queueCapacity;
+    }
+    
+    /**
+     * Creates the room membership of a new connection.
+     *
+     * @param wakeup called when messages are queued for a member whose
+     *        connection is not already writing them
+     */
+    Member newMember(ResponseSelector selector, Runnable wakeup) {
+        return new Member(selector, queueCapacity, wakeup);
+    }
+    
+    /**
+     * Runs a room command. The reply is complete on return unless the bot
+     * was asked something in a room, in which case it completes once the
+     * bot's answer is sent to the room.
+     *
+     * @return the reply, or {@code null} if the input is not a room command
+     */
+    CompletableFuture<String> handle(String input, Member member) {
+        String[] parts = input.trim().split("\\s+", 3);
+        switch (parts[0]) {
+            case "/join":
+                return reply(parts.length == 2 ? join(parts[1], member) : "Usage: /join <room>");
+            case "/leave":
+                return reply(parts.length == 2 ? leave(parts[1], member) : "Usage: /leave <room>");
+            case "/say":
+                return parts.length == 3 ? say(parts[1], parts[2], member) : reply("Usage: /say <room> <text>");
+            case "/rooms":
+                List<String> joined = new ArrayList<>(member.joined);
+                Collections.sort(joined);
+                return reply(joined.isEmpty() ? "You are not in any room" : "Your rooms: " + String.join(", ", joined));
+            default:
+                return null;
+        }
+    }
+    
+    private static CompletableFuture<String> reply(String text) {
+        return CompletableFuture.completedFuture(text);
+    }
+    
+    /**
+     * Takes a member whose connection closed out of its rooms.
+     */
+    void leaveAll(Member member) {
+        for (String name : member.joined) {
+            leave(name, member);
+        }
+    }
+    
+    private String join(String name, Member member) {
+        if (!ROOM_NAME.matcher(name).matches()) {
+            return "Room names are 1 to 32 letters, digits, '-' or '_'";
+        }
+        // Under the map's lock for the room, so a room emptied at the same time is not joined after removal
+        Room room = rooms.compute(name, (key, existing) -> {
+            Room joined = existing != null ? existing : new Room();
+            if (existing == null) {
+                bot.getMetrics().roomOpened();
+            }
+            joined.members.add(member);
+            return joined;
+        });
+        member.joined.add(name);
+        return "Joined #" + name + ", " + room.members.size() + " members";
+    }
+    
+    private String leave(String name, Member member) {
+        if (!member.joined.remove(name)) {
+            return "You are not in #" + name;
+        }
+        rooms.computeIfPresent(name, (key, room) -> {
+            room.members.remove(member);
+            if (room.members.isEmpty()) {
+                bot.getMetrics().roomClosed();
+                return null;
+            }
+            return room;
+        });
+        return "Left #" + name;
+    }
+    
+    private CompletableFuture<String> say(String name, String text, Member member) {
+        Room room = rooms.get(name);
+        if (room == null || !member.joined.contains(name)) {
+            return reply("You are not in #" + name);
+        }
+        int reached = broadcast(room, new Broadcast(name, bot.displayName(member.selector), text), member);
+        String sent = "Sent to " + reached + " members of #" + name;
+        
+        if (!text.regionMatches(true, 0, BOT_MENTION, 0, BOT_MENTION.length())) {
+            return reply(sent);
+        }
+        // The answer may come from a slow intent handler; the sender waits for it like for any other reply
+        String question = text.substring(BOT_MENTION.length()).trim();
+        return bot.answer(question, member.selector).thenApply(answer -> {
+            broadcast(room, new Broadcast(name, BOT_NAME, answer), null);
+            return sent;
+        });
+    }
+    
+    /**
+     * Queues a message for every member of a room but the sender.
+     *
+     * @return the number of members it was queued for
+     */
+    private int broadcast(Room room, Broadcast message, Member sender) {
+        int queued = 0;
+        int dropped = 0;
+        for (Member member : room.members) {
+            if (member == sender) {
+                continue;
+            }
+            if (member.offer(message)) {
+                queued++;
+            } else {
+                dropped++;
+            }
+        }
+        bot.getMetrics().roomMessageSent(queued, dropped);
+        return queued;
+    }
+    
+    private static final class Room {
+        final Set<Member> members = ConcurrentHashMap.newKeySet();
+    }
+    
+    /**
+     * One room message, encoded once for all of its recipients. The
+     * encodings are made on first use, as a room may have only line or
+     * only frame members.
+     */
+    static final class Broadcast {
+        private final String text;
+        private volatile byte[] line;
+        private volatile byte[] frame;
+        private volatile ByteBuffer directLine;
+        private volatile ByteBuffer directFrame;
+        
+        Broadcast(String room, String from, String text) {
+            this.text = PUSH_PREFIX + room + " " + from + ": " + text;
+        }
+        
+        /**
+         * The message as a line or a frame, for writing to a stream. Must
+         * not be modified.
+         */
+        byte[] encoded(boolean framed) {
+            // Racing threads may both encode it, which is harmless
+            byte[] bytes = framed ? frame : line;
+            if (bytes == null) {
+                // A framed sender may have sent line breaks, which would split the line
+                byte[] payload = (framed ? text : text.replace('\n', ' ')).getBytes(StandardCharsets.UTF_8);
+                if (framed) {
+                    bytes = ByteBuffer.allocate(FrameCodec.HEADER_BYTES + payload.length)
+                            .putInt(payload.length).put(payload).array();
+                    frame = bytes;
+                } else {
+                    bytes = new byte[payload.length + 1];
+                    System.arraycopy(payload, 0, bytes, 0, payload.length);
+                    bytes[payload.length] = '\n';
+                    line = bytes;
+                }
+            }
+            return bytes;
+        }
+        
+        /**
+         * The message as a line or a frame in a direct buffer, for writing
+         * to a channel. Every caller gets a view of its own over the same
+         * read-only memory.
+         */
+        ByteBuffer buffer(boolean framed) {
+            ByteBuffer shared = framed ? directFrame : directLine;
+            if (shared == null) {
+                byte[] bytes = encoded(framed);
+                ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+                direct.put(bytes).flip();
+                shared = direct.asReadOnlyBuffer();
+                if (framed) {
+                    directFrame = shared;
+                } else {
+                    directLine = shared;
+                }
+            }
+            return shared.duplicate();
+        }
+        
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+    
+    /**
+     * A connection's part in the rooms: the rooms it joined and the bounded
+     * queue of messages waiting to be written to it.
+     *
+     * The connection writes the queue out after {@code wakeup} and calls
+     * {@link #finishWriting()} when it finds it empty. Only one wakeup is
+     * outstanding at a time, however many messages arrive in between.
+     */
+    static final class Member {
+        private final ResponseSelector selector;
+        private final int capacity;
+        private final Runnable wakeup;
+        private final Set<String> joined = ConcurrentHashMap.newKeySet();
+        private final Queue<Broadcast> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicBoolean writing = new AtomicBoolean();
+        
+        private Member(ResponseSelector selector, int capacity, Runnable wakeup) {
+            this.selector = selector;
+            this.capacity = capacity;
+            this.wakeup = wakeup;
+        }
+        
+        ResponseSelector getSelector() {
+            return selector;
+        }
+        
+        /**
+         * Queues a message unless the queue is full.
+         */
+        boolean offer(Broadcast message) {
+            if (queued.incrementAndGet() > capacity) {
+                queued.decrementAndGet();
+                return false;
+            }
+            queue.add(message);
+            if (writing.compareAndSet(false, true)) {
+                wakeup.run();
+            }
+            return true;
+        }
+        
+        /**
+         * The next message to write, or {@code null} if there is none.
+         */
+        Broadcast poll() {
+            Broadcast message = queue.poll();
+            if (message != null) {
+                queued.decrementAndGet();
+            }
+            return message;
+        }
+        
+        /**
+         * Called by the connection after finding the queue empty.
+         *
+         * @return true if messages arrived meanwhile and the caller must
+         *         keep writing
+         */
+        boolean finishWriting() {
+            writing.set(false);
+            return !queue.isEmpty() && writing.compareAndSet(false, true);
+        }
+    }
+}
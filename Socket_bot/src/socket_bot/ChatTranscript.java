@@ -0,0 +1,172 @@
+package socket_bot;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.swing.AbstractListModel;
+
+/**
+ * List model for the chat transcript shown in {@link ChatBotGUI}.
+ *
+ * The most recent messages are kept in a fixed-size ring buffer. When it is
+ * full, the oldest message is appended to a spill file on disk and only its
+ * file offset stays in memory, so a long session costs a few bytes per old
+ * message instead of the whole text. Old messages keep their index and are
+ * read back a page at a time when the list scrolls to them.
+ *
+ * Like every Swing model, instances must only be used on the event
+ * dispatch thread.
+ *
+ * @version 1.0
+ */
+public class ChatTranscript extends AbstractListModel<String> {
+    private static final long serialVersionUID = 1L;
+    
+    private static final int PAGE_SIZE = 64;
+    
+    private final String[] recent;
+    private int head;
+    private int recentCount;
+    
+    private File spillFile;
+    private RandomAccessFile spill;
+    private long[] offsets = new long[PAGE_SIZE];
+    private int spilledCount;
+    private long spillLength;
+    
+    private int cachedPage = -1;
+    private final String[] cachedLines = new String[PAGE_SIZE];
+    
+    /**
+     * @param capacity how many of the latest messages to keep in memory
+     */
+    public ChatTranscript(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        recent = new String[capacity];
+    }
+    
+    public void add(String message) {
+        if (recentCount == recent.length) {
+            spill(recent[head]);
+            recent[head] = null;
+            head = (head + 1) % recent.length;
+            recentCount--;
+        }
+        recent[(head + recentCount) % recent.length] = message;
+        recentCount++;
+        
+        int index = getSize() - 1;
+        fireIntervalAdded(this, index, index);
+    }
+    
+    @Override
+    public int getSize() {
+        return spilledCount + recentCount;
+    }
+    
+    @Override
+    public String getElementAt(int index) {
+        if (index >= spilledCount) {
+            return recent[(head + index - spilledCount) % recent.length];
+        }
+        int page = index / PAGE_SIZE;
+        if (page != cachedPage) {
+            loadPage(page);
+        }
+        return cachedLines[index % PAGE_SIZE];
+    }
+    
+    /**
+     * Number of messages that have been moved to the spill file.
+     */
+    public int getSpilledCount() {
+        return spilledCount;
+    }
+    
+    public void clear() {
+        int size = getSize();
+        Arrays.fill(recent, null);
+        head = 0;
+        recentCount = 0;
+        spilledCount = 0;
+        spillLength = 0;
+        cachedPage = -1;
+        if (spill != null) {
+            try {
+                spill.setLength(0);
+            } catch (IOException e) {
+                System.out.println("Transcript Error: " + e.getMessage());
+            }
+        }
+        if (size > 0) {
+            fireIntervalRemoved(this, 0, size - 1);
+        }
+    }
+    
+    /**
+     * Deletes the spill file. The transcript must not be used afterwards.
+     */
+    public void close() {
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                System.out.println("Transcript Error: " + e.getMessage());
+            }
+            spillFile.delete();
+            spill = null;
+        }
+    }
+    
+    private void spill(String message) {
+        try {
+            if (spill == null) {
+                spillFile = File.createTempFile("chat-transcript", ".log");
+                spillFile.deleteOnExit();
+                spill = new RandomAccessFile(spillFile, "rw");
+            }
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            spill.seek(spillLength);
+            spill.write(bytes);
+            
+            if (spilledCount == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[spilledCount++] = spillLength;
+            spillLength += bytes.length;
+        } catch (IOException e) {
+            // Keep the index space consistent even if the disk write failed
+            System.out.println("Transcript Error: " + e.getMessage());
+            if (spilledCount == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[spilledCount++] = spillLength;
+        }
+        if (cachedPage == (spilledCount - 1) / PAGE_SIZE) {
+            cachedPage = -1;
+        }
+    }
+    
+    private void loadPage(int page) {
+        int first = page * PAGE_SIZE;
+        int last = Math.min(first + PAGE_SIZE, spilledCount);
+        long start = offsets[first];
+        long end = last < spilledCount ? offsets[last] : spillLength;
+        Arrays.fill(cachedLines, null);
+        try {
+            byte[] bytes = new byte[(int) (end - start)];
+            spill.seek(start);
+            spill.readFully(bytes);
+            for (int i = first; i < last; i++) {
+                long lineEnd = i + 1 < spilledCount ? offsets[i + 1] : spillLength;
+                cachedLines[i - first] = new String(bytes, (int) (offsets[i] - start),
+                        (int) (lineEnd - offsets[i]), StandardCharsets.UTF_8);
+            }
+        } catch (IOException | RuntimeException e) {
+            Arrays.fill(cachedLines, "(history unavailable)");
+        }
+        cachedPage = page;
+    }
+}
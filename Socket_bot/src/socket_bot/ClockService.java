@@ -0,0 +1,77 @@
+package socket_bot;
+
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Caches the current time as the bot prints it ({@code h:mm a}) and the
+ * matching time-of-day greeting. Both only change once a minute, so they
+ * are computed once per minute, the first time they are asked for in a
+ * new minute, instead of once per message.
+ *
+ * Safe to share between threads: the cached values are published as one
+ * immutable snapshot through a volatile field.
+ *
+ * @version 1.0
+ */
+final class ClockService {
+    private static final long MILLIS_PER_MINUTE = 60_000;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("h:mm a");
+    
+    private final Clock clock;
+    private volatile Snapshot current = new Snapshot(Long.MIN_VALUE, null, null);
+    
+    ClockService() {
+        this(Clock.systemDefaultZone());
+    }
+    
+    ClockService(Clock clock) {
+        this.clock = clock;
+    }
+    
+    /**
+     * The current time, e.g. {@code 4:05 PM}.
+     */
+    String currentTime() {
+        return snapshot().time;
+    }
+    
+    /**
+     * "Good morning", "Good afternoon" or "Good evening".
+     */
+    String timeOfDayGreeting() {
+        return snapshot().greeting;
+    }
+    
+    private Snapshot snapshot() {
+        long minute = Math.floorDiv(clock.millis(), MILLIS_PER_MINUTE);
+        Snapshot snapshot = current;
+        if (snapshot.minute != minute) {
+            // Racing threads compute the same values; whichever wins is fine
+            LocalTime time = Instant.ofEpochMilli(minute * MILLIS_PER_MINUTE)
+                    .atZone(clock.getZone())
+                    .toLocalTime();
+            snapshot = new Snapshot(minute, TIME_FORMAT.format(time), greetingFor(time.getHour()));
+            current = snapshot;
+        }
+        return snapshot;
+    }
+    
+    private static String greetingFor(int hour) {
+        if (hour < 12) return "Good morning";
+        if (hour < 18) return "Good afternoon";
+        return "Good evening";
+    }
+    
+    private static final class Snapshot {
+        final long minute;
+        final String time;
+        final String greeting;
+        
+        Snapshot(long minute, String time, String greeting) {
+            this.minute = minute;
+            this.time = time;
+            this.greeting = greeting;
+        }
+    }
+}
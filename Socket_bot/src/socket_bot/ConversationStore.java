@@ -0,0 +1,256 @@
+package socket_bot;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * What the bot remembers about each open session: the user's name. Which
+ * replies a session has been given is
+ * kept by its {@link ResponseSelector}, which only the session's own
+ * thread uses.
+ *
+ * The state is kept in primitive arrays, in open addressing hash tables
+ * keyed by session number, rather than in an object per session. A session
+ * takes one slot in each array: its key and a reference to its name,
+ * capped at {@value #MAX_NAME_LENGTH} characters. With the tables kept at
+ * most half full that comes to about 24 bytes per session, plus the name,
+ * whatever the session says. Sessions are removed
+ * when their connection closes, including when the idle reaper closes it.
+ *
+ * The tables are split into segments, each behind its own lock, so
+ * handler threads working on different sessions rarely wait for each
+ * other. A session is only ever served by one thread at a time.
+ *
+ * @version 1.0
+ */
+final class ConversationStore {
+    static final int MAX_NAME_LENGTH = 32;
+    
+    private static final int SEGMENT_BITS = 4;
+    private static final int MIN_CAPACITY = 16;
+    private static final String MY_NAME_IS = "my name is";
+    private static final String CALL_ME = "call me";
+    private static final Pattern INTRODUCTION = Pattern.compile(
+            "\\b(?:my name is|call me)\\s+(\\p{L}[\\p{L}'-]*)", Pattern.CASE_INSENSITIVE);
+    /** Words that follow an introduction's opening without being a name, as in "call me back". */
+    private static final Set<String> NOT_NAMES = new HashSet<>(Arrays.asList(
+            "after", "again", "and", "anytime", "at", "back", "before", "if", "in", "later", "maybe",
+            "not", "now", "on", "or", "please", "so", "sometime", "soon", "then", "today", "tomorrow",
+            "tonight", "when"));
+    
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+    
+    ConversationStore() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+    
+    /**
+     * Starts remembering a session.
+     */
+    void open(long session) {
+        Segment segment = segmentOf(session);
+        synchronized (segment) {
+            segment.insert(session + 1);
+        }
+    }
+    
+    /**
+     * Forgets a session. Does nothing if it is not open.
+     */
+    void close(long session) {
+        Segment segment = segmentOf(session);
+        synchronized (segment) {
+            segment.remove(session + 1);
+        }
+    }
+    
+    /**
+     * Number of sessions currently remembered.
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+    
+    /**
+     * Remembers the name a message of the session gave, if any, and looks
+     * up the one the user goes by. Runs for every message, so it takes the
+     * segment's lock once.
+     *
+     * @param name the name the message gave, or {@code null}
+     * @return the name the user goes by now, or {@code null} if they have
+     *         not given one
+     */
+    String updateName(long session, String name) {
+        Segment segment = segmentOf(session);
+        synchronized (segment) {
+            int slot = segment.find(session + 1);
+            if (slot < 0) {
+                return name;
+            }
+            if (name != null) {
+                segment.names[slot] = name;
+            }
+            return segment.names[slot];
+        }
+    }
+    
+    /**
+     * The name the user gave, or null if they have not given one.
+     */
+    String getName(long session) {
+        Segment segment = segmentOf(session);
+        synchronized (segment) {
+            int slot = segment.find(session + 1);
+            return slot >= 0 ? segment.names[slot] : null;
+        }
+    }
+    
+    /**
+     * Picks the name out of an introduction such as "my name is Ada" or
+     * "call me Ada", capitalised and cut to {@link #MAX_NAME_LENGTH}.
+     * Null if the message does not introduce anyone, including when the
+     * word after the opening is a common word such as in "call me later".
+     */
+    static String extractName(String input) {
+        if (!mayIntroduce(input)) {
+            return null;
+        }
+        Matcher matcher = INTRODUCTION.matcher(input);
+        if (!matcher.find()) {
+            return null;
+        }
+        String name = matcher.group(1);
+        if (NOT_NAMES.contains(name.toLowerCase(Locale.ROOT))) {
+            return null;
+        }
+        if (name.length() > MAX_NAME_LENGTH) {
+            name = name.substring(0, MAX_NAME_LENGTH);
+        }
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+    
+    /**
+     * Whether the input contains either introduction, in any case. Cheap
+     * enough to run on every message, so only those that pass it go
+     * through the regex.
+     */
+    private static boolean mayIntroduce(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            // Folds ASCII letters to lower case; no other character becomes 'm' or 'c'
+            char c = (char) (input.charAt(i) | 0x20);
+            if ((c == 'm' && input.regionMatches(true, i, MY_NAME_IS, 0, MY_NAME_IS.length()))
+                    || (c == 'c' && input.regionMatches(true, i, CALL_ME, 0, CALL_ME.length()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private Segment segmentOf(long session) {
+        return segments[(int) (mix(session + 1) >>> (Long.SIZE - SEGMENT_BITS))];
+    }
+    
+    /**
+     * Spreads consecutive session numbers over the whole table.
+     */
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+    
+    /**
+     * One open addressing table with linear probing. Keys are session
+     * numbers plus one, so that zero can mark an empty slot.
+     */
+    private static final class Segment {
+        private long[] keys = new long[MIN_CAPACITY];
+        private String[] names = new String[MIN_CAPACITY];
+        private int size;
+        
+        int find(long key) {
+            int mask = keys.length - 1;
+            for (int slot = (int) mix(key) & mask; ; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                if (keys[slot] == 0) {
+                    return -1;
+                }
+            }
+        }
+        
+        void insert(long key) {
+            if (find(key) >= 0) {
+                return;
+            }
+            if ((size + 1) * 2 > keys.length) {
+                resize(keys.length * 2);
+            }
+            place(key, null);
+            size++;
+        }
+        
+        private void place(long key, String name) {
+            int mask = keys.length - 1;
+            int slot = (int) mix(key) & mask;
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            names[slot] = name;
+        }
+        
+        /**
+         * Removes a key and shifts back the entries probed past it, so
+         * lookups never need tombstones.
+         */
+        void remove(long key) {
+            int slot = find(key);
+            if (slot < 0) {
+                return;
+            }
+            int mask = keys.length - 1;
+            int hole = slot;
+            for (int next = (hole + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+                int home = (int) mix(keys[next]) & mask;
+                // Move the entry into the hole unless its home lies after the hole
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    names[hole] = names[next];
+                    hole = next;
+                }
+            }
+            keys[hole] = 0;
+            names[hole] = null;
+            size--;
+            // Give the memory back after a burst of sessions has gone
+            if (keys.length > MIN_CAPACITY && size * 8 < keys.length) {
+                resize(keys.length / 2);
+            }
+        }
+        
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            String[] oldNames = names;
+            keys = new long[capacity];
+            names = new String[capacity];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    place(oldKeys[i], oldNames[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package socket_bot;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Version 2 of the chat wire protocol: length-prefixed UTF-8 frames.
+ *
+ * Every connection starts in line mode. A client that wants frames sends
+ * {@link #UPGRADE_REQUEST} as its very first line and waits for the reply.
+ * A server that understands frames answers {@link #UPGRADE_ACCEPTED} and
+ * both sides switch to frames; an older server just answers it like any
+ * other message, and the client stays in line mode. Clients that never ask
+ * keep talking lines.
+ *
+ * A frame is a 4-byte big-endian payload length followed by the payload.
+ *
+ * @version 1.0
+ */
+final class FrameCodec {
+    static final String UPGRADE_REQUEST = "#PROTO 2";
+    static final String UPGRADE_ACCEPTED = "#PROTO 2 OK";
+    static final int HEADER_BYTES = 4;
+    static final int MAX_FRAME_BYTES = 64 * 1024;
+    
+    private FrameCodec() {
+    }
+    
+    static void writeFrame(DataOutputStream out, String message) throws IOException {
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+    
+    /**
+     * Reads one frame, or returns {@code null} at a clean end of stream.
+     */
+    static String readFrame(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        checkLength(length);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+    
+    static void checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+    }
+    
+    /**
+     * Reads a single line byte by byte, so nothing after it is consumed.
+     * Only used for the handshake, where the line is short.
+     */
+    static String readHandshakeLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("Connection closed during handshake");
+            }
+            line.write(b);
+        }
+        String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+}
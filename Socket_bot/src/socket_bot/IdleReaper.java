@@ -0,0 +1,142 @@
+package socket_bot;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Closes connections that have been idle for longer than a timeout.
+ *
+ * Connections are kept in a hashed timer wheel: a ring of slots, each
+ * holding the connections due to expire during one tick. Recording
+ * activity only stores a timestamp and never moves the connection. When
+ * its slot comes round, the reaper checks the timestamp and either expires
+ * the connection or puts it back in the slot of its new deadline. Each
+ * connection is thus looked at about once per timeout, however busy it
+ * is, and a tick only touches the connections of one slot.
+ *
+ * @version 1.0
+ */
+final class IdleReaper implements Runnable {
+    private static final int TICKS_PER_TIMEOUT = 16;
+    private static final long MIN_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    
+    /**
+     * A connection watched by the reaper.
+     */
+    abstract static class Entry {
+        private volatile long lastActive = System.nanoTime();
+        
+        /**
+         * Records activity, pushing the idle deadline back.
+         */
+        final void touch() {
+            lastActive = System.nanoTime();
+        }
+        
+        final long idleNanos(long now) {
+            return now - lastActive;
+        }
+        
+        abstract boolean isOpen();
+        
+        /**
+         * Called on the reaper thread once the connection has been idle
+         * for the whole timeout. The connection is no longer watched
+         * afterwards unless it is registered again.
+         */
+        abstract void expire();
+    }
+    
+    private final long timeoutNanos;
+    private final long tickNanos;
+    private final Queue<Entry>[] wheel;
+    private final int mask;
+    private final long startedAt = System.nanoTime();
+    private volatile long currentTick;
+    private Thread thread;
+    
+    IdleReaper(long timeoutMillis) {
+        timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        tickNanos = Math.max(MIN_TICK_NANOS, timeoutNanos / TICKS_PER_TIMEOUT);
+        // One turn of the wheel must span a whole timeout
+        int slots = Integer.highestOneBit((int) (timeoutNanos / tickNanos) + 2) * 2;
+        wheel = newWheel(slots);
+        for (int i = 0; i < slots; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        mask = slots - 1;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Queue<Entry>[] newWheel(int slots) {
+        return (Queue<Entry>[]) new Queue<?>[slots];
+    }
+    
+    /**
+     * Starts watching a connection, which counts as active since it was
+     * created or last touched.
+     */
+    void register(Entry entry) {
+        schedule(entry, entry.lastActive + timeoutNanos);
+    }
+    
+    /**
+     * Whether the connection has now been idle for the whole timeout.
+     */
+    boolean isExpired(Entry entry) {
+        return entry.idleNanos(System.nanoTime()) >= timeoutNanos;
+    }
+    
+    private void schedule(Entry entry, long deadline) {
+        // Never into the slot being processed, which may be past its turn
+        long tick = Math.max(currentTick + 1, (deadline - startedAt + tickNanos - 1) / tickNanos);
+        wheel[(int) (tick & mask)].add(entry);
+    }
+    
+    /**
+     * Starts ticking on a daemon thread.
+     */
+    void start() {
+        thread = new Thread(this, "bot-idle-reaper");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    void stop() {
+        thread.interrupt();
+    }
+    
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            long now = System.nanoTime();
+            long dueTick = (now - startedAt) / tickNanos;
+            while (currentTick < dueTick) {
+                currentTick++;
+                expireSlot(currentTick, now);
+            }
+            LockSupport.parkNanos(startedAt + (currentTick + 1) * tickNanos - System.nanoTime());
+        }
+    }
+    
+    private void expireSlot(long tick, long now) {
+        Queue<Entry> slot = wheel[(int) (tick & mask)];
+        for (int pending = slot.size(); pending > 0; pending--) {
+            Entry entry = slot.poll();
+            if (entry == null) {
+                return;
+            }
+            if (!entry.isOpen()) {
+                continue;
+            }
+            long idle = entry.idleNanos(now);
+            if (idle >= timeoutNanos) {
+                entry.expire();
+            } else {
+                schedule(entry, now - idle + timeoutNanos);
+            }
+        }
+    }
+}
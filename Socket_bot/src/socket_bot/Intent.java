@@ -0,0 +1,22 @@
+package socket_bot;
+
+/**
+ * The kinds of message the bot knows how to answer, in the order the
+ * server checks for them.
+ *
+ * @version 1.0
+ */
+public enum Intent {
+    GREETING,
+    FAREWELL,
+    TIME,
+    WEATHER,
+    /** A "how are you?" style question. */
+    MOOD,
+    /** A "what ...?" or "how ...?" question. */
+    CURIOSITY,
+    /** A "why ...?" question. */
+    WHY,
+    /** Nothing matched. */
+    DEFAULT
+}
@@ -0,0 +1,73 @@
+package socket_bot;
+
+/**
+ * A plugin that answers messages in place of the catalog's canned replies.
+ *
+ * {@link BotServer} finds handlers with {@link java.util.ServiceLoader}: a
+ * jar on the class path lists its implementations, which need a public
+ * no-argument constructor, in
+ * {@code META-INF/services/socket_bot.IntentHandler}. Handlers can also be
+ * added with {@link BotServer#addIntentHandler}.
+ *
+ * Every message is classified first. The cheap handlers that accept its
+ * intent are then asked in turn, on the connection's own thread, and the
+ * first reply wins. If none replies, the first expensive handler that
+ * accepts the intent is asked on a plugin thread, so that it cannot hold
+ * up the connection's I/O; if it is too slow, fails or cannot be queued,
+ * its fallback reply is sent instead. A message no handler replies to gets
+ * the catalog's reply as before.
+ *
+ * Handlers are called from many threads at once and must be thread-safe.
+ *
+ * @version 1.0
+ */
+public interface IntentHandler {
+    
+    /**
+     * The name the handler's metrics are reported under.
+     */
+    default String getName() {
+        return getClass().getSimpleName();
+    }
+    
+    /**
+     * Whether to ask this handler about messages of an intent. Called for
+     * every message on the connection's thread, so it must be cheap.
+     */
+    default boolean accepts(Intent intent) {
+        return true;
+    }
+    
+    /**
+     * Answers a message.
+     *
+     * @param input the message as the client sent it
+     * @param intent what the catalog classified it as
+     * @return the reply, or {@code null} to leave the message to the next
+     *         handler or the catalog
+     */
+    String reply(String input, Intent intent);
+    
+    /**
+     * Whether the handler does enough work, such as a lookup or a remote
+     * call, to need a thread of its own.
+     */
+    default boolean isExpensive() {
+        return false;
+    }
+    
+    /**
+     * How long an expensive handler is given to reply.
+     */
+    default long getTimeoutMillis() {
+        return 250;
+    }
+    
+    /**
+     * The reply sent when an expensive handler times out, fails or cannot
+     * be queued, or {@code null} to send the catalog's reply.
+     */
+    default String getFallbackReply() {
+        return null;
+    }
+}
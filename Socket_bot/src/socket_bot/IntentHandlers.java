@@ -0,0 +1,235 @@
+package socket_bot;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@link IntentHandler} plugins of a server and the threads that run
+ * the expensive ones.
+ *
+ * Cheap handlers are called inline. Expensive ones run on a fixed pool
+ * with a bounded queue, and a timer completes the reply with the handler's
+ * fallback once its timeout is up, whether or not the handler ever
+ * returns. A full queue is answered with the fallback at once instead of
+ * queueing without bound behind a slow plugin.
+ *
+ * A handler that throws, from any of its methods, is counted as failed
+ * and treated as having no reply; it never takes the calling thread down.
+ *
+ * The handler lists are copied on write, as handlers are added rarely and
+ * read on every message.
+ *
+ * @version 1.0
+ */
+final class IntentHandlers {
+    private static final Plugin[] NONE = new Plugin[0];
+    
+    private final BotMetrics metrics;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledThreadPoolExecutor timer;
+    private volatile Plugin[] cheap = NONE;
+    private volatile Plugin[] expensive = NONE;
+    
+    IntentHandlers(ServerConfig config, BotMetrics metrics) {
+        this.metrics = metrics;
+        AtomicInteger count = new AtomicInteger();
+        // Threads are only started once an expensive handler is first called
+        executor = new ThreadPoolExecutor(config.getPluginThreads(), config.getPluginThreads(),
+                0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(config.getPluginQueueCapacity()),
+                task -> daemon(task, "bot-plugin-" + count.incrementAndGet()));
+        timer = new ScheduledThreadPoolExecutor(1, task -> daemon(task, "bot-plugin-timer"));
+        timer.setRemoveOnCancelPolicy(true);
+    }
+    
+    private static Thread daemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+    
+    /**
+     * Adds the handlers listed by the jars on the class path. A handler
+     * that cannot be loaded is reported and left out.
+     */
+    void loadServices() {
+        ServiceLoader<IntentHandler> loader = ServiceLoader.load(IntentHandler.class);
+        Iterator<IntentHandler> found = loader.iterator();
+        while (true) {
+            try {
+                if (!found.hasNext()) {
+                    return;
+                }
+                add(found.next());
+            } catch (ServiceConfigurationError e) {
+                System.out.println("Plugin Error: " + e.getMessage());
+            }
+        }
+    }
+    
+    synchronized void add(IntentHandler handler) {
+        Plugin plugin = new Plugin(handler, metrics.pluginRegistered(handler.getName()));
+        if (handler.isExpensive()) {
+            expensive = append(expensive, plugin);
+        } else {
+            cheap = append(cheap, plugin);
+        }
+    }
+    
+    private static Plugin[] append(Plugin[] plugins, Plugin plugin) {
+        Plugin[] added = Arrays.copyOf(plugins, plugins.length + 1);
+        added[plugins.length] = plugin;
+        return added;
+    }
+    
+    /**
+     * Asks the cheap handlers that accept the intent, in the order they
+     * were added.
+     *
+     * @return the first reply, or {@code null} if none replied
+     */
+    String replyInline(String input, Intent intent) {
+        for (Plugin plugin : cheap) {
+            if (!accepts(plugin, intent)) {
+                continue;
+            }
+            long startedAt = System.nanoTime();
+            String reply;
+            try {
+                reply = plugin.handler.reply(input, intent);
+            } catch (RuntimeException e) {
+                failed(plugin, startedAt, e);
+                continue;
+            }
+            plugin.stats.called(reply != null, System.nanoTime() - startedAt);
+            if (reply != null) {
+                return reply;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Hands the message to the first expensive handler that accepts the
+     * intent. The returned reply is {@code null} if the handler had none
+     * and has no fallback.
+     *
+     * @return the reply to come, or {@code null} if no expensive handler
+     *         accepts the intent
+     */
+    CompletableFuture<String> dispatch(String input, Intent intent) {
+        for (Plugin plugin : expensive) {
+            if (!accepts(plugin, intent)) {
+                continue;
+            }
+            long startedAt = System.nanoTime();
+            String fallback;
+            long timeoutMillis;
+            try {
+                fallback = plugin.handler.getFallbackReply();
+                timeoutMillis = plugin.handler.getTimeoutMillis();
+            } catch (RuntimeException e) {
+                failed(plugin, startedAt, e);
+                continue;
+            }
+            return call(plugin, input, intent, fallback, timeoutMillis);
+        }
+        return null;
+    }
+    
+    /**
+     * Whether a handler accepts an intent; one that throws does not.
+     */
+    private static boolean accepts(Plugin plugin, Intent intent) {
+        long startedAt = System.nanoTime();
+        try {
+            return plugin.handler.accepts(intent);
+        } catch (RuntimeException e) {
+            failed(plugin, startedAt, e);
+            return false;
+        }
+    }
+    
+    private static void failed(Plugin plugin, long startedAt, RuntimeException e) {
+        plugin.stats.failed(System.nanoTime() - startedAt);
+        System.out.println("Plugin Error: " + plugin.handler.getName() + ": " + e);
+    }
+    
+    private CompletableFuture<String> call(Plugin plugin, String input, Intent intent,
+            String fallback, long timeoutMillis) {
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        // The handler and the timer race to settle the reply; the winner counts before completing
+        // it, as whoever waits on the reply may read the counters as soon as it completes
+        AtomicBoolean settled = new AtomicBoolean();
+        Future<?> task;
+        try {
+            task = executor.submit(() -> {
+                long startedAt = System.nanoTime();
+                try {
+                    String answer = plugin.handler.reply(input, intent);
+                    plugin.stats.called(answer != null, System.nanoTime() - startedAt);
+                    if (settled.compareAndSet(false, true)) {
+                        reply.complete(answer != null ? answer : fallback);
+                    }
+                } catch (RuntimeException e) {
+                    failed(plugin, startedAt, e);
+                    if (settled.compareAndSet(false, true)) {
+                        reply.complete(fallback);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            plugin.stats.rejected();
+            reply.complete(fallback);
+            return reply;
+        }
+        ScheduledFuture<?> timeout;
+        try {
+            timeout = timer.schedule(() -> {
+                if (settled.compareAndSet(false, true)) {
+                    plugin.stats.timedOut();
+                    task.cancel(true);
+                    reply.complete(fallback);
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down, and the task with it
+            if (settled.compareAndSet(false, true)) {
+                task.cancel(true);
+                reply.complete(fallback);
+            }
+            return reply;
+        }
+        reply.whenComplete((answer, error) -> timeout.cancel(false));
+        return reply;
+    }
+    
+    /**
+     * Stops the plugin threads, interrupting handlers still running.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+    
+    private static final class Plugin {
+        final IntentHandler handler;
+        final BotMetrics.PluginStats stats;
+        
+        Plugin(IntentHandler handler, BotMetrics.PluginStats stats) {
+            this.handler = handler;
+            this.stats = stats;
+        }
+    }
+}
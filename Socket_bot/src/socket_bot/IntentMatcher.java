@@ -0,0 +1,251 @@
+package socket_bot;
+
+import java.util.*;
+
+/**
+ * Classifies a message into an intent in a single pass over its characters.
+ *
+ * Every keyword of every rule is compiled into one Aho-Corasick automaton,
+ * flattened into a transition table. Scanning a message walks the table
+ * once, case-insensitively, and collects which keyword groups occurred in
+ * a bit mask. Rules are then checked against the mask in the order they
+ * were added, and the first rule that holds wins. Classifying allocates
+ * nothing, whatever the number of rules or keywords.
+ *
+ * A rule matches when any of its keywords occurs in the message and, if
+ * it has required keywords, at least one of those occurs as well:
+ * <pre>
+ * IntentMatcher&lt;Intent&gt; matcher = new IntentMatcher.Builder&lt;Intent&gt;()
+ *         .rule(Intent.WEATHER, "weather")
+ *         .rule(Intent.WHY, new String[]{"why"}, "?")
+ *         .build(Intent.DEFAULT);
+ * </pre>
+ *
+ * Instances are immutable and safe to share between threads.
+ *
+ * @param <T> the intent type returned by {@link #classify(CharSequence)}
+ * @version 1.0
+ */
+public final class IntentMatcher<T> {
+    private static final int ASCII = 128;
+    
+    private final int alphabetSize;
+    private final int[] asciiClasses;
+    private final char[] otherChars;
+    private final int[] otherClasses;
+    private final int[] transitions;
+    private final long[] outputs;
+    private final long[] ruleKeywords;
+    private final long[] ruleRequired;
+    private final Object[] ruleIntents;
+    private final T fallback;
+    
+    private IntentMatcher(Builder<T> builder, T fallback) {
+        this.fallback = fallback;
+        
+        int rules = builder.intents.size();
+        ruleIntents = builder.intents.toArray();
+        ruleKeywords = new long[rules];
+        ruleRequired = new long[rules];
+        
+        // Every distinct keyword list becomes one group with its own bit
+        List<List<String>> groups = new ArrayList<>();
+        for (int r = 0; r < rules; r++) {
+            ruleKeywords[r] = groupBit(groups, builder.keywords.get(r));
+            List<String> required = builder.required.get(r);
+            ruleRequired[r] = required.isEmpty() ? 0 : groupBit(groups, required);
+        }
+        
+        // Map every character that occurs in a keyword to a dense class,
+        // class 0 standing for "any other character"
+        SortedSet<Character> alphabet = new TreeSet<>();
+        for (List<String> group : groups) {
+            for (String keyword : group) {
+                for (char c : keyword.toCharArray()) {
+                    alphabet.add(c);
+                }
+            }
+        }
+        alphabetSize = alphabet.size() + 1;
+        asciiClasses = new int[ASCII];
+        List<Character> others = new ArrayList<>();
+        int nextClass = 1;
+        for (char c : alphabet) {
+            if (c < ASCII) {
+                asciiClasses[c] = nextClass++;
+            } else {
+                others.add(c);
+            }
+        }
+        for (char c = 0; c < ASCII; c++) {
+            // Fold upper case here so the scan loop can skip toLowerCase for ASCII
+            char lower = Character.toLowerCase(c);
+            if (lower != c && lower < ASCII) {
+                asciiClasses[c] = asciiClasses[lower];
+            }
+        }
+        otherChars = new char[others.size()];
+        otherClasses = new int[others.size()];
+        for (int i = 0; i < otherChars.length; i++) {
+            otherChars[i] = others.get(i);
+            otherClasses[i] = nextClass++;
+        }
+        
+        // Build the keyword trie
+        List<int[]> trie = new ArrayList<>();
+        List<Long> output = new ArrayList<>();
+        trie.add(newNode());
+        output.add(0L);
+        for (int g = 0; g < groups.size(); g++) {
+            for (String keyword : groups.get(g)) {
+                int state = 0;
+                for (char c : keyword.toCharArray()) {
+                    int cls = charClass(c);
+                    if (trie.get(state)[cls] < 0) {
+                        trie.get(state)[cls] = trie.size();
+                        trie.add(newNode());
+                        output.add(0L);
+                    }
+                    state = trie.get(state)[cls];
+                }
+                output.set(state, output.get(state) | (1L << g));
+            }
+        }
+        
+        // Turn it into a DFA: breadth-first, filling missing transitions
+        // from the failure state and inheriting its outputs
+        int states = trie.size();
+        transitions = new int[states * alphabetSize];
+        outputs = new long[states];
+        int[] failure = new int[states];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int cls = 0; cls < alphabetSize; cls++) {
+            int next = trie.get(0)[cls];
+            transitions[cls] = next < 0 ? 0 : next;
+            if (next > 0) {
+                queue.add(next);
+            }
+        }
+        for (int s = 0; s < states; s++) {
+            outputs[s] = output.get(s);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            outputs[state] |= outputs[failure[state]];
+            for (int cls = 0; cls < alphabetSize; cls++) {
+                int next = trie.get(state)[cls];
+                int viaFailure = transitions[failure[state] * alphabetSize + cls];
+                if (next < 0) {
+                    transitions[state * alphabetSize + cls] = viaFailure;
+                } else {
+                    transitions[state * alphabetSize + cls] = next;
+                    failure[next] = viaFailure;
+                    queue.add(next);
+                }
+            }
+        }
+    }
+    
+    private static long groupBit(List<List<String>> groups, List<String> keywords) {
+        int index = groups.indexOf(keywords);
+        if (index < 0) {
+            if (groups.size() == Long.SIZE) {
+                throw new IllegalStateException("At most " + Long.SIZE + " keyword groups are supported");
+            }
+            groups.add(keywords);
+            index = groups.size() - 1;
+        }
+        return 1L << index;
+    }
+    
+    private int[] newNode() {
+        int[] node = new int[alphabetSize];
+        Arrays.fill(node, -1);
+        return node;
+    }
+    
+    private int charClass(char c) {
+        if (c < ASCII) {
+            return asciiClasses[c];
+        }
+        int index = Arrays.binarySearch(otherChars, c);
+        return index < 0 ? 0 : otherClasses[index];
+    }
+    
+    /**
+     * Returns the intent of the first rule the message satisfies, or the
+     * fallback intent if none does. Matching ignores case.
+     */
+    @SuppressWarnings("unchecked")
+    public T classify(CharSequence message) {
+        long seen = scan(message);
+        for (int r = 0; r < ruleIntents.length; r++) {
+            if ((seen & ruleKeywords[r]) != 0
+                    && (ruleRequired[r] == 0 || (seen & ruleRequired[r]) != 0)) {
+                return (T) ruleIntents[r];
+            }
+        }
+        return fallback;
+    }
+    
+    private long scan(CharSequence message) {
+        long seen = 0;
+        int state = 0;
+        for (int i = 0, n = message.length(); i < n; i++) {
+            char c = message.charAt(i);
+            int cls = c < ASCII ? asciiClasses[c] : charClass(Character.toLowerCase(c));
+            state = transitions[state * alphabetSize + cls];
+            seen |= outputs[state];
+        }
+        return seen;
+    }
+    
+    /**
+     * Collects rules in priority order and compiles them into a matcher.
+     */
+    public static final class Builder<T> {
+        private final List<T> intents = new ArrayList<>();
+        private final List<List<String>> keywords = new ArrayList<>();
+        private final List<List<String>> required = new ArrayList<>();
+        
+        /**
+         * Adds a rule that matches when any of the keywords occurs.
+         */
+        public Builder<T> rule(T intent, String... anyOf) {
+            return rule(intent, anyOf, new String[0]);
+        }
+        
+        /**
+         * Adds a rule that matches when any of the keywords occurs together
+         * with any of the required keywords.
+         */
+        public Builder<T> rule(T intent, String[] anyOf, String... requiredAnyOf) {
+            if (anyOf.length == 0) {
+                throw new IllegalArgumentException("A rule needs at least one keyword");
+            }
+            intents.add(intent);
+            keywords.add(normalize(anyOf));
+            required.add(normalize(requiredAnyOf));
+            return this;
+        }
+        
+        private static List<String> normalize(String[] words) {
+            List<String> normalized = new ArrayList<>();
+            for (String word : words) {
+                if (word.isEmpty()) {
+                    throw new IllegalArgumentException("Keywords must not be empty");
+                }
+                StringBuilder lower = new StringBuilder(word.length());
+                for (int i = 0; i < word.length(); i++) {
+                    lower.append(Character.toLowerCase(word.charAt(i)));
+                }
+                normalized.add(lower.toString());
+            }
+            return normalized;
+        }
+        
+        public IntentMatcher<T> build(T fallback) {
+            return new IntentMatcher<>(this, fallback);
+        }
+    }
+}
@@ -0,0 +1,654 @@
+package socket_bot;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A local corpus of documents searched with BM25, so that questions the
+ * catalog has no keyword for get the answer of the document that matches
+ * them best rather than a canned reply.
+ *
+ * The corpus file has one document per line, {@code text<TAB>answer}, in
+ * UTF-8; blank lines and lines starting with {@code #} are skipped. The
+ * text is what is searched, typically a question and its keywords, and
+ * several documents may share an answer, which is stored once.
+ *
+ * The index is built once and never changes. Each term's postings are
+ * (document gap, term frequency) pairs, varint-encoded back to back in a
+ * single byte array, with a skip entry every {@value #SKIP_INTERVAL}
+ * postings. Per document only its length norm and answer number are kept,
+ * and the answers are UTF-8 bytes in one array. The whole index is a
+ * handful of primitive arrays besides the term dictionary.
+ *
+ * A search scores term at a time, rarest term first, into a score array
+ * borrowed from a pool that keeps one per processor at most. The most any term can add to a score is known from
+ * the build, so once the best score so far is out of reach of documents
+ * the remaining terms have not scored yet, those terms only update the
+ * documents already scored, skipping through their postings to them
+ * (MaxScore). Answers to recent questions are cached.
+ *
+ * Instances are safe to share between threads. A search over a large
+ * corpus takes milliseconds, so in a server the knowledge base is an
+ * expensive handler: it runs on the plugin threads, and a question it
+ * cannot answer in time gets the catalog's reply.
+ *
+ * @version 1.0
+ */
+public final class KnowledgeBase implements IntentHandler {
+    static final int SKIP_INTERVAL = 128;
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    /** Longer questions are rarely repeated and would only push out the common ones. */
+    private static final int MAX_CACHED_QUESTION_LENGTH = 256;
+    private static final String NO_ANSWER = "";
+    /** More searches at once than processors only wait for each other. */
+    private static final int MAX_POOLED_SCRATCHES = Runtime.getRuntime().availableProcessors();
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+            "a", "an", "and", "are", "as", "at", "be", "by", "can", "do", "does", "for", "from",
+            "how", "i", "if", "in", "is", "it", "me", "my", "of", "on", "or", "so", "that", "the",
+            "there", "this", "to", "was", "we", "what", "when", "where", "which", "who", "why",
+            "will", "with", "you", "your"));
+    
+    private final Map<String, Integer> terms;
+    private final float[] idf;
+    private final float[] maxScores;
+    private final int[] postingStarts;
+    private final int[] documentCounts;
+    private final byte[] postings;
+    private final int[] skipStarts;
+    private final int[] skipDocuments;
+    private final int[] skipOffsets;
+    private final float[] norms;
+    private final int[] answerOf;
+    private final int[] answerStarts;
+    private final byte[] answers;
+    private final long dictionaryBytes;
+    private final double minScore;
+    private final LruCache<String, String> cache;
+    private final Queue<Scratch> scratches = new ArrayBlockingQueue<>(MAX_POOLED_SCRATCHES);
+    
+    private KnowledgeBase(Builder builder, Map<String, Integer> terms, int cacheSize, double minScore) {
+        this.terms = terms;
+        this.minScore = minScore;
+        this.cache = cacheSize > 0 ? new LruCache<>(cacheSize) : null;
+        int documents = builder.documents;
+        int termCount = builder.termSizes.length;
+        
+        long totalLength = 0;
+        for (int i = 0; i < documents; i++) {
+            totalLength += builder.lengths[i];
+        }
+        float averageLength = documents == 0 ? 1 : Math.max(1, (float) totalLength / documents);
+        norms = new float[documents];
+        for (int i = 0; i < documents; i++) {
+            norms[i] = K1 * (1 - B + B * builder.lengths[i] / averageLength);
+        }
+        
+        idf = new float[termCount];
+        maxScores = new float[termCount];
+        documentCounts = new int[termCount];
+        postingStarts = new int[termCount + 1];
+        skipStarts = new int[termCount + 1];
+        int skipCount = 0;
+        for (int t = 0; t < termCount; t++) {
+            skipCount += (builder.termSizes[t] / 2 - 1) / SKIP_INTERVAL;
+        }
+        skipDocuments = new int[skipCount];
+        skipOffsets = new int[skipCount];
+        
+        ByteWriter out = new ByteWriter();
+        int skip = 0;
+        for (int t = 0; t < termCount; t++) {
+            int[] pairs = builder.termPostings[t];
+            int count = builder.termSizes[t] / 2;
+            float termIdf = (float) Math.log(1 + (documents - count + 0.5) / (count + 0.5));
+            float max = 0;
+            postingStarts[t] = out.size;
+            skipStarts[t] = skip;
+            int previous = -1;
+            for (int i = 0; i < count; i++) {
+                int document = pairs[2 * i];
+                int frequency = pairs[2 * i + 1];
+                if (i > 0 && i % SKIP_INTERVAL == 0) {
+                    skipDocuments[skip] = previous;
+                    skipOffsets[skip] = out.size;
+                    skip++;
+                }
+                out.writeVarint(document - previous);
+                out.writeVarint(frequency);
+                previous = document;
+                max = Math.max(max, termIdf * frequency * (K1 + 1) / (frequency + norms[document]));
+            }
+            idf[t] = termIdf;
+            maxScores[t] = max;
+            documentCounts[t] = count;
+            // Let the garbage collector have the build arrays as soon as each is encoded
+            builder.termPostings[t] = null;
+        }
+        postingStarts[termCount] = out.size;
+        skipStarts[termCount] = skip;
+        postings = out.toArray();
+        
+        answerOf = Arrays.copyOf(builder.answerOf, documents);
+        answerStarts = Arrays.copyOf(builder.answerStarts, builder.answerIds.size() + 1);
+        answers = Arrays.copyOf(builder.answerBytes, builder.answerBytesSize);
+        long keyBytes = 0;
+        for (String term : terms.keySet()) {
+            keyBytes += term.length();
+        }
+        // String, its byte array, map node and boxed id, on a 64-bit JVM with compressed pointers
+        dictionaryBytes = keyBytes + terms.size() * 104L + Integer.highestOneBit(Math.max(1, terms.size())) * 8L;
+    }
+    
+    /**
+     * Reads a corpus file and indexes it.
+     *
+     * @param cacheSize how many questions to cache the answer of, or 0
+     * @param minScore the score the best document needs for its answer to
+     *        be given
+     * @throws IllegalArgumentException if a line has no answer
+     */
+    public static KnowledgeBase load(Path file, int cacheSize, double minScore) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return parse(reader, cacheSize, minScore);
+        }
+    }
+    
+    /**
+     * Reads a corpus and indexes it.
+     *
+     * @throws IllegalArgumentException if a line has no answer
+     */
+    public static KnowledgeBase parse(Reader source, int cacheSize, double minScore) throws IOException {
+        BufferedReader reader = new BufferedReader(source);
+        Builder builder = new Builder();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int tab = line.indexOf('\t');
+            if (tab < 0 || line.substring(tab + 1).trim().isEmpty()) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": expected text<TAB>answer");
+            }
+            builder.add(line.substring(0, tab), line.substring(tab + 1).trim());
+        }
+        return builder.build(cacheSize, minScore);
+    }
+    
+    @Override
+    public String getName() {
+        return "knowledge-base";
+    }
+    
+    /**
+     * Questions and messages nothing else matched; greetings, the time and
+     * the like keep their catalog replies.
+     */
+    @Override
+    public boolean accepts(Intent intent) {
+        return intent == Intent.CURIOSITY || intent == Intent.WHY || intent == Intent.DEFAULT;
+    }
+    
+    @Override
+    public String reply(String input, Intent intent) {
+        return answer(input);
+    }
+    
+    /**
+     * Searching can take milliseconds, too long to hold up a connection's
+     * thread, let alone the reactor's.
+     */
+    @Override
+    public boolean isExpensive() {
+        return true;
+    }
+    
+    /**
+     * The answer of the document that best matches a question, or
+     * {@code null} if none matches it well enough.
+     */
+    public String answer(String question) {
+        if (cache == null || question.length() > MAX_CACHED_QUESTION_LENGTH) {
+            return answerOf(search(question));
+        }
+        // Case and surrounding space do not change the terms, so they share an entry
+        String key = question.trim().toLowerCase(Locale.ROOT);
+        String answer = cache.get(key);
+        if (answer == null) {
+            answer = answerOf(search(key));
+            cache.put(key, answer == null ? NO_ANSWER : answer);
+        }
+        return answer == NO_ANSWER ? null : answer;
+    }
+    
+    private String answerOf(int document) {
+        if (document < 0) {
+            return null;
+        }
+        int answer = answerOf[document];
+        return new String(answers, answerStarts[answer], answerStarts[answer + 1] - answerStarts[answer],
+                StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * The document that best matches a question, the first one on a tie,
+     * or -1 if none scores at least the minimum.
+     */
+    int search(String question) {
+        List<String> words = tokenize(question);
+        Scratch scratch = scratches.poll();
+        if (scratch == null) {
+            scratch = new Scratch(norms.length);
+        }
+        try {
+            return search(words, scratch);
+        } finally {
+            // Dropped if the pool is full, so a burst of searches leaves no extra score arrays behind
+            scratches.offer(scratch);
+        }
+    }
+    
+    private int search(List<String> words, Scratch scratch) {
+        int[] query = scratch.query(words.size());
+        int count = 0;
+        for (String word : words) {
+            Integer term = terms.get(word);
+            if (term != null && !contains(query, count, term)) {
+                query[count++] = term;
+            }
+        }
+        if (count == 0) {
+            return -1;
+        }
+        // Highest possible contribution first, which is roughly rarest first; queries are short
+        for (int i = 1; i < count; i++) {
+            int term = query[i];
+            int j = i;
+            while (j > 0 && maxScores[query[j - 1]] < maxScores[term]) {
+                query[j] = query[j - 1];
+                j--;
+            }
+            query[j] = term;
+        }
+        float[] reachable = scratch.reachable;
+        reachable[count] = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            reachable[i] = reachable[i + 1] + maxScores[query[i]];
+        }
+        
+        float[] scores = scratch.scores;
+        int touched = 0;
+        float best = 0;
+        int bestDocument = -1;
+        int i = 0;
+        // Every document each of these terms is in, while a document none of them is in could still win,
+        // or tie and come first
+        for (; i < count && best <= reachable[i]; i++) {
+            int term = query[i];
+            float termIdf = idf[term];
+            int position = postingStarts[term];
+            int document = -1;
+            for (int n = documentCounts[term]; n > 0; n--) {
+                int value = postings[position++];
+                int gap = value & 0x7F;
+                for (int shift = 7; value < 0; shift += 7) {
+                    value = postings[position++];
+                    gap |= (value & 0x7F) << shift;
+                }
+                value = postings[position++];
+                int frequency = value & 0x7F;
+                for (int shift = 7; value < 0; shift += 7) {
+                    value = postings[position++];
+                    frequency |= (value & 0x7F) << shift;
+                }
+                document += gap;
+                float score = scores[document];
+                if (score == 0) {
+                    touched = scratch.touch(touched, document);
+                }
+                score += termIdf * frequency * (K1 + 1) / (frequency + norms[document]);
+                scores[document] = score;
+                if (score > best || (score == best && document < bestDocument)) {
+                    best = score;
+                    bestDocument = document;
+                }
+            }
+        }
+        // Only the documents already scored, and of those only the ones that can still overtake or tie
+        if (i < count) {
+            int[] candidates = scratch.touched;
+            Arrays.sort(candidates, 0, touched);
+            Cursor cursor = scratch.cursor;
+            for (; i < count; i++) {
+                int term = query[i];
+                float termIdf = idf[term];
+                cursor.reset(term);
+                for (int c = 0; c < touched; c++) {
+                    int document = candidates[c];
+                    if (scores[document] + reachable[i] < best) {
+                        continue;
+                    }
+                    if (!cursor.advance(document)) {
+                        break;
+                    }
+                    if (cursor.document == document) {
+                        float score = scores[document]
+                                + termIdf * cursor.frequency * (K1 + 1) / (cursor.frequency + norms[document]);
+                        scores[document] = score;
+                        if (score > best || (score == best && document < bestDocument)) {
+                            best = score;
+                            bestDocument = document;
+                        }
+                    }
+                }
+            }
+        }
+        
+        int[] scored = scratch.touched;
+        for (int c = 0; c < touched; c++) {
+            scores[scored[c]] = 0;
+        }
+        return best >= minScore ? bestDocument : -1;
+    }
+    
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Splits text into lower case words of letters and digits, leaving out
+     * single characters and common words.
+     */
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0, length = text.length(); i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                if (word.length() > 1) {
+                    String found = word.toString();
+                    if (!STOP_WORDS.contains(found)) {
+                        words.add(found);
+                    }
+                }
+                word.setLength(0);
+            }
+        }
+        return words;
+    }
+    
+    int documents() {
+        return norms.length;
+    }
+    
+    int terms() {
+        return idf.length;
+    }
+    
+    /**
+     * Roughly how much heap the index takes, the answer cache left out.
+     */
+    long memoryBytes() {
+        return postings.length + answers.length
+                + 4L * (idf.length + maxScores.length + postingStarts.length + documentCounts.length
+                        + skipStarts.length + skipDocuments.length + skipOffsets.length
+                        + norms.length + answerOf.length + answerStarts.length)
+                + dictionaryBytes;
+    }
+    
+    double cacheHitRate() {
+        return cache == null ? 0 : cache.getHitRate();
+    }
+    
+    /**
+     * The arrays one search works in, pooled rather than per thread, as
+     * the threaded modes can have far more threads than searches at once.
+     */
+    private final class Scratch {
+        final float[] scores;
+        int[] touched = new int[1024];
+        int[] query = new int[16];
+        float[] reachable = new float[17];
+        final Cursor cursor = new Cursor();
+        
+        Scratch(int documents) {
+            scores = new float[documents];
+        }
+        
+        int[] query(int words) {
+            if (query.length < words) {
+                query = new int[words];
+                reachable = new float[words + 1];
+            }
+            return query;
+        }
+        
+        int touch(int count, int document) {
+            if (count == touched.length) {
+                touched = Arrays.copyOf(touched, Math.min(scores.length, count * 2));
+            }
+            touched[count] = document;
+            return count + 1;
+        }
+    }
+    
+    /**
+     * Walks one term's postings, skipping whole blocks where it can.
+     */
+    private final class Cursor {
+        int document;
+        int frequency;
+        private int position;
+        private int count;
+        private int remaining;
+        private int firstSkip;
+        private int skip;
+        private int skipEnd;
+        
+        void reset(int term) {
+            document = -1;
+            position = postingStarts[term];
+            count = documentCounts[term];
+            remaining = count;
+            firstSkip = skipStarts[term];
+            skip = firstSkip;
+            skipEnd = skipStarts[term + 1];
+        }
+        
+        /**
+         * Moves to the first posting at or after a document.
+         *
+         * @return false if there is none
+         */
+        boolean advance(int target) {
+            if (document >= target) {
+                return true;
+            }
+            // Skip entry k holds the last document before block k + 1, so the block can be jumped to
+            while (skip < skipEnd && skipDocuments[skip] < target) {
+                int before = (skip - firstSkip + 1) * SKIP_INTERVAL;
+                if (before > count - remaining) {
+                    document = skipDocuments[skip];
+                    position = skipOffsets[skip];
+                    remaining = count - before;
+                }
+                skip++;
+            }
+            while (remaining > 0) {
+                int value = postings[position++];
+                int gap = value & 0x7F;
+                for (int shift = 7; value < 0; shift += 7) {
+                    value = postings[position++];
+                    gap |= (value & 0x7F) << shift;
+                }
+                value = postings[position++];
+                frequency = value & 0x7F;
+                for (int shift = 7; value < 0; shift += 7) {
+                    value = postings[position++];
+                    frequency |= (value & 0x7F) << shift;
+                }
+                document += gap;
+                remaining--;
+                if (document >= target) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * Collects documents and turns them into an index.
+     */
+    static final class Builder {
+        private final Map<String, Integer> terms = new HashMap<>();
+        private int[][] termPostings = new int[1024][];
+        private int[] termSizes = new int[1024];
+        private int termCount;
+        private int documents;
+        private int[] lengths = new int[1024];
+        private int[] answerOf = new int[1024];
+        private final Map<String, Integer> answerIds = new HashMap<>();
+        private int[] answerStarts = new int[1025];
+        private byte[] answerBytes = new byte[16384];
+        private int answerBytesSize;
+        private int[] documentTerms = new int[64];
+        
+        /**
+         * Adds a document: the text to search and the answer to give when
+         * it matches best.
+         */
+        Builder add(String text, String answer) {
+            int document = documents++;
+            if (document == lengths.length) {
+                lengths = Arrays.copyOf(lengths, document * 2);
+                answerOf = Arrays.copyOf(answerOf, document * 2);
+            }
+            answerOf[document] = answerId(answer);
+            
+            List<String> words = tokenize(text);
+            lengths[document] = words.size();
+            if (documentTerms.length < words.size()) {
+                documentTerms = new int[words.size()];
+            }
+            int count = 0;
+            for (String word : words) {
+                documentTerms[count++] = termId(word);
+            }
+            // Equal terms next to each other, to count each term's frequency in one pass
+            Arrays.sort(documentTerms, 0, count);
+            for (int i = 0; i < count; ) {
+                int term = documentTerms[i];
+                int frequency = 1;
+                while (i + frequency < count && documentTerms[i + frequency] == term) {
+                    frequency++;
+                }
+                addPosting(term, document, frequency);
+                i += frequency;
+            }
+            return this;
+        }
+        
+        private int termId(String word) {
+            Integer id = terms.get(word);
+            if (id != null) {
+                return id;
+            }
+            if (termCount == termPostings.length) {
+                termPostings = Arrays.copyOf(termPostings, termCount * 2);
+                termSizes = Arrays.copyOf(termSizes, termCount * 2);
+            }
+            terms.put(word, termCount);
+            termPostings[termCount] = new int[4];
+            return termCount++;
+        }
+        
+        private void addPosting(int term, int document, int frequency) {
+            int[] pairs = termPostings[term];
+            int size = termSizes[term];
+            if (size == pairs.length) {
+                pairs = Arrays.copyOf(pairs, size * 2);
+                termPostings[term] = pairs;
+            }
+            pairs[size] = document;
+            pairs[size + 1] = frequency;
+            termSizes[term] = size + 2;
+        }
+        
+        private int answerId(String answer) {
+            Integer id = answerIds.get(answer);
+            if (id != null) {
+                return id;
+            }
+            int next = answerIds.size();
+            answerIds.put(answer, next);
+            byte[] bytes = answer.getBytes(StandardCharsets.UTF_8);
+            if (answerBytesSize + bytes.length > answerBytes.length) {
+                answerBytes = Arrays.copyOf(answerBytes, Math.max(answerBytes.length * 2, answerBytesSize + bytes.length));
+            }
+            System.arraycopy(bytes, 0, answerBytes, answerBytesSize, bytes.length);
+            answerBytesSize += bytes.length;
+            if (next + 2 > answerStarts.length) {
+                answerStarts = Arrays.copyOf(answerStarts, answerStarts.length * 2);
+            }
+            answerStarts[next + 1] = answerBytesSize;
+            return next;
+        }
+        
+        /**
+         * Builds the index. The builder cannot be used afterwards.
+         */
+        KnowledgeBase build(int cacheSize, double minScore) {
+            termPostings = Arrays.copyOf(termPostings, termCount);
+            termSizes = Arrays.copyOf(termSizes, termCount);
+            return new KnowledgeBase(this, terms, cacheSize, minScore);
+        }
+    }
+    
+    /**
+     * A growable byte array for writing varints.
+     */
+    private static final class ByteWriter {
+        byte[] bytes = new byte[65536];
+        int size;
+        
+        void writeVarint(int value) {
+            if (size + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+        
+        byte[] toArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package socket_bot;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds with a bounded relative error,
+ * in the style of HdrHistogram.
+ *
+ * Values below 64ns get a bucket each. Above that, every power of two is
+ * split into 32 equal buckets, so a recorded value is off by at most 1/32
+ * (about 3%) however large it is, and the whole range up to about 18
+ * minutes fits in a little over a thousand buckets. Larger values are
+ * counted in the last bucket.
+ *
+ * Recording is one increment on an {@link AtomicLongArray}. The counts are
+ * striped by thread, so handler threads recording at the same time rarely
+ * touch the same array; readers add the stripes up.
+ *
+ * @version 1.0
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final long MAX_VALUE = 1L << 40;
+    private static final int BUCKETS = bucketOf(MAX_VALUE) + 1;
+    private static final int MAX_STRIPES = 64;
+    
+    private final AtomicLongArray[] stripes;
+    private final int stripeMask;
+    
+    LatencyHistogram() {
+        int stripeCount = Integer.highestOneBit(
+                Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors() * 2 - 1));
+        stripes = new AtomicLongArray[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+        stripeMask = stripeCount - 1;
+    }
+    
+    void record(long nanos) {
+        int stripe = (int) Thread.currentThread().getId() & stripeMask;
+        stripes[stripe].incrementAndGet(bucketOf(Math.max(0, Math.min(nanos, MAX_VALUE))));
+    }
+    
+    private static int bucketOf(long value) {
+        if (value < 2L << SUB_BUCKET_BITS) {
+            return (int) value;
+        }
+        // Keep the top SUB_BUCKET_BITS + 1 bits of the value
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+    
+    /**
+     * The largest value that falls into the given bucket.
+     */
+    private static long highestValueIn(int bucket) {
+        if (bucket < 2 << SUB_BUCKET_BITS) {
+            return bucket;
+        }
+        int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+        long mantissa = bucket - ((long) shift << SUB_BUCKET_BITS);
+        return ((mantissa + 1) << shift) - 1;
+    }
+    
+    /**
+     * Adds up the stripes. Values recorded while this runs may or may not
+     * be included.
+     */
+    Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += stripe.get(i);
+            }
+        }
+        return new Snapshot(counts);
+    }
+    
+    /**
+     * The histogram's counts at one point in time.
+     */
+    static final class Snapshot {
+        private final long[] counts;
+        private final long total;
+        
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            long sum = 0;
+            for (long count : counts) {
+                sum += count;
+            }
+            this.total = sum;
+        }
+        
+        long getCount() {
+            return total;
+        }
+        
+        /**
+         * The value below which the given fraction of recorded values fall,
+         * e.g. {@code valueAt(0.99)} for the 99th percentile. Zero when
+         * nothing has been recorded.
+         */
+        long valueAt(double quantile) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestValueIn(i);
+                }
+            }
+            return highestValueIn(counts.length - 1);
+        }
+        
+        long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return highestValueIn(i);
+                }
+            }
+            return 0;
+        }
+    }
+}
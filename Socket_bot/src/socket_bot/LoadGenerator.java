@@ -0,0 +1,391 @@
+package socket_bot;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Command line load generator for {@link BotServer}, built on
+ * {@link BotClient}. It opens a number of concurrent sessions, has each of
+ * them replay a message mix for a while and reports throughput and
+ * latency percentiles.
+ *
+ * Two load models are supported:
+ * - closed loop: every session sends its next message as soon as the
+ *   previous reply arrives, or at its next scheduled time when a rate is
+ *   given, whichever is later;
+ * - open loop: messages are sent on a fixed schedule at the given rate
+ *   whether or not earlier replies have arrived.
+ *
+ * When there is a schedule, latency is measured from the time a message
+ * was due rather than from when it was actually sent. A stalled server
+ * then shows up in the percentiles instead of silently holding back the
+ * messages that would have seen the stall (coordinated omission). The
+ * latency from the actual send is reported as well, for comparison.
+ *
+ * Options are given as {@code --key=value}:
+ * - {@code --host=localhost}, {@code --port=5000}
+ * - {@code --sessions=100}
+ * - {@code --duration-s=10}
+ * - {@code --loop=closed|open}
+ * - {@code --rate=1000}, messages per second over all sessions; required
+ *   for the open loop, optional for the closed one
+ * - {@code --mix=hello|weather|What time is it?}, the messages each session
+ *   cycles through; repeat a message to send it more often
+ * - {@code --protocol=line|framed}
+ * - {@code --embedded=true} starts a server in this JVM on the given port
+ *   first, so nothing else needs to be running; any {@link ServerConfig}
+ *   option can be added as {@code --server-<option>=value}
+ *
+ * @version 1.0
+ */
+public class LoadGenerator {
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    
+    /**
+     * How sessions decide when to send their next message.
+     */
+    public enum Loop {
+        CLOSED,
+        OPEN
+    }
+    
+    private String host = "localhost";
+    private int port = 5000;
+    private int sessions = 100;
+    private long durationSeconds = 10;
+    private Loop loop = Loop.CLOSED;
+    private double rate;
+    private String[] mix = {"hello", "weather", "What time is it?"};
+    private BotClient.Protocol protocol = BotClient.Protocol.LINE;
+    
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram serviceLatency = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder answered = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    
+    public LoadGenerator setHost(String host) {
+        this.host = host;
+        return this;
+    }
+    
+    public LoadGenerator setPort(int port) {
+        this.port = port;
+        return this;
+    }
+    
+    public LoadGenerator setSessions(int sessions) {
+        if (sessions < 1) {
+            throw new IllegalArgumentException("sessions must be at least 1");
+        }
+        this.sessions = sessions;
+        return this;
+    }
+    
+    public LoadGenerator setDurationSeconds(long durationSeconds) {
+        if (durationSeconds < 1) {
+            throw new IllegalArgumentException("durationSeconds must be at least 1");
+        }
+        this.durationSeconds = durationSeconds;
+        return this;
+    }
+    
+    public LoadGenerator setLoop(Loop loop) {
+        this.loop = loop;
+        return this;
+    }
+    
+    /**
+     * Messages per second over all sessions. Zero, the default, lets a
+     * closed loop send as fast as replies come back.
+     */
+    public LoadGenerator setRate(double rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("rate must not be negative");
+        }
+        this.rate = rate;
+        return this;
+    }
+    
+    public LoadGenerator setMix(String... mix) {
+        if (mix.length == 0) {
+            throw new IllegalArgumentException("The mix needs at least one message");
+        }
+        this.mix = mix.clone();
+        return this;
+    }
+    
+    public LoadGenerator setProtocol(BotClient.Protocol protocol) {
+        this.protocol = protocol;
+        return this;
+    }
+    
+    /**
+     * Runs the load and returns the results. Sessions that fail to connect
+     * count as one error each and send nothing.
+     */
+    public Report run() throws InterruptedException {
+        if (loop == Loop.OPEN && rate == 0) {
+            throw new IllegalStateException("An open loop needs a rate");
+        }
+        ExecutorService executor = newSessionExecutor();
+        CountDownLatch connected = new CountDownLatch(sessions);
+        CountDownLatch finished = new CountDownLatch(sessions);
+        long[] window = new long[2];
+        CountDownLatch started = new CountDownLatch(1);
+        
+        for (int i = 0; i < sessions; i++) {
+            int session = i;
+            executor.execute(() -> {
+                BotClient client = new BotClient(host, port);
+                client.setProtocol(protocol);
+                try {
+                    client.connect();
+                } catch (IOException e) {
+                    errors.increment();
+                    client = null;
+                }
+                connected.countDown();
+                try {
+                    started.await();
+                    if (client != null) {
+                        runSession(client, session, window[0], window[1]);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    if (client != null) {
+                        client.disconnect();
+                    }
+                    finished.countDown();
+                }
+            });
+        }
+        
+        connected.await();
+        window[0] = System.nanoTime();
+        window[1] = window[0] + TimeUnit.SECONDS.toNanos(durationSeconds);
+        started.countDown();
+        finished.await();
+        long elapsed = System.nanoTime() - window[0];
+        executor.shutdown();
+        return new Report(elapsed);
+    }
+    
+    private void runSession(BotClient client, int session, long start, long end) throws InterruptedException {
+        // Spread the sessions' schedules evenly over one interval
+        long interval = rate == 0 ? 0 : (long) (sessions * 1e9 / rate);
+        long due = start + interval * session / sessions;
+        Queue<CompletableFuture<String>> inFlight = new ArrayDeque<>();
+        
+        for (int next = session % mix.length; due < end; next = (next + 1) % mix.length) {
+            if (interval > 0) {
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            long sentAt = System.nanoTime();
+            if (sentAt >= end) {
+                break;
+            }
+            long measuredFrom = interval > 0 ? due : sentAt;
+            sent.increment();
+            CompletableFuture<String> reply = client.sendAsync(mix[next])
+                    .whenComplete((text, failure) -> record(measuredFrom, sentAt, failure));
+            if (loop == Loop.CLOSED) {
+                await(reply);
+            } else {
+                inFlight.add(reply);
+                while (!inFlight.isEmpty() && inFlight.peek().isDone()) {
+                    inFlight.poll();
+                }
+            }
+            due = interval > 0 ? due + interval : System.nanoTime();
+        }
+        
+        long drainDeadline = System.nanoTime() + DRAIN_TIMEOUT_NANOS;
+        for (CompletableFuture<String> reply : inFlight) {
+            long remaining = drainDeadline - System.nanoTime();
+            try {
+                reply.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                // Counted by record(), or never answered
+            }
+        }
+    }
+    
+    private static void await(CompletableFuture<String> reply) throws InterruptedException {
+        try {
+            reply.get();
+        } catch (ExecutionException e) {
+            // Counted by record()
+        }
+    }
+    
+    private void record(long measuredFrom, long sentAt, Throwable failure) {
+        if (failure != null) {
+            errors.increment();
+            return;
+        }
+        long now = System.nanoTime();
+        answered.increment();
+        latency.record(now - measuredFrom);
+        serviceLatency.record(now - sentAt);
+    }
+    
+    /**
+     * Runs every session on a virtual thread when the JVM has them (looked
+     * up reflectively so the project still builds for Java 8), and on a
+     * cached pool of daemon threads otherwise.
+     */
+    private static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "load-session-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+    
+    /**
+     * The outcome of one {@link #run()}.
+     */
+    public final class Report {
+        private final long elapsedNanos;
+        private final LatencyHistogram.Snapshot latencies = latency.snapshot();
+        private final LatencyHistogram.Snapshot serviceLatencies = serviceLatency.snapshot();
+        
+        private Report(long elapsedNanos) {
+            this.elapsedNanos = elapsedNanos;
+        }
+        
+        public long getSent() {
+            return sent.sum();
+        }
+        
+        public long getAnswered() {
+            return answered.sum();
+        }
+        
+        public long getErrors() {
+            return errors.sum();
+        }
+        
+        public double getThroughput() {
+            return getAnswered() * 1e9 / elapsedNanos;
+        }
+        
+        /**
+         * Latency at the given quantile, e.g. 0.99, in microseconds. With a
+         * schedule it is measured from when each message was due.
+         */
+        public double getLatencyMicros(double quantile) {
+            return latencies.valueAt(quantile) / 1e3;
+        }
+        
+        /**
+         * Latency measured from when each message was actually sent.
+         */
+        public double getServiceLatencyMicros(double quantile) {
+            return serviceLatencies.valueAt(quantile) / 1e3;
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("%d sessions, %s loop%s, %.1f s, mix %s%n",
+                    sessions, loop.name().toLowerCase(Locale.ROOT),
+                    rate == 0 ? "" : String.format(" at %.0f msg/s", rate),
+                    elapsedNanos / 1e9, Arrays.toString(mix)));
+            report.append(String.format("sent %d, answered %d, errors %d%n",
+                    getSent(), getAnswered(), getErrors()));
+            report.append(String.format("throughput %.1f msg/s%n", getThroughput()));
+            appendPercentiles(report, rate == 0 ? "latency (us)" : "latency from schedule (us)", latencies);
+            if (rate != 0) {
+                appendPercentiles(report, "latency from send (us)", serviceLatencies);
+            }
+            return report.toString();
+        }
+        
+        private void appendPercentiles(StringBuilder report, String title, LatencyHistogram.Snapshot snapshot) {
+            report.append(String.format("%-27s p50 %.0f  p90 %.0f  p99 %.0f  p99.9 %.0f  max %.0f%n", title,
+                    snapshot.valueAt(0.5) / 1e3, snapshot.valueAt(0.9) / 1e3, snapshot.valueAt(0.99) / 1e3,
+                    snapshot.valueAt(0.999) / 1e3, snapshot.getMax() / 1e3));
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        List<String> serverArgs = new ArrayList<>();
+        boolean embedded = false;
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("Expected --key=value but got: " + arg);
+            }
+            String key = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (key.startsWith("server-")) {
+                serverArgs.add("--" + key.substring("server-".length()) + "=" + value);
+                continue;
+            }
+            switch (key) {
+                case "host":
+                    generator.setHost(value);
+                    break;
+                case "port":
+                    generator.setPort(Integer.parseInt(value));
+                    break;
+                case "sessions":
+                    generator.setSessions(Integer.parseInt(value));
+                    break;
+                case "duration-s":
+                    generator.setDurationSeconds(Long.parseLong(value));
+                    break;
+                case "loop":
+                    generator.setLoop(Loop.valueOf(value.toUpperCase(Locale.ROOT)));
+                    break;
+                case "rate":
+                    generator.setRate(Double.parseDouble(value));
+                    break;
+                case "mix":
+                    generator.setMix(value.split("\\|"));
+                    break;
+                case "protocol":
+                    generator.setProtocol(BotClient.Protocol.valueOf(value.toUpperCase(Locale.ROOT)));
+                    break;
+                case "embedded":
+                    embedded = Boolean.parseBoolean(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: --" + key);
+            }
+        }
+        
+        BotServer server = null;
+        if (embedded) {
+            ServerConfig config = ServerConfig.fromArgs(serverArgs.toArray(new String[0]))
+                    .setPort(generator.port)
+                    .setMaxConnections(Math.max(generator.sessions, new ServerConfig().getMaxConnections()));
+            server = new BotServer(config);
+            server.start();
+            generator.setPort(server.getLocalPort());
+        }
+        
+        System.out.print(generator.run());
+        if (server != null) {
+            System.out.println("server: " + server.getMetrics());
+            server.stop();
+            server.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package socket_bot;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when the server is overloaded and should answer new messages
+ * with a cheap "busy" reply instead of processing them.
+ *
+ * The server counts as overloaded once more messages are in processing at
+ * once than allowed, or once the average processing time of recent
+ * messages is above a limit. It stays so until both are down to half their
+ * limit, so it does not flap around the threshold. While shedding, one
+ * message every few milliseconds is still processed, to find out whether
+ * the processing time has come down.
+ *
+ * The counters are atomic and the average is updated without a lock; a
+ * lost update to the average under contention is of no consequence.
+ *
+ * @version 1.0
+ */
+final class LoadShedder {
+    private static final long PROBE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    /** Weight of the newest message in the average, as a shift: 1/16. */
+    private static final int AVERAGE_SHIFT = 4;
+    
+    private final int maxInFlight;
+    private final long maxLatencyNanos;
+    private final BotMetrics metrics;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong lastProbe = new AtomicLong(System.nanoTime());
+    private volatile long averageNanos;
+    private volatile boolean shedding;
+    
+    /**
+     * @param maxInFlight messages in processing at once, or 0 for no limit
+     * @param maxLatencyMicros average processing time, or 0 for no limit
+     */
+    LoadShedder(int maxInFlight, long maxLatencyMicros, BotMetrics metrics) {
+        this.maxInFlight = maxInFlight;
+        this.maxLatencyNanos = TimeUnit.MICROSECONDS.toNanos(maxLatencyMicros);
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Asks to process a message. If this returns true, {@link #exit} must
+     * be called once the message is processed.
+     */
+    boolean tryEnter() {
+        int count = inFlight.incrementAndGet();
+        if (shedding) {
+            long now = System.nanoTime();
+            long last = lastProbe.get();
+            if (!recovered(count) && (now - last < PROBE_INTERVAL_NANOS || !lastProbe.compareAndSet(last, now))) {
+                inFlight.decrementAndGet();
+                return false;
+            }
+        } else if (maxInFlight > 0 && count > maxInFlight) {
+            startShedding();
+            inFlight.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Records that a message admitted by {@link #tryEnter} was processed.
+     */
+    void exit(long processingNanos) {
+        int count = inFlight.decrementAndGet();
+        if (maxLatencyNanos > 0) {
+            long average = averageNanos;
+            average += (processingNanos - average) >> AVERAGE_SHIFT;
+            averageNanos = average;
+            if (!shedding && average > maxLatencyNanos) {
+                startShedding();
+                return;
+            }
+        }
+        if (shedding && recovered(count)) {
+            shedding = false;
+        }
+    }
+    
+    boolean isShedding() {
+        return shedding;
+    }
+    
+    private boolean recovered(int count) {
+        return (maxInFlight == 0 || count <= maxInFlight / 2)
+                && (maxLatencyNanos == 0 || averageNanos <= maxLatencyNanos / 2);
+    }
+    
+    private void startShedding() {
+        if (!shedding) {
+            shedding = true;
+            metrics.overloadStarted();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package socket_bot;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded map that evicts its least recently used entries.
+ *
+ * The entries are split into stripes by key hash, each an access ordered
+ * {@link LinkedHashMap} behind its own lock, so threads looking up
+ * different keys rarely wait for each other. Each stripe evicts on its
+ * own, which makes the eviction order approximate across stripes but keeps
+ * the total size within the capacity. Hits, misses and evictions are
+ * counted for monitoring.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ * @version 1.0
+ */
+final class LruCache<K, V> {
+    private static final int MAX_STRIPES = 16;
+    
+    private final Stripe<K, V>[] stripes;
+    private final int stripeMask;
+    private final int capacity;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    
+    LruCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.capacity = capacity;
+        int stripeCount = Integer.highestOneBit(Math.min(MAX_STRIPES, capacity));
+        stripes = newStripes(stripeCount);
+        for (int i = 0; i < stripeCount; i++) {
+            // Rounded down, so the stripes never add up to more than the capacity
+            stripes[i] = new Stripe<>(capacity / stripeCount, evictions);
+        }
+        stripeMask = stripeCount - 1;
+    }
+    
+    /**
+     * The value cached for a key, marking it as recently used, or
+     * {@code null} if there is none.
+     */
+    V get(K key) {
+        Stripe<K, V> stripe = stripeOf(key);
+        V value;
+        synchronized (stripe) {
+            value = stripe.get(key);
+        }
+        if (value != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return value;
+    }
+    
+    /**
+     * Caches a value, evicting the stripe's least recently used entry if
+     * the stripe is full.
+     */
+    void put(K key, V value) {
+        Stripe<K, V> stripe = stripeOf(key);
+        synchronized (stripe) {
+            stripe.put(key, value);
+        }
+    }
+    
+    int size() {
+        int size = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+    
+    int getCapacity() {
+        return capacity;
+    }
+    
+    long getHits() {
+        return hits.sum();
+    }
+    
+    long getMisses() {
+        return misses.sum();
+    }
+    
+    long getEvictions() {
+        return evictions.sum();
+    }
+    
+    /**
+     * Share of lookups that found a value, or 0 before any lookup.
+     */
+    double getHitRate() {
+        long hitCount = hits.sum();
+        long lookups = hitCount + misses.sum();
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <K, V> Stripe<K, V>[] newStripes(int count) {
+        return (Stripe<K, V>[]) new Stripe<?, ?>[count];
+    }
+    
+    private Stripe<K, V> stripeOf(K key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        // The high bits, which the stripe's own table does not index by
+        return stripes[(h >>> 16) & stripeMask];
+    }
+    
+    private static final class Stripe<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+        
+        private final int capacity;
+        private final LongAdder evictions;
+        
+        Stripe(int capacity, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
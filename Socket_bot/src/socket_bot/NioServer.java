@@ -0,0 +1,773 @@
+package socket_bot;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.*;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking server mode for {@link BotServer}.
+ * One acceptor thread hands new connections to a fixed pool of reactor
+ * threads, each owning a {@link Selector}. Reactors read newline-framed
+ * requests, generate the bot replies and write them back without ever
+ * blocking, so thousands of idle connections cost a few buffers each
+ * instead of a thread stack each.
+ *
+ * The wire protocol is the same one {@link BotClient} speaks: one UTF-8
+ * line per request and one line per reply, or length-prefixed frames once
+ * a client has upgraded the connection (see {@link FrameCodec}). Replies
+ * are encoded straight into pooled direct buffers and written with
+ * gathering writes, once per read, or sooner when the oldest of them has
+ * waited out the flush deadline. Room messages (see {@link ChatRooms}) are written from
+ * the direct buffer they were encoded into once for every member.
+ *
+ * A reply worked out by an expensive intent handler (see
+ * {@link IntentHandler}) is waited for off the reactor: the connection
+ * stops reading, keeps what it had already read for later, and picks up
+ * again once the reply is in, so replies still go out in order.
+ *
+ * @version 1.0
+ */
+class NioServer {
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_MESSAGE_LENGTH = FrameCodec.MAX_FRAME_BYTES;
+    private static final int WRITE_BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED_BUFFERS = 1024;
+    private static final int MAX_GATHER = 16;
+    
+    private final BufferPool buffers = new BufferPool(WRITE_BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    private final BotServer bot;
+    private final ServerConfig config;
+    private final long flushDeadlineNanos;
+    private ServerSocketChannel serverChannel;
+    private Reactor[] reactors;
+    
+    NioServer(BotServer bot, ServerConfig config) {
+        this.bot = bot;
+        this.config = config;
+        this.flushDeadlineNanos = TimeUnit.MICROSECONDS.toNanos(config.getFlushDeadlineMicros());
+    }
+    
+    /**
+     * Binds the listening socket and starts the reactors.
+     *
+     * @return the port the server is listening on
+     */
+    int bind() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        bot.bind(serverChannel.socket());
+        int port = serverChannel.socket().getLocalPort();
+        
+        reactors = new Reactor[config.getReactorThreads()];
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor("bot-reactor-" + i);
+            reactors[i].start();
+        }
+        System.out.println("Bot Server started on port " + port
+                + " (nio, " + config.getReactorThreads() + " reactors)");
+        return port;
+    }
+    
+    /**
+     * Accepts connections on the calling thread until the listening socket
+     * is closed.
+     */
+    void acceptLoop() throws IOException, InterruptedException {
+        int next = 0;
+        while (true) {
+            bot.acquireConnectionSlot();
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                bot.releaseConnectionSlot();
+                throw e;
+            }
+            try {
+                bot.configure(channel.socket());
+                channel.configureBlocking(false);
+            } catch (IOException e) {
+                // Say a client that reset right away; only its connection is lost
+                System.out.println("Handler Error: " + e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+                bot.releaseConnectionSlot();
+                continue;
+            }
+            bot.getMetrics().connectionOpened();
+            // Created here rather than on the reactor to keep accept order
+            reactors[next].register(new Connection(reactors[next], channel, bot.newResponseSelector()));
+            next = (next + 1) % reactors.length;
+        }
+    }
+    
+    /**
+     * Closes the listening socket, which ends the accept loop.
+     */
+    void close() throws IOException {
+        serverChannel.close();
+    }
+    
+    /**
+     * Has every reactor answer what its connections have already sent and
+     * close them once the replies are written.
+     */
+    void drain() {
+        moveReactorsTo(Phase.DRAINING);
+    }
+    
+    /**
+     * Has every reactor close its connections at once.
+     */
+    void closeAll() {
+        moveReactorsTo(Phase.CLOSING);
+    }
+    
+    /**
+     * Has every reactor close its connections and exit.
+     */
+    void stopReactors() {
+        moveReactorsTo(Phase.STOPPED);
+    }
+    
+    private void moveReactorsTo(Phase phase) {
+        for (Reactor reactor : reactors) {
+            reactor.moveTo(phase);
+        }
+    }
+    
+    /**
+     * How far a reactor is through the server's shutdown.
+     */
+    private enum Phase {
+        RUNNING, DRAINING, CLOSING, STOPPED
+    }
+    
+    /**
+     * An event loop thread serving every connection registered with it.
+     */
+    private class Reactor extends Thread {
+        private final Selector selector;
+        private final Queue<Connection> pending = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> expired = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> roomMessages = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> repliesReady = new ConcurrentLinkedQueue<>();
+        // Shared by all connections of this reactor, which only run on it
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+        private volatile Phase requested = Phase.RUNNING;
+        // The phase last applied to every connection, only read on this thread
+        private Phase phase = Phase.RUNNING;
+        
+        Reactor(String name) throws IOException {
+            super(name);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+        
+        void register(Connection connection) {
+            pending.add(connection);
+            selector.wakeup();
+        }
+        
+        /**
+         * Asks the reactor to close a connection the reaper found idle.
+         */
+        void expire(Connection connection) {
+            expired.add(connection);
+            selector.wakeup();
+        }
+        
+        /**
+         * Asks the reactor to write the room messages queued for a
+         * connection.
+         */
+        void roomMessagesQueued(Connection connection) {
+            roomMessages.add(connection);
+            selector.wakeup();
+        }
+        
+        /**
+         * Asks the reactor to send a connection the reply it was waiting
+         * for and go on with its input.
+         */
+        void replyReady(Connection connection) {
+            repliesReady.add(connection);
+            selector.wakeup();
+        }
+        
+        /**
+         * Asks the reactor to apply a shutdown phase to its connections.
+         */
+        void moveTo(Phase phase) {
+            requested = phase;
+            selector.wakeup();
+        }
+        
+        public void run() {
+            while (phase != Phase.STOPPED) {
+                try {
+                    selector.select();
+                    registerPending();
+                    
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (IOException | CancelledKeyException e) {
+                            connection.close();
+                        } catch (RuntimeException e) {
+                            failed(connection, e);
+                        }
+                    }
+                    writeRoomMessages();
+                    resumeReplied();
+                    closeExpired();
+                    if (requested != phase) {
+                        phase = requested;
+                        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                            applyPhase((Connection) key.attachment());
+                        }
+                    }
+                } catch (IOException e) {
+                    System.out.println("Reactor Error: " + e.getMessage());
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.out.println("Reactor Error: " + e.getMessage());
+            }
+        }
+        
+        private void applyPhase(Connection connection) {
+            if (phase == Phase.RUNNING || !connection.isOpen()) {
+                return;
+            }
+            if (phase == Phase.DRAINING) {
+                try {
+                    connection.drain();
+                } catch (IOException | CancelledKeyException e) {
+                    connection.close();
+                }
+            } else {
+                connection.close();
+            }
+        }
+        
+        private void writeRoomMessages() {
+            Connection connection;
+            while ((connection = roomMessages.poll()) != null) {
+                if (!connection.isOpen()) {
+                    continue;
+                }
+                try {
+                    connection.flush();
+                } catch (IOException | CancelledKeyException e) {
+                    connection.close();
+                } catch (RuntimeException e) {
+                    failed(connection, e);
+                }
+            }
+        }
+        
+        private void resumeReplied() {
+            Connection connection;
+            while ((connection = repliesReady.poll()) != null) {
+                if (!connection.isOpen()) {
+                    continue;
+                }
+                try {
+                    connection.onReplyReady();
+                } catch (IOException | CancelledKeyException e) {
+                    connection.close();
+                } catch (RuntimeException e) {
+                    failed(connection, e);
+                }
+            }
+        }
+        
+        /**
+         * Closes a connection its handling failed on, leaving the reactor
+         * and its other connections running.
+         */
+        private void failed(Connection connection, RuntimeException e) {
+            System.out.println("Reactor Error: " + e);
+            connection.close();
+        }
+        
+        /**
+         * Runs after the ready keys, so a connection that just became
+         * active again is spared and handed back to the reaper.
+         */
+        private void closeExpired() {
+            IdleReaper reaper = bot.getIdleReaper();
+            Connection connection;
+            while ((connection = expired.poll()) != null) {
+                if (!connection.isOpen()) {
+                    continue;
+                }
+                if (reaper.isExpired(connection)) {
+                    bot.getMetrics().connectionReaped();
+                    connection.close();
+                } else {
+                    reaper.register(connection);
+                }
+            }
+        }
+        
+        private void registerPending() {
+            Connection connection;
+            while ((connection = pending.poll()) != null) {
+                try {
+                    connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+                    if (bot.getIdleReaper() != null) {
+                        bot.getIdleReaper().register(connection);
+                    }
+                    // Accepted just before the server stopped
+                    applyPhase(connection);
+                } catch (IOException e) {
+                    System.out.println("Handler Error: " + e.getMessage());
+                    try {
+                        connection.channel.close();
+                    } catch (IOException ignored) {
+                    }
+                    bot.getMetrics().connectionClosed(0);
+                    bot.closeSession(connection.member);
+                    bot.releaseConnectionSlot();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Per-connection state: the partial message read so far and the replies
+     * that could not be written yet. Only ever touched by its reactor.
+     */
+    private class Connection extends IdleReaper.Entry {
+        private final Reactor reactor;
+        private final SocketChannel channel;
+        private final ChatRooms.Member member;
+        private final RateLimiter.Client rateLimitClient;
+        private SelectionKey key;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final Deque<ByteBuffer> outbound = new ArrayDeque<>();
+        private final long openedAt = System.nanoTime();
+        private ByteBuffer filling;
+        private long unflushedSince = -1;
+        private byte[] partial = new byte[128];
+        private int partialLength;
+        private int frameLength = -1;
+        private boolean framed;
+        private boolean firstLine = true;
+        private boolean inputClosed;
+        // The reply being worked out off the reactor, and the messages read meanwhile
+        private CompletableFuture<String> awaiting;
+        private final Deque<String> deferred = new ArrayDeque<>();
+        
+        Connection(Reactor reactor, SocketChannel channel, ResponseSelector selector) {
+            this.reactor = reactor;
+            this.channel = channel;
+            this.member = bot.newRoomMember(selector, () -> reactor.roomMessagesQueued(this));
+            this.rateLimitClient = bot.newRateLimitClient(channel.socket().getInetAddress());
+        }
+        
+        void onReadable() throws IOException {
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                inputClosed = true;
+            } else if (read > 0) {
+                touch();
+            }
+            
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                if (framed) {
+                    readFrames();
+                } else {
+                    readLines();
+                }
+            }
+            readBuffer.clear();
+            if (inputClosed && !framed && partialLength > 0) {
+                handleLine(partial, 0, partialLength);
+                partialLength = 0;
+            }
+            
+            flush();
+        }
+        
+        void onWritable() throws IOException {
+            flush();
+        }
+        
+        /**
+         * Sends the reply that was being waited for, then answers the
+         * messages read meanwhile, until one has to be waited for again.
+         */
+        void onReplyReady() throws IOException {
+            String reply = awaiting.join();
+            awaiting = null;
+            queueReply(reply);
+            while (awaiting == null && !deferred.isEmpty()) {
+                handleMessage(deferred.poll());
+            }
+            flush();
+        }
+        
+        /**
+         * Answers whatever the client sent before the server stopped, then
+         * treats the input as closed so the connection closes once the
+         * replies are written.
+         */
+        void drain() throws IOException {
+            if (!inputClosed) {
+                onReadable();
+            }
+            if (!channel.isOpen()) {
+                return;
+            }
+            inputClosed = true;
+            if (!framed && partialLength > 0) {
+                handleLine(partial, 0, partialLength);
+                partialLength = 0;
+            }
+            flush();
+        }
+        
+        @Override
+        boolean isOpen() {
+            return channel.isOpen();
+        }
+        
+        @Override
+        void expire() {
+            reactor.expire(this);
+        }
+        
+        /**
+         * Handles every complete line in the read buffer and keeps the
+         * trailing partial one. Stops early if the connection upgrades to
+         * frames, leaving the rest of the buffer to {@link #readFrames()}.
+         */
+        private void readLines() throws IOException {
+            byte[] bytes = readBuffer.array();
+            int start = readBuffer.position();
+            int end = readBuffer.limit();
+            for (int i = start; i < end; i++) {
+                if (bytes[i] != '\n') {
+                    continue;
+                }
+                readBuffer.position(i + 1);
+                if (partialLength == 0) {
+                    handleLine(bytes, start, i - start);
+                } else {
+                    appendPartial(bytes, start, i - start);
+                    handleLine(partial, 0, partialLength);
+                    partialLength = 0;
+                }
+                if (framed) {
+                    return;
+                }
+                start = i + 1;
+            }
+            appendPartial(bytes, start, end - start);
+            readBuffer.position(end);
+        }
+        
+        /**
+         * Handles every complete frame in the read buffer. Frames that are
+         * wholly inside the buffer are decoded in place; only frames split
+         * across reads are copied into the partial buffer.
+         */
+        private void readFrames() throws IOException {
+            while (readBuffer.hasRemaining()) {
+                if (frameLength < 0) {
+                    if (partialLength == 0 && readBuffer.remaining() >= FrameCodec.HEADER_BYTES) {
+                        frameLength = readBuffer.getInt();
+                    } else {
+                        int needed = FrameCodec.HEADER_BYTES - partialLength;
+                        int available = Math.min(needed, readBuffer.remaining());
+                        appendPartial(readBuffer.array(), readBuffer.position(), available);
+                        readBuffer.position(readBuffer.position() + available);
+                        if (partialLength < FrameCodec.HEADER_BYTES) {
+                            return;
+                        }
+                        frameLength = ByteBuffer.wrap(partial, 0, FrameCodec.HEADER_BYTES).getInt();
+                        partialLength = 0;
+                    }
+                    FrameCodec.checkLength(frameLength);
+                }
+                
+                if (partialLength == 0 && readBuffer.remaining() >= frameLength) {
+                    int position = readBuffer.position();
+                    readBuffer.position(position + frameLength);
+                    handleMessage(new String(readBuffer.array(), position, frameLength, StandardCharsets.UTF_8));
+                } else {
+                    int available = Math.min(frameLength - partialLength, readBuffer.remaining());
+                    appendPartial(readBuffer.array(), readBuffer.position(), available);
+                    readBuffer.position(readBuffer.position() + available);
+                    if (partialLength < frameLength) {
+                        return;
+                    }
+                    handleMessage(new String(partial, 0, frameLength, StandardCharsets.UTF_8));
+                    partialLength = 0;
+                }
+                frameLength = -1;
+            }
+        }
+        
+        private void appendPartial(byte[] bytes, int offset, int length) throws IOException {
+            if (partialLength + length > partial.length) {
+                if (partialLength + length > MAX_MESSAGE_LENGTH) {
+                    throw new IOException("Message too long");
+                }
+                partial = Arrays.copyOf(partial,
+                        Math.min(MAX_MESSAGE_LENGTH, Math.max(partial.length * 2, partialLength + length)));
+            }
+            System.arraycopy(bytes, offset, partial, partialLength, length);
+            partialLength += length;
+        }
+        
+        private void handleLine(byte[] bytes, int offset, int length) throws IOException {
+            if (length > 0 && bytes[offset + length - 1] == '\r') {
+                length--;
+            }
+            String input = new String(bytes, offset, length, StandardCharsets.UTF_8);
+            
+            if (firstLine) {
+                firstLine = false;
+                if (FrameCodec.UPGRADE_REQUEST.equals(input)) {
+                    queueReply(FrameCodec.UPGRADE_ACCEPTED);
+                    framed = true;
+                    return;
+                }
+            }
+            handleMessage(input);
+        }
+        
+        private void handleMessage(String input) throws IOException {
+            if (awaiting != null) {
+                deferred.add(input);
+                return;
+            }
+            CompletableFuture<String> reply = bot.handleMessageAsync(input, member, rateLimitClient);
+            if (reply.isDone()) {
+                queueReply(reply.join());
+                writeIfDue();
+                return;
+            }
+            awaiting = reply;
+            reply.thenRun(() -> reactor.replyReady(this));
+        }
+        
+        /**
+         * Encodes a reply, as a line or a frame, into the buffer currently
+         * being filled. Replies produced by the same read share buffers and
+         * go out together on the next flush.
+         */
+        private void queueReply(String reply) throws IOException {
+            if (filling == null) {
+                filling = buffers.acquire();
+            }
+            if (encodeInto(filling, reply)) {
+                return;
+            }
+            finishFilling();
+            filling = buffers.acquire();
+            if (encodeInto(filling, reply)) {
+                return;
+            }
+            
+            // Larger than a pooled buffer, or not encodable as is
+            byte[] payload = reply.getBytes(StandardCharsets.UTF_8);
+            if (payload.length > MAX_MESSAGE_LENGTH) {
+                throw new IOException("Reply too long");
+            }
+            ByteBuffer large = ByteBuffer.allocate(payload.length + FrameCodec.HEADER_BYTES);
+            if (framed) {
+                large.putInt(payload.length).put(payload);
+            } else {
+                large.put(payload).put((byte) '\n');
+            }
+            large.flip();
+            outbound.add(large);
+        }
+        
+        private boolean encodeInto(ByteBuffer buffer, String reply) {
+            int start = buffer.position();
+            if (framed) {
+                if (buffer.remaining() < FrameCodec.HEADER_BYTES) {
+                    return false;
+                }
+                buffer.position(start + FrameCodec.HEADER_BYTES);
+            }
+            CharsetEncoder encoder = reactor.encoder.reset();
+            CoderResult result = encoder.encode(CharBuffer.wrap(reply), buffer, true);
+            if (!result.isUnderflow() || !encoder.flush(buffer).isUnderflow()
+                    || (!framed && !buffer.hasRemaining())) {
+                buffer.position(start);
+                return false;
+            }
+            if (framed) {
+                buffer.putInt(start, buffer.position() - start - FrameCodec.HEADER_BYTES);
+            } else {
+                buffer.put((byte) '\n');
+            }
+            return true;
+        }
+        
+        /**
+         * Writes the replies queued so far, without waiting for the rest of
+         * the read to be answered, if the oldest of them has waited out the
+         * flush deadline. A deadline of zero writes every reply on its own.
+         */
+        private void writeIfDue() throws IOException {
+            long now = System.nanoTime();
+            if (unflushedSince < 0) {
+                unflushedSince = now;
+            }
+            if (now - unflushedSince >= flushDeadlineNanos) {
+                if (filling != null) {
+                    finishFilling();
+                }
+                writeOutbound();
+                unflushedSince = -1;
+            }
+        }
+        
+        private void finishFilling() {
+            if (filling.position() == 0) {
+                buffers.release(filling);
+            } else {
+                filling.flip();
+                outbound.add(filling);
+            }
+            filling = null;
+        }
+        
+        /**
+         * Writes the queued replies, then room messages for as long as the
+         * socket takes them. Room messages stay in the member's bounded
+         * queue while the socket is backed up, so a slow reader drops them
+         * there instead of piling them up here.
+         */
+        private void flush() throws IOException {
+            if (filling != null) {
+                finishFilling();
+            }
+            unflushedSince = -1;
+            
+            do {
+                if (!writeOutbound()) {
+                    return;
+                }
+            } while (takeRoomMessages());
+            
+            if (awaiting != null) {
+                // Read no more until the reply is in, so at most one read's worth of input is deferred
+                key.interestOps(0);
+            } else if (inputClosed) {
+                close();
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+        
+        /**
+         * Moves queued room messages to the outbound queue, a gather's worth
+         * at most.
+         *
+         * @return whether there were any
+         */
+        private boolean takeRoomMessages() {
+            while (true) {
+                int count = 0;
+                ChatRooms.Broadcast message;
+                while (count < MAX_GATHER && (message = member.poll()) != null) {
+                    outbound.add(message.buffer(framed));
+                    count++;
+                }
+                if (count > 0) {
+                    return true;
+                }
+                if (!member.finishWriting()) {
+                    return false;
+                }
+            }
+        }
+        
+        /**
+         * Writes as much of the outbound queue as the socket takes.
+         *
+         * @return whether all of it was written
+         */
+        private boolean writeOutbound() throws IOException {
+            ByteBuffer[] gather = reactor.gather;
+            while (!outbound.isEmpty()) {
+                int count = 0;
+                for (ByteBuffer buffer : outbound) {
+                    gather[count++] = buffer;
+                    if (count == gather.length) {
+                        break;
+                    }
+                }
+                channel.write(gather, 0, count);
+                boolean wroteAll = !gather[count - 1].hasRemaining();
+                Arrays.fill(gather, 0, count, null);
+                
+                while (!outbound.isEmpty() && !outbound.peek().hasRemaining()) {
+                    buffers.release(outbound.poll());
+                }
+                if (!wroteAll) {
+                    key.interestOps(inputClosed || awaiting != null
+                            ? SelectionKey.OP_WRITE
+                            : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        void close() {
+            if (!channel.isOpen()) {
+                return;
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("Error closing connection: " + e.getMessage());
+            }
+            if (filling != null) {
+                buffers.release(filling);
+                filling = null;
+            }
+            ByteBuffer buffer;
+            while ((buffer = outbound.poll()) != null) {
+                buffers.release(buffer);
+            }
+            bot.getMetrics().connectionClosed(System.nanoTime() - openedAt);
+            bot.closeSession(member);
+            bot.releaseConnectionSlot();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package socket_bot;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket rate limits on the messages of each connection and of each
+ * remote address.
+ *
+ * Each bucket is a single {@link AtomicLong} holding the time at which it
+ * will be full again (the generic cell rate algorithm), so taking a token
+ * is one compare-and-set and needs no lock or refill timer. A connection
+ * keeps its own bucket; address buckets live in a concurrent map and are
+ * dropped once full again, as a full bucket is the same as none.
+ *
+ * @version 1.0
+ */
+final class RateLimiter {
+    /** Address buckets are only swept once there are this many. */
+    private static final int SWEEP_SIZE = 1024;
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    
+    /**
+     * Which limit a message was over, if any.
+     */
+    enum Limit {
+        NONE, CONNECTION, ADDRESS
+    }
+    
+    private final Rate connectionRate;
+    private final Rate addressRate;
+    private final ConcurrentHashMap<InetAddress, AtomicLong> addressBuckets = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+    
+    /**
+     * @param connectionPerSecond the rate for each connection, or 0 for none
+     * @param addressPerSecond the rate for each remote address, or 0 for none
+     */
+    RateLimiter(double connectionPerSecond, int connectionBurst, double addressPerSecond, int addressBurst) {
+        connectionRate = connectionPerSecond > 0 ? new Rate(connectionPerSecond, connectionBurst) : null;
+        addressRate = addressPerSecond > 0 ? new Rate(addressPerSecond, addressBurst) : null;
+    }
+    
+    /**
+     * The rate limit state of a new connection from an address.
+     */
+    Client newClient(InetAddress address) {
+        return new Client(address);
+    }
+    
+    /**
+     * Takes a token for one message of a client, from its connection's
+     * bucket and then its address's. A message refused by the address
+     * limit has still used up its connection token.
+     */
+    Limit tryAcquire(Client client) {
+        long now = System.nanoTime();
+        if (connectionRate != null && !connectionRate.tryTake(client.bucket, now)) {
+            return Limit.CONNECTION;
+        }
+        if (addressRate != null && client.address != null) {
+            AtomicLong bucket = addressBuckets.get(client.address);
+            if (bucket == null) {
+                sweep(now);
+                AtomicLong fresh = new AtomicLong(now);
+                bucket = addressBuckets.putIfAbsent(client.address, fresh);
+                if (bucket == null) {
+                    bucket = fresh;
+                }
+            }
+            if (!addressRate.tryTake(bucket, now)) {
+                return Limit.ADDRESS;
+            }
+        }
+        return Limit.NONE;
+    }
+    
+    /**
+     * Number of addresses with a bucket that is not full.
+     */
+    int trackedAddresses() {
+        return addressBuckets.size();
+    }
+    
+    /**
+     * Drops the buckets that are full again. A message racing the removal
+     * may take its token from the dropped bucket and so get one extra,
+     * which is harmless.
+     */
+    private void sweep(long now) {
+        long last = lastSweep.get();
+        if (addressBuckets.size() < SWEEP_SIZE || now - last < SWEEP_INTERVAL_NANOS
+                || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        Iterator<AtomicLong> buckets = addressBuckets.values().iterator();
+        while (buckets.hasNext()) {
+            if (buckets.next().get() - now <= 0) {
+                buckets.remove();
+            }
+        }
+    }
+    
+    /**
+     * A connection's bucket and the address its messages count against.
+     */
+    static final class Client {
+        private final InetAddress address;
+        private final AtomicLong bucket = new AtomicLong(System.nanoTime());
+        
+        private Client(InetAddress address) {
+            this.address = address;
+        }
+    }
+    
+    private static final class Rate {
+        private final long intervalNanos;
+        private final long toleranceNanos;
+        
+        Rate(double perSecond, int burst) {
+            intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond));
+            toleranceNanos = intervalNanos * burst;
+        }
+        
+        /**
+         * Each message moves the time the bucket is full again one interval
+         * on; a message that would move it more than a burst's worth ahead
+         * of now is refused.
+         */
+        boolean tryTake(AtomicLong bucket, long now) {
+            while (true) {
+                long fullAt = bucket.get();
+                long next = (fullAt - now < 0 ? now : fullAt) + intervalNanos;
+                if (next - now > toleranceNanos) {
+                    return false;
+                }
+                if (bucket.compareAndSet(fullAt, next)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
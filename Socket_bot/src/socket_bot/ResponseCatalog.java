@@ -0,0 +1,352 @@
+package socket_bot;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The bot's keyword rules and canned replies, loaded from a text file.
+ *
+ * A catalog has a {@code [rules]} section with one keyword rule per line,
+ * in priority order, and one section per {@link Intent} listing its
+ * replies, one per line:
+ * <pre>
+ * [rules]
+ * WEATHER = weather | forecast
+ * WHY = why &amp; ?
+ *
+ * [WEATHER]
+ * The weather is quite pleasant today!
+ *
+ * [TIME]
+ * It's currently {time}
+ * </pre>
+ * Keywords are separated by {@code |}; keywords after {@code &} are
+ * required as well (see {@link IntentMatcher.Builder}). Replies may use the
+ * placeholders {@code {time}}, {@code {greeting}}, {@code {name}}, the
+ * name the user introduced themselves with, and {@code {, name}}, which is
+ * a comma and the name if the user gave one and nothing otherwise, to
+ * address them as in {@code {greeting}{, name}!}. Replies may start with a
+ * weight such as {@code 3|} to be picked three times as often as a reply
+ * of the default weight 1 (see {@link ServerConfig.Selection#WEIGHTED}).
+ * Lines starting with {@code #} are comments. Every intent needs at least
+ * one reply.
+ *
+ * A catalog is an immutable snapshot: its matcher is compiled and its
+ * replies are split around their placeholders once, when it is loaded.
+ * Reloading builds a new catalog rather than changing this one, so it can
+ * be shared between threads without locking.
+ *
+ * @version 1.0
+ */
+public final class ResponseCatalog {
+    /** The catalog bundled with the server. */
+    static final String DEFAULT_RESOURCE = "responses.catalog";
+    
+    private static final String RULES_SECTION = "rules";
+    
+    private final IntentMatcher<Intent> matcher;
+    private final Reply[][] replies;
+    private final int[][] cumulativeWeights;
+    private final int[] firstReplyBits;
+    private final int size;
+    
+    private ResponseCatalog(IntentMatcher<Intent> matcher, Reply[][] replies, int[][] cumulativeWeights) {
+        this.matcher = matcher;
+        this.replies = replies;
+        this.cumulativeWeights = cumulativeWeights;
+        this.firstReplyBits = new int[replies.length];
+        int total = 0;
+        for (int i = 0; i < replies.length; i++) {
+            firstReplyBits[i] = total;
+            total += replies[i].length;
+        }
+        this.size = total;
+    }
+    
+    /**
+     * Loads the catalog bundled with the server.
+     */
+    public static ResponseCatalog defaults() {
+        InputStream resource = ResponseCatalog.class.getResourceAsStream(DEFAULT_RESOURCE);
+        if (resource == null) {
+            throw new IllegalStateException("Missing resource " + DEFAULT_RESOURCE);
+        }
+        try (Reader reader = new InputStreamReader(resource, StandardCharsets.UTF_8)) {
+            return parse(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    public static ResponseCatalog load(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return parse(reader);
+        }
+    }
+    
+    /**
+     * Parses a catalog.
+     *
+     * @throws IllegalArgumentException if the catalog is malformed or an
+     *         intent has no replies
+     */
+    public static ResponseCatalog parse(Reader source) throws IOException {
+        BufferedReader reader = new BufferedReader(source);
+        IntentMatcher.Builder<Intent> rules = new IntentMatcher.Builder<>();
+        List<List<Reply>> replies = new ArrayList<>();
+        List<List<Integer>> weights = new ArrayList<>();
+        for (int i = 0; i < Intent.values().length; i++) {
+            replies.add(new ArrayList<>());
+            weights.add(new ArrayList<>());
+        }
+        // Identical reply text, within or across intents, is stored once
+        Map<String, Reply> interned = new HashMap<>();
+        
+        String section = null;
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (line.startsWith("[") && line.endsWith("]")) {
+                section = line.substring(1, line.length() - 1).trim();
+                if (!section.equalsIgnoreCase(RULES_SECTION)) {
+                    intentNamed(section, lineNumber);
+                }
+                continue;
+            }
+            if (section == null) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": text before the first section");
+            }
+            if (section.equalsIgnoreCase(RULES_SECTION)) {
+                addRule(rules, line, lineNumber);
+            } else {
+                int intent = intentNamed(section, lineNumber).ordinal();
+                int bar = line.indexOf('|');
+                int weight = 1;
+                if (bar > 0 && isDigits(line, bar)) {
+                    weight = parseWeight(line.substring(0, bar), lineNumber);
+                    line = line.substring(bar + 1).trim();
+                }
+                replies.get(intent).add(interned.computeIfAbsent(line, Reply::compile));
+                weights.get(intent).add(weight);
+            }
+        }
+        
+        Reply[][] byIntent = new Reply[replies.size()][];
+        int[][] cumulativeWeights = new int[replies.size()][];
+        for (Intent intent : Intent.values()) {
+            List<Reply> intentReplies = replies.get(intent.ordinal());
+            if (intentReplies.isEmpty()) {
+                throw new IllegalArgumentException("No replies for " + intent);
+            }
+            byIntent[intent.ordinal()] = intentReplies.toArray(new Reply[0]);
+            cumulativeWeights[intent.ordinal()] = cumulate(weights.get(intent.ordinal()), intent);
+        }
+        return new ResponseCatalog(rules.build(Intent.DEFAULT), byIntent, cumulativeWeights);
+    }
+    
+    private static boolean isDigits(String line, int end) {
+        for (int i = 0; i < end; i++) {
+            if (!Character.isDigit(line.charAt(i)) && line.charAt(i) != ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static int parseWeight(String weight, int lineNumber) {
+        try {
+            int parsed = Integer.parseInt(weight.trim());
+            if (parsed >= 1) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Line " + lineNumber + ": weight must be a positive number");
+    }
+    
+    /**
+     * Running totals of the weights, or {@code null} if they are all 1 and
+     * a uniform pick does the same job.
+     */
+    private static int[] cumulate(List<Integer> weights, Intent intent) {
+        int[] cumulative = new int[weights.size()];
+        long total = 0;
+        boolean uniform = true;
+        for (int i = 0; i < cumulative.length; i++) {
+            total += weights.get(i);
+            if (total > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Weights of " + intent + " add up to too much");
+            }
+            cumulative[i] = (int) total;
+            uniform &= weights.get(i) == 1;
+        }
+        return uniform ? null : cumulative;
+    }
+    
+    private static void addRule(IntentMatcher.Builder<Intent> rules, String line, int lineNumber) {
+        int equals = line.indexOf('=');
+        if (equals < 0) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": expected INTENT = keywords");
+        }
+        Intent intent = intentNamed(line.substring(0, equals).trim(), lineNumber);
+        String keywords = line.substring(equals + 1);
+        int ampersand = keywords.indexOf('&');
+        String[] anyOf = splitKeywords(ampersand < 0 ? keywords : keywords.substring(0, ampersand));
+        String[] required = ampersand < 0 ? new String[0] : splitKeywords(keywords.substring(ampersand + 1));
+        try {
+            rules.rule(intent, anyOf, required);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage());
+        }
+    }
+    
+    private static String[] splitKeywords(String keywords) {
+        List<String> split = new ArrayList<>();
+        for (String keyword : keywords.split("\\|")) {
+            if (!keyword.trim().isEmpty()) {
+                split.add(keyword.trim());
+            }
+        }
+        return split.toArray(new String[0]);
+    }
+    
+    private static Intent intentNamed(String name, int lineNumber) {
+        try {
+            return Intent.valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": unknown intent " + name);
+        }
+    }
+    
+    public Intent classify(CharSequence message) {
+        return matcher.classify(message);
+    }
+    
+    Reply[] replies(Intent intent) {
+        return replies[intent.ordinal()];
+    }
+    
+    /**
+     * Running totals of the reply weights of an intent, or {@code null}
+     * if all its replies have the same weight.
+     */
+    int[] cumulativeWeights(Intent intent) {
+        return cumulativeWeights[intent.ordinal()];
+    }
+    
+    /**
+     * The bit that stands for a reply in a 64-bit mask of replies, as kept
+     * by {@link ResponseSelector}, numbering the replies of all intents
+     * in turn. Replies past the 64th get -1 and cannot be tracked.
+     */
+    int replyBit(Intent intent, int index) {
+        int bit = firstReplyBits[intent.ordinal()] + index;
+        return bit < Long.SIZE ? bit : -1;
+    }
+    
+    /**
+     * Total number of replies, over all intents.
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * A reply split around its placeholders. Replies without placeholders
+     * are returned as is, without copying.
+     */
+    static final class Reply {
+        private static final String[] PLACEHOLDERS = {"{time}", "{greeting}", "{name}", "{, name}"};
+        private static final int TIME = 0;
+        private static final int GREETING = 1;
+        private static final int NAME = 2;
+        private static final int ADDRESS = 3;
+        /** Stands in for the name of a user who has not given one. */
+        static final String UNKNOWN_NAME = "friend";
+        
+        private final String text;
+        private final String[] literals;
+        private final int[] slots;
+        
+        private Reply(String text, String[] literals, int[] slots) {
+            this.text = text;
+            this.literals = literals;
+            this.slots = slots;
+        }
+        
+        static Reply compile(String text) {
+            List<String> literals = new ArrayList<>();
+            List<Integer> slots = new ArrayList<>();
+            int start = 0;
+            while (true) {
+                int at = -1;
+                int placeholder = -1;
+                for (int i = 0; i < PLACEHOLDERS.length; i++) {
+                    int found = text.indexOf(PLACEHOLDERS[i], start);
+                    if (found >= 0 && (at < 0 || found < at)) {
+                        at = found;
+                        placeholder = i;
+                    }
+                }
+                if (at < 0) {
+                    break;
+                }
+                literals.add(text.substring(start, at));
+                slots.add(placeholder);
+                start = at + PLACEHOLDERS[placeholder].length();
+            }
+            if (slots.isEmpty()) {
+                return new Reply(text, null, null);
+            }
+            literals.add(text.substring(start));
+            int[] slotArray = new int[slots.size()];
+            for (int i = 0; i < slotArray.length; i++) {
+                slotArray[i] = slots.get(i);
+            }
+            return new Reply(text, literals.toArray(new String[0]), slotArray);
+        }
+        
+        /**
+         * @param name the user's name, or {@code null} if not known
+         */
+        String render(ClockService clock, String name) {
+            if (literals == null) {
+                return text;
+            }
+            StringBuilder reply = new StringBuilder(text.length() + 16);
+            for (int i = 0; i < slots.length; i++) {
+                reply.append(literals[i]);
+                switch (slots[i]) {
+                    case TIME:
+                        reply.append(clock.currentTime());
+                        break;
+                    case GREETING:
+                        reply.append(clock.timeOfDayGreeting());
+                        break;
+                    case NAME:
+                        reply.append(name != null ? name : UNKNOWN_NAME);
+                        break;
+                    case ADDRESS:
+                        if (name != null) {
+                            reply.append(", ").append(name);
+                        }
+                        break;
+                }
+            }
+            return reply.append(literals[slots.length]).toString();
+        }
+        
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}
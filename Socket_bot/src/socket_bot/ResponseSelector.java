@@ -0,0 +1,115 @@
+package socket_bot;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks which of an intent's replies to send, for one client session.
+ *
+ * Each session has its own selector and a session is only ever served by
+ * one thread at a time, so selectors keep plain fields and never lock.
+ * Random numbers come from {@link ThreadLocalRandom}, or from a
+ * {@link SplittableRandom} owned by the session when the server runs with
+ * a seed, so no two sessions share a generator. Which replies the session
+ * has been given is kept here as well, one bit per reply (see
+ * {@link ResponseCatalog#replyBit(Intent, int)}).
+ *
+ * @version 1.0
+ */
+final class ResponseSelector {
+    private final ServerConfig.Selection selection;
+    private final boolean noRepeat;
+    private final SplittableRandom random;
+    private final long session;
+    private ResponseCatalog lastCatalog;
+    private long given;
+    
+    /**
+     * @param random the session's own generator, or {@code null} to use
+     *        {@link ThreadLocalRandom}
+     */
+    ResponseSelector(ServerConfig.Selection selection, boolean noRepeat, SplittableRandom random, long session) {
+        this.selection = selection;
+        this.noRepeat = noRepeat;
+        this.random = random;
+        this.session = session;
+    }
+    
+    long getSession() {
+        return session;
+    }
+    
+    ResponseCatalog.Reply pick(ResponseCatalog catalog, Intent intent) {
+        if (catalog != lastCatalog) {
+            // Bits of a catalog that was reloaded mean nothing any more
+            given = 0;
+            lastCatalog = catalog;
+        }
+        ResponseCatalog.Reply[] replies = catalog.replies(intent);
+        int[] cumulativeWeights = selection == ServerConfig.Selection.WEIGHTED
+                ? catalog.cumulativeWeights(intent)
+                : null;
+        // This intent's replies as they are laid out in the mask
+        int first = catalog.replyBit(intent, 0);
+        int tracked = first < 0 ? 0 : Math.min(replies.length, Long.SIZE - first);
+        long intentMask = tracked == Long.SIZE ? -1L : (1L << tracked) - 1;
+        long intentGiven = tracked == 0 ? 0 : (given >>> first) & intentMask;
+        long excluded = noRepeat && replies.length > 1 ? intentGiven : 0;
+        
+        int pick = cumulativeWeights == null
+                ? pickUniform(replies.length, excluded)
+                : pickWeighted(cumulativeWeights, excluded);
+        if (pick < tracked) {
+            intentGiven |= 1L << pick;
+            if (noRepeat && intentGiven == intentMask) {
+                // All given: start over, but not with the one just sent
+                intentGiven = 1L << pick;
+            }
+            given = given & ~(intentMask << first) | intentGiven << first;
+        }
+        return replies[pick];
+    }
+    
+    /**
+     * Draws from every index not in the {@code excluded} bit mask in a
+     * single draw, rather than drawing again until it is allowed.
+     */
+    private int pickUniform(int count, long excluded) {
+        int ticket = nextInt(count - Long.bitCount(excluded));
+        // Each excluded index at or before the ticket pushes it one further
+        for (long bits = excluded; bits != 0; bits &= bits - 1) {
+            if (Long.numberOfTrailingZeros(bits) > ticket) {
+                break;
+            }
+            ticket++;
+        }
+        return ticket;
+    }
+    
+    private int pickWeighted(int[] cumulativeWeights, long excluded) {
+        int total = cumulativeWeights[cumulativeWeights.length - 1];
+        for (long bits = excluded; bits != 0; bits &= bits - 1) {
+            total -= weightOf(cumulativeWeights, Long.numberOfTrailingZeros(bits));
+        }
+        // Leave out the excluded replies' shares of tickets
+        int ticket = nextInt(total);
+        for (long bits = excluded; bits != 0; bits &= bits - 1) {
+            int index = Long.numberOfTrailingZeros(bits);
+            if (ticket < (index == 0 ? 0 : cumulativeWeights[index - 1])) {
+                break;
+            }
+            ticket += weightOf(cumulativeWeights, index);
+        }
+        int index = Arrays.binarySearch(cumulativeWeights, ticket + 1);
+        return index >= 0 ? index : -index - 1;
+    }
+    
+    private static int weightOf(int[] cumulativeWeights, int index) {
+        return cumulativeWeights[index] - (index == 0 ? 0 : cumulativeWeights[index - 1]);
+    }
+    
+    private int nextInt(int bound) {
+        return random != null ? random.nextInt(bound) : ThreadLocalRandom.current().nextInt(bound);
+    }
+}
@@ -0,0 +1,714 @@
+package socket_bot;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Startup configuration for {@link BotServer}.
+ * Holds the listening port and the I/O model the server should use, so
+ * the blocking and the non-blocking implementations can be compared
+ * against each other without code changes.
+ *
+ * Settings can be given on the command line as {@code --key=value}:
+ * - {@code --port=5000}
+ * - {@code --mode=blocking|executor|nio}
+ * - {@code --reactors=4}
+ * - {@code --max-connections=10000}
+ * - {@code --flush-deadline-us=1000}
+ * - {@code --catalog=responses.catalog}
+ * - {@code --selection=uniform|weighted}
+ * - {@code --no-repeat=true|false}
+ * - {@code --seed=42}
+ * - {@code --admin-port=5050}
+ * - {@code --idle-timeout-ms=300000}
+ * - {@code --drain-timeout-ms=5000}
+ * - {@code --intent-cache=1024}
+ * - {@code --room-queue=256}
+ * - {@code --transcript-dir=transcripts}
+ * - {@code --transcript-segment-mb=64}
+ * - {@code --rate-limit=20}, {@code --rate-burst=20}
+ * - {@code --address-rate-limit=100}, {@code --address-rate-burst=100}
+ * - {@code --overload-in-flight=1000}, {@code --overload-latency-us=5000}
+ * - {@code --plugin-threads=4}, {@code --plugin-queue=64}
+ * - {@code --knowledge-base=faq.tsv}
+ * - {@code --knowledge-cache=1024}, {@code --knowledge-min-score=1.0}
+ * - {@code --backlog=50}
+ * - {@code --tcp-nodelay=true|false}
+ * - {@code --reuse-address=true|false}
+ * - {@code --rcvbuf=65536}, {@code --sndbuf=65536}
+ *
+ * @version 1.0
+ */
+public class ServerConfig {
+    /** Segments are mapped whole, and one mapping holds at most 2 GB. */
+    private static final long MAX_TRANSCRIPT_SEGMENT_MB = Integer.MAX_VALUE / (1024 * 1024);
+    
+    /**
+     * The I/O model used to serve client connections.
+     */
+    public enum Mode {
+        /** One thread per connection, blocking on {@code readLine()}. */
+        BLOCKING,
+        /**
+         * Blocking handlers run as executor tasks: on virtual threads when
+         * the JVM supports them, on a pooled executor otherwise.
+         */
+        EXECUTOR,
+        /** Selector based event loop with a fixed pool of reactor threads. */
+        NIO
+    }
+    
+    /**
+     * How a reply is picked among the replies of the matched intent.
+     */
+    public enum Selection {
+        /** Every reply is equally likely. */
+        UNIFORM,
+        /** Replies are picked in proportion to their catalog weights. */
+        WEIGHTED
+    }
+    
+    private int port = 5000;
+    private Mode mode = Mode.BLOCKING;
+    private int reactorThreads = Runtime.getRuntime().availableProcessors();
+    private int maxConnections = 10000;
+    private long flushDeadlineMicros = 1000;
+    private Path catalogFile;
+    private Selection selection = Selection.WEIGHTED;
+    private boolean noRepeat;
+    private Long seed;
+    private int adminPort = -1;
+    private long idleTimeoutMillis;
+    private long drainTimeoutMillis = 5000;
+    private int intentCacheSize;
+    private int roomQueueCapacity = 256;
+    private Path transcriptDirectory;
+    private int transcriptSegmentBytes = 64 * 1024 * 1024;
+    private double rateLimitPerSecond;
+    private int rateLimitBurst = 20;
+    private double addressRateLimitPerSecond;
+    private int addressRateLimitBurst = 100;
+    private int overloadInFlight;
+    private long overloadLatencyMicros;
+    private int pluginThreads = 4;
+    private int pluginQueueCapacity = 64;
+    private Path knowledgeBaseFile;
+    private int knowledgeBaseCacheSize = 1024;
+    private double knowledgeBaseMinScore = 1.0;
+    private int backlog = 50;
+    private boolean tcpNoDelay = true;
+    private boolean reuseAddress = true;
+    private int receiveBufferSize;
+    private int sendBufferSize;
+    
+    public int getPort() {
+        return port;
+    }
+    
+    /**
+     * The port to listen on. Zero picks a free port, which
+     * {@link BotServer#getLocalPort()} tells once the server is started.
+     */
+    public ServerConfig setPort(int port) {
+        this.port = port;
+        return this;
+    }
+    
+    public Mode getMode() {
+        return mode;
+    }
+    
+    public ServerConfig setMode(Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+    
+    public int getReactorThreads() {
+        return reactorThreads;
+    }
+    
+    public ServerConfig setReactorThreads(int reactorThreads) {
+        if (reactorThreads < 1) {
+            throw new IllegalArgumentException("reactorThreads must be at least 1");
+        }
+        this.reactorThreads = reactorThreads;
+        return this;
+    }
+    
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+    
+    /**
+     * Caps the number of concurrently open connections. Once the cap is
+     * reached the server stops calling {@code accept()} until a connection
+     * closes, leaving new clients waiting in the listen backlog.
+     */
+    public ServerConfig setMaxConnections(int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be at least 1");
+        }
+        this.maxConnections = maxConnections;
+        return this;
+    }
+    
+    public long getFlushDeadlineMicros() {
+        return flushDeadlineMicros;
+    }
+    
+    /**
+     * Sets how long a connection may hold replies back while more
+     * pipelined requests are already waiting to be answered. Replies are
+     * flushed together when the input runs dry or the deadline passes,
+     * whichever comes first. Zero flushes after every reply.
+     */
+    public ServerConfig setFlushDeadlineMicros(long flushDeadlineMicros) {
+        if (flushDeadlineMicros < 0) {
+            throw new IllegalArgumentException("flushDeadlineMicros must not be negative");
+        }
+        this.flushDeadlineMicros = flushDeadlineMicros;
+        return this;
+    }
+    
+    public Path getCatalogFile() {
+        return catalogFile;
+    }
+    
+    /**
+     * Loads keyword rules and replies from the given {@link ResponseCatalog}
+     * file instead of the bundled one, and reloads it whenever it changes.
+     * {@code null} uses the bundled catalog.
+     */
+    public ServerConfig setCatalogFile(Path catalogFile) {
+        this.catalogFile = catalogFile;
+        return this;
+    }
+    
+    public Selection getSelection() {
+        return selection;
+    }
+    
+    public ServerConfig setSelection(Selection selection) {
+        this.selection = selection;
+        return this;
+    }
+    
+    public boolean isNoRepeat() {
+        return noRepeat;
+    }
+    
+    /**
+     * Does not send a session the same reply again for an intent until it
+     * has been sent all of the intent's replies, and never twice in a row,
+     * as long as the intent has more than one reply. Only the first 64
+     * replies of a catalog are tracked.
+     */
+    public ServerConfig setNoRepeat(boolean noRepeat) {
+        this.noRepeat = noRepeat;
+        return this;
+    }
+    
+    public Long getSeed() {
+        return seed;
+    }
+    
+    /**
+     * Makes reply selection reproducible: each connection gets its own
+     * generator, seeded from this seed and the order in which connections
+     * were accepted. {@code null}, the default, picks replies at random.
+     */
+    public ServerConfig setSeed(Long seed) {
+        this.seed = seed;
+        return this;
+    }
+    
+    public int getAdminPort() {
+        return adminPort;
+    }
+    
+    /**
+     * Serves the server's metrics as plain text on this port, on the
+     * loopback interface only. -1, the default, disables it.
+     */
+    public ServerConfig setAdminPort(int adminPort) {
+        if (adminPort < -1) {
+            throw new IllegalArgumentException("adminPort must be -1 or a port number");
+        }
+        this.adminPort = adminPort;
+        return this;
+    }
+    
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+    
+    /**
+     * Closes connections that have not sent anything for this long, so
+     * abandoned and half-open clients do not hold a thread or a file
+     * descriptor for ever. Zero, the default, never closes them.
+     */
+    public ServerConfig setIdleTimeoutMillis(long idleTimeoutMillis) {
+        if (idleTimeoutMillis < 0) {
+            throw new IllegalArgumentException("idleTimeoutMillis must not be negative");
+        }
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+    
+    public long getDrainTimeoutMillis() {
+        return drainTimeoutMillis;
+    }
+    
+    /**
+     * How long {@link BotServer#stop()} lets open connections finish the
+     * messages already sent before closing them regardless.
+     */
+    public ServerConfig setDrainTimeoutMillis(long drainTimeoutMillis) {
+        if (drainTimeoutMillis < 0) {
+            throw new IllegalArgumentException("drainTimeoutMillis must not be negative");
+        }
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        return this;
+    }
+    
+    public int getIntentCacheSize() {
+        return intentCacheSize;
+    }
+    
+    /**
+     * How many recent inputs to remember the intent of, so that phrases
+     * sent over and over, like the GUI's dropdown, skip classification.
+     * Zero, the default, turns the cache off: with the bundled rules the
+     * matcher is quicker than a cache lookup (see IntentMatcherBenchmark),
+     * so the cache only pays off for much larger catalogs.
+     */
+    public ServerConfig setIntentCacheSize(int intentCacheSize) {
+        if (intentCacheSize < 0) {
+            throw new IllegalArgumentException("intentCacheSize must not be negative");
+        }
+        this.intentCacheSize = intentCacheSize;
+        return this;
+    }
+    
+    public int getRoomQueueCapacity() {
+        return roomQueueCapacity;
+    }
+    
+    /**
+     * How many room messages may wait to be written to one connection.
+     * Messages for a connection whose queue is full are dropped for that
+     * connection only, so a slow reader never holds up its rooms.
+     */
+    public ServerConfig setRoomQueueCapacity(int roomQueueCapacity) {
+        if (roomQueueCapacity < 1) {
+            throw new IllegalArgumentException("roomQueueCapacity must be at least 1");
+        }
+        this.roomQueueCapacity = roomQueueCapacity;
+        return this;
+    }
+    
+    public Path getTranscriptDirectory() {
+        return transcriptDirectory;
+    }
+    
+    /**
+     * Where to keep the transcript of every exchange, see
+     * {@link TranscriptLog}. {@code null}, the default, keeps none.
+     */
+    public ServerConfig setTranscriptDirectory(Path transcriptDirectory) {
+        this.transcriptDirectory = transcriptDirectory;
+        return this;
+    }
+    
+    public int getTranscriptSegmentBytes() {
+        return transcriptSegmentBytes;
+    }
+    
+    /**
+     * Size of each transcript segment file. A new segment is started when
+     * the current one is full.
+     */
+    public ServerConfig setTranscriptSegmentBytes(int transcriptSegmentBytes) {
+        if (transcriptSegmentBytes < TranscriptLog.MIN_SEGMENT_BYTES) {
+            throw new IllegalArgumentException("transcriptSegmentBytes must be at least "
+                    + TranscriptLog.MIN_SEGMENT_BYTES);
+        }
+        this.transcriptSegmentBytes = transcriptSegmentBytes;
+        return this;
+    }
+    
+    public double getRateLimitPerSecond() {
+        return rateLimitPerSecond;
+    }
+    
+    /**
+     * How many messages a second one connection may send on average.
+     * Messages over the limit get a short refusal instead of an answer.
+     * Zero, the default, sets no limit.
+     */
+    public ServerConfig setRateLimitPerSecond(double rateLimitPerSecond) {
+        if (rateLimitPerSecond < 0) {
+            throw new IllegalArgumentException("rateLimitPerSecond must not be negative");
+        }
+        this.rateLimitPerSecond = rateLimitPerSecond;
+        return this;
+    }
+    
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+    
+    /**
+     * How many messages a connection may send at once, above its rate,
+     * after being quiet for a while.
+     */
+    public ServerConfig setRateLimitBurst(int rateLimitBurst) {
+        if (rateLimitBurst < 1) {
+            throw new IllegalArgumentException("rateLimitBurst must be at least 1");
+        }
+        this.rateLimitBurst = rateLimitBurst;
+        return this;
+    }
+    
+    public double getAddressRateLimitPerSecond() {
+        return addressRateLimitPerSecond;
+    }
+    
+    /**
+     * Like {@link #setRateLimitPerSecond}, but for all the connections from
+     * one remote address together, so opening more connections does not
+     * get a client round the limit. Zero, the default, sets no limit.
+     */
+    public ServerConfig setAddressRateLimitPerSecond(double addressRateLimitPerSecond) {
+        if (addressRateLimitPerSecond < 0) {
+            throw new IllegalArgumentException("addressRateLimitPerSecond must not be negative");
+        }
+        this.addressRateLimitPerSecond = addressRateLimitPerSecond;
+        return this;
+    }
+    
+    public int getAddressRateLimitBurst() {
+        return addressRateLimitBurst;
+    }
+    
+    public ServerConfig setAddressRateLimitBurst(int addressRateLimitBurst) {
+        if (addressRateLimitBurst < 1) {
+            throw new IllegalArgumentException("addressRateLimitBurst must be at least 1");
+        }
+        this.addressRateLimitBurst = addressRateLimitBurst;
+        return this;
+    }
+    
+    public int getOverloadInFlight() {
+        return overloadInFlight;
+    }
+    
+    /**
+     * How many messages may be in processing at once before the server
+     * sheds load, answering new messages with a short "busy" reply until
+     * the number is down to half. Suits the threaded modes, where every
+     * connection can be processing; zero, the default, sets no limit.
+     */
+    public ServerConfig setOverloadInFlight(int overloadInFlight) {
+        if (overloadInFlight < 0) {
+            throw new IllegalArgumentException("overloadInFlight must not be negative");
+        }
+        this.overloadInFlight = overloadInFlight;
+        return this;
+    }
+    
+    public long getOverloadLatencyMicros() {
+        return overloadLatencyMicros;
+    }
+    
+    /**
+     * Average processing time of a message above which the server sheds
+     * load, until it is down to half. Suits every mode, the NIO one
+     * included; zero, the default, sets no limit.
+     */
+    public ServerConfig setOverloadLatencyMicros(long overloadLatencyMicros) {
+        if (overloadLatencyMicros < 0) {
+            throw new IllegalArgumentException("overloadLatencyMicros must not be negative");
+        }
+        this.overloadLatencyMicros = overloadLatencyMicros;
+        return this;
+    }
+    
+    public int getPluginThreads() {
+        return pluginThreads;
+    }
+    
+    /**
+     * Threads that run the intent handlers marked as expensive (see
+     * {@link IntentHandler#isExpensive()}).
+     */
+    public ServerConfig setPluginThreads(int pluginThreads) {
+        if (pluginThreads < 1) {
+            throw new IllegalArgumentException("pluginThreads must be at least 1");
+        }
+        this.pluginThreads = pluginThreads;
+        return this;
+    }
+    
+    public int getPluginQueueCapacity() {
+        return pluginQueueCapacity;
+    }
+    
+    /**
+     * How many calls to expensive intent handlers may wait for a plugin
+     * thread. Calls that find the queue full get the handler's fallback
+     * reply at once.
+     */
+    public ServerConfig setPluginQueueCapacity(int pluginQueueCapacity) {
+        if (pluginQueueCapacity < 1) {
+            throw new IllegalArgumentException("pluginQueueCapacity must be at least 1");
+        }
+        this.pluginQueueCapacity = pluginQueueCapacity;
+        return this;
+    }
+    
+    public Path getKnowledgeBaseFile() {
+        return knowledgeBaseFile;
+    }
+    
+    /**
+     * A corpus of {@code text<TAB>answer} lines to answer questions from
+     * (see {@link KnowledgeBase}), or {@code null}, the default, to answer
+     * them from the catalog only. The corpus is indexed when the server is
+     * created.
+     */
+    public ServerConfig setKnowledgeBaseFile(Path knowledgeBaseFile) {
+        this.knowledgeBaseFile = knowledgeBaseFile;
+        return this;
+    }
+    
+    public int getKnowledgeBaseCacheSize() {
+        return knowledgeBaseCacheSize;
+    }
+    
+    /**
+     * How many recent questions the knowledge base keeps the answer of.
+     * Zero turns the cache off.
+     */
+    public ServerConfig setKnowledgeBaseCacheSize(int knowledgeBaseCacheSize) {
+        if (knowledgeBaseCacheSize < 0) {
+            throw new IllegalArgumentException("knowledgeBaseCacheSize must not be negative");
+        }
+        this.knowledgeBaseCacheSize = knowledgeBaseCacheSize;
+        return this;
+    }
+    
+    public double getKnowledgeBaseMinScore() {
+        return knowledgeBaseMinScore;
+    }
+    
+    /**
+     * The BM25 score the best matching document needs for its answer to be
+     * given. Questions whose best match scores less get the catalog's
+     * reply.
+     */
+    public ServerConfig setKnowledgeBaseMinScore(double knowledgeBaseMinScore) {
+        if (knowledgeBaseMinScore < 0) {
+            throw new IllegalArgumentException("knowledgeBaseMinScore must not be negative");
+        }
+        this.knowledgeBaseMinScore = knowledgeBaseMinScore;
+        return this;
+    }
+    
+    public int getBacklog() {
+        return backlog;
+    }
+    
+    /**
+     * Length of the listen queue for connections not accepted yet, which
+     * is also where clients wait while the connection cap is reached.
+     */
+    public ServerConfig setBacklog(int backlog) {
+        if (backlog < 1) {
+            throw new IllegalArgumentException("backlog must be at least 1");
+        }
+        this.backlog = backlog;
+        return this;
+    }
+    
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+    
+    /**
+     * Disables Nagle's algorithm on client connections. On by default:
+     * replies are already coalesced by the server, so holding them back
+     * in the kernel as well only adds latency.
+     */
+    public ServerConfig setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+    
+    public boolean isReuseAddress() {
+        return reuseAddress;
+    }
+    
+    /**
+     * Lets a restarted server bind its port while connections of the
+     * previous one are still in TIME_WAIT. On by default.
+     */
+    public ServerConfig setReuseAddress(boolean reuseAddress) {
+        this.reuseAddress = reuseAddress;
+        return this;
+    }
+    
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+    
+    /**
+     * Socket receive buffer size in bytes, set on the listening socket so
+     * accepted connections start with it. Zero keeps the OS default.
+     */
+    public ServerConfig setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize < 0) {
+            throw new IllegalArgumentException("receiveBufferSize must not be negative");
+        }
+        this.receiveBufferSize = receiveBufferSize;
+        return this;
+    }
+    
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+    
+    /**
+     * Socket send buffer size in bytes. Zero keeps the OS default.
+     */
+    public ServerConfig setSendBufferSize(int sendBufferSize) {
+        if (sendBufferSize < 0) {
+            throw new IllegalArgumentException("sendBufferSize must not be negative");
+        }
+        this.sendBufferSize = sendBufferSize;
+        return this;
+    }
+    
+    /**
+     * Builds a configuration from {@code --key=value} command line arguments.
+     * Unknown keys are rejected so typos do not silently fall back to defaults.
+     */
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("Expected --key=value but got: " + arg);
+            }
+            String key = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            switch (key) {
+                case "port":
+                    config.setPort(Integer.parseInt(value));
+                    break;
+                case "mode":
+                    config.setMode(Mode.valueOf(value.toUpperCase(Locale.ROOT)));
+                    break;
+                case "reactors":
+                    config.setReactorThreads(Integer.parseInt(value));
+                    break;
+                case "max-connections":
+                    config.setMaxConnections(Integer.parseInt(value));
+                    break;
+                case "flush-deadline-us":
+                    config.setFlushDeadlineMicros(Long.parseLong(value));
+                    break;
+                case "catalog":
+                    config.setCatalogFile(Paths.get(value));
+                    break;
+                case "selection":
+                    config.setSelection(Selection.valueOf(value.toUpperCase(Locale.ROOT)));
+                    break;
+                case "no-repeat":
+                    config.setNoRepeat(Boolean.parseBoolean(value));
+                    break;
+                case "seed":
+                    config.setSeed(Long.parseLong(value));
+                    break;
+                case "admin-port":
+                    config.setAdminPort(Integer.parseInt(value));
+                    break;
+                case "idle-timeout-ms":
+                    config.setIdleTimeoutMillis(Long.parseLong(value));
+                    break;
+                case "drain-timeout-ms":
+                    config.setDrainTimeoutMillis(Long.parseLong(value));
+                    break;
+                case "intent-cache":
+                    config.setIntentCacheSize(Integer.parseInt(value));
+                    break;
+                case "room-queue":
+                    config.setRoomQueueCapacity(Integer.parseInt(value));
+                    break;
+                case "transcript-dir":
+                    config.setTranscriptDirectory(Paths.get(value));
+                    break;
+                case "transcript-segment-mb":
+                    long megabytes = Long.parseLong(value);
+                    // Checked before multiplying, which could overflow
+                    if (megabytes < 1 || megabytes > MAX_TRANSCRIPT_SEGMENT_MB) {
+                        throw new IllegalArgumentException("transcript-segment-mb must be between 1 and "
+                                + MAX_TRANSCRIPT_SEGMENT_MB);
+                    }
+                    config.setTranscriptSegmentBytes((int) (megabytes * 1024 * 1024));
+                    break;
+                case "rate-limit":
+                    config.setRateLimitPerSecond(Double.parseDouble(value));
+                    break;
+                case "rate-burst":
+                    config.setRateLimitBurst(Integer.parseInt(value));
+                    break;
+                case "address-rate-limit":
+                    config.setAddressRateLimitPerSecond(Double.parseDouble(value));
+                    break;
+                case "address-rate-burst":
+                    config.setAddressRateLimitBurst(Integer.parseInt(value));
+                    break;
+                case "overload-in-flight":
+                    config.setOverloadInFlight(Integer.parseInt(value));
+                    break;
+                case "overload-latency-us":
+                    config.setOverloadLatencyMicros(Long.parseLong(value));
+                    break;
+                case "plugin-threads":
+                    config.setPluginThreads(Integer.parseInt(value));
+                    break;
+                case "plugin-queue":
+                    config.setPluginQueueCapacity(Integer.parseInt(value));
+                    break;
+                case "knowledge-base":
+                    config.setKnowledgeBaseFile(Paths.get(value));
+                    break;
+                case "knowledge-cache":
+                    config.setKnowledgeBaseCacheSize(Integer.parseInt(value));
+                    break;
+                case "knowledge-min-score":
+                    config.setKnowledgeBaseMinScore(Double.parseDouble(value));
+                    break;
+                case "backlog":
+                    config.setBacklog(Integer.parseInt(value));
+                    break;
+                case "tcp-nodelay":
+                    config.setTcpNoDelay(Boolean.parseBoolean(value));
+                    break;
+                case "reuse-address":
+                    config.setReuseAddress(Boolean.parseBoolean(value));
+                    break;
+                case "rcvbuf":
+                    config.setReceiveBufferSize(Integer.parseInt(value));
+                    break;
+                case "sndbuf":
+                    config.setSendBufferSize(Integer.parseInt(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: --" + key);
+            }
+        }
+        return config;
+    }
+}
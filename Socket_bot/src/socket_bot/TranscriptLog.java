@@ -0,0 +1,369 @@
+package socket_bot;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An append-only transcript of every message the server answers, kept for
+ * auditing.
+ *
+ * Handler threads never touch the disk. {@link #append} puts the exchange
+ * into a bounded lock-free ring and returns; a single writer thread takes
+ * the records off in batches and copies them into memory-mapped segment
+ * files. When the ring is full, which only happens if the disk cannot keep
+ * up, appending waits for room rather than losing records. A record that
+ * cannot be written is reported and counted as dropped, and the writer
+ * goes on with the next; should the writer thread die all the same,
+ * appending drops records instead of waiting for it.
+ *
+ * The transcript is a directory of numbered segments, each a data file of
+ * records and an index file with the time, run, session and position of
+ * each record. A full segment is closed and the next one started; a
+ * restarted server starts a new segment after the last one. Session numbers
+ * start over with every run, so each record also carries the run, which is
+ * the number of the first segment the run wrote. Mapped files are zero
+ * filled, and a record's length is written after the rest of it, so a
+ * reader stops at the first zero length and never sees half a record.
+ * Records are forced to disk every second and when the log is closed.
+ *
+ * Data file record: {@code int length, long timeMillis, long run,
+ * long session, int inputBytes, input, reply}, strings in UTF-8, the length
+ * counting the bytes after it. Index entry: {@code long timeMillis,
+ * long run, long session, int position + 1}.
+ *
+ * {@link TranscriptReader} reads a transcript back.
+ *
+ * @version 1.0
+ */
+public final class TranscriptLog implements Closeable {
+    /** Large enough for a record of the longest message the server accepts. */
+    static final int MIN_SEGMENT_BYTES = 256 * 1024;
+    static final String DATA_SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".idx";
+    static final int RECORD_HEADER_BYTES = 32;
+    static final int INDEX_ENTRY_BYTES = 28;
+    /** Index entries per segment: one for every this many bytes of data file. */
+    static final int BYTES_PER_INDEX_ENTRY = 64;
+    private static final int RING_SIZE = 1 << 16;
+    private static final int MAX_BATCH = 1024;
+    private static final long FORCE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    
+    private final Path directory;
+    private final int segmentBytes;
+    private final BotMetrics metrics;
+    private final long run;
+    
+    // The ring: slot i is free for the producer at position p when its sequence is p,
+    // and holds a record for the writer at position p when its sequence is p + 1
+    private final Record[] slots = new Record[RING_SIZE];
+    private final AtomicLongArray sequences = new AtomicLongArray(RING_SIZE);
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+    
+    private final Thread writer;
+    private volatile boolean writerParked;
+    private volatile boolean closing;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private long segmentNumber;
+    private MappedByteBuffer data;
+    private MappedByteBuffer index;
+    private long lastForce = System.nanoTime();
+    
+    /**
+     * Opens a transcript in a directory, creating it if needed, and starts
+     * the writer thread.
+     */
+    TranscriptLog(Path directory, int segmentBytes, BotMetrics metrics) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.metrics = metrics;
+        for (int i = 0; i < RING_SIZE; i++) {
+            sequences.set(i, i);
+        }
+        Files.createDirectories(directory);
+        segmentNumber = lastSegmentNumber(directory);
+        startSegment();
+        run = segmentNumber;
+        writer = new Thread(this::writeLoop, "bot-transcript-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    /**
+     * Queues one exchange for writing. Safe to call from any thread.
+     */
+    void append(long session, String input, String reply) {
+        if (closing) {
+            return;
+        }
+        Record record = new Record(System.currentTimeMillis(), run, session, input, reply);
+        long position = tail.get();
+        boolean stalled = false;
+        while (true) {
+            int slot = (int) position & (RING_SIZE - 1);
+            long difference = sequences.get(slot) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[slot] = record;
+                    sequences.lazySet(slot, position + 1);
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                if (!writer.isAlive()) {
+                    // Nothing will ever make room
+                    metrics.transcriptDropped();
+                    return;
+                }
+                // Full: the writer is behind, give it the time to catch up
+                if (!stalled) {
+                    stalled = true;
+                    metrics.transcriptStalled();
+                }
+                LockSupport.unpark(writer);
+                Thread.yield();
+                position = tail.get();
+            } else {
+                position = tail.get();
+            }
+        }
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+    
+    /**
+     * Writes out the records already queued, forces them to disk and stops
+     * the writer thread. Records appended afterwards are not written.
+     */
+    @Override
+    public void close() {
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private Record poll() {
+        int slot = (int) head & (RING_SIZE - 1);
+        if (sequences.get(slot) != head + 1) {
+            return null;
+        }
+        Record record = slots[slot];
+        slots[slot] = null;
+        sequences.lazySet(slot, head + RING_SIZE);
+        head++;
+        return record;
+    }
+    
+    private void writeLoop() {
+        while (true) {
+            int written = 0;
+            Record record;
+            while (written < MAX_BATCH && (record = poll()) != null) {
+                write(record);
+                written++;
+            }
+            if (written > 0) {
+                metrics.transcriptRecordsWritten(written);
+            }
+            if (System.nanoTime() - lastForce >= FORCE_INTERVAL_NANOS) {
+                force();
+            }
+            if (written == MAX_BATCH) {
+                continue;
+            }
+            if (closing) {
+                // The connections are closed before the log, so nothing more is coming
+                while ((record = poll()) != null) {
+                    write(record);
+                    metrics.transcriptRecordsWritten(1);
+                }
+                force();
+                return;
+            }
+            writerParked = true;
+            if (sequences.get((int) head & (RING_SIZE - 1)) != head + 1 && !closing) {
+                LockSupport.parkNanos(FORCE_INTERVAL_NANOS);
+            }
+            writerParked = false;
+        }
+    }
+    
+    private void write(Record record) {
+        try {
+            if (!encode(record)) {
+                startSegment();
+                if (!encode(record)) {
+                    System.out.println("Transcript Error: record of session " + record.session + " too long");
+                    metrics.transcriptDropped();
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Transcript Error: " + e.getMessage());
+            metrics.transcriptDropped();
+        } catch (RuntimeException e) {
+            System.out.println("Transcript Error: " + e);
+            metrics.transcriptDropped();
+        }
+    }
+    
+    /**
+     * Copies a record into the current segment.
+     *
+     * @return false if the segment is too full for it
+     */
+    private boolean encode(Record record) {
+        if (index.remaining() < INDEX_ENTRY_BYTES || data.remaining() < RECORD_HEADER_BYTES) {
+            return false;
+        }
+        int start = data.position();
+        data.position(start + 4);
+        data.putLong(record.timeMillis).putLong(record.run).putLong(record.session);
+        int inputLengthAt = data.position();
+        data.position(inputLengthAt + 4);
+        if (!encodeString(record.input)) {
+            data.position(start);
+            return false;
+        }
+        data.putInt(inputLengthAt, data.position() - inputLengthAt - 4);
+        if (!encodeString(record.reply)) {
+            data.position(start);
+            return false;
+        }
+        // Last, so a reader only ever sees whole records
+        data.putInt(start, data.position() - start - 4);
+        index.putLong(record.timeMillis).putLong(record.run).putLong(record.session).putInt(start + 1);
+        return true;
+    }
+    
+    private boolean encodeString(String text) {
+        CoderResult result = encoder.reset().encode(CharBuffer.wrap(text), data, true);
+        return result.isUnderflow() && encoder.flush(data).isUnderflow();
+    }
+    
+    private void startSegment() throws IOException {
+        force();
+        segmentNumber++;
+        data = map(segmentPath(directory, segmentNumber, DATA_SUFFIX), segmentBytes);
+        index = map(segmentPath(directory, segmentNumber, INDEX_SUFFIX),
+                segmentBytes / BYTES_PER_INDEX_ENTRY * INDEX_ENTRY_BYTES);
+        metrics.transcriptSegmentStarted();
+    }
+    
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+    
+    private void force() {
+        lastForce = System.nanoTime();
+        if (data != null) {
+            try {
+                data.force();
+                index.force();
+            } catch (RuntimeException e) {
+                // Such as an UncheckedIOException; the records stay mapped and are forced next time
+                System.out.println("Transcript Error: " + e);
+            }
+        }
+    }
+    
+    static Path segmentPath(Path directory, long number, String suffix) {
+        return directory.resolve(String.format("transcript-%010d%s", number, suffix));
+    }
+    
+    /**
+     * The number of the last segment in a directory, or 0 if there is none.
+     */
+    static long lastSegmentNumber(Path directory) throws IOException {
+        long last = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "transcript-*" + DATA_SUFFIX)) {
+            for (Path file : files) {
+                last = Math.max(last, segmentNumber(file));
+            }
+        }
+        return last;
+    }
+    
+    static long segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring("transcript-".length(), name.length() - DATA_SUFFIX.length()));
+    }
+    
+    /**
+     * One exchange: a message the server answered and its reply.
+     */
+    public static final class Record {
+        private final long timeMillis;
+        private final long run;
+        private final long session;
+        private final String input;
+        private final String reply;
+        
+        Record(long timeMillis, long run, long session, String input, String reply) {
+            this.timeMillis = timeMillis;
+            this.run = run;
+            this.session = session;
+            this.input = input;
+            this.reply = reply;
+        }
+        
+        /**
+         * When the reply was sent, in milliseconds since the epoch.
+         */
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+        
+        /**
+         * The server run that wrote the record. Runs of the same transcript
+         * are numbered in the order they started.
+         */
+        public long getRun() {
+            return run;
+        }
+        
+        /**
+         * The connection's session number. Numbers start over when the
+         * server restarts, so a session is identified by its run and its
+         * number together.
+         */
+        public long getSession() {
+            return session;
+        }
+        
+        public String getInput() {
+            return input;
+        }
+        
+        public String getReply() {
+            return reply;
+        }
+        
+        @Override
+        public String toString() {
+            return timeMillis + " #" + run + "." + session + " > " + input + " < " + reply;
+        }
+    }
+}
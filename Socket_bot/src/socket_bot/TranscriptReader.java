@@ -0,0 +1,238 @@
+package socket_bot;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Reads back the transcript a {@link TranscriptLog} wrote, all of it, over
+ * a time range or for one session of one server run. It can read while the server is still
+ * writing, and sees the records written by the time it opens each segment.
+ *
+ * Records are streamed: segments are memory-mapped one at a time and each
+ * record is decoded only when the iterator gets to it, so reading a large
+ * transcript keeps one record on the heap at a time. Lookups go through
+ * the segment indexes. A time range is found by binary search; records are
+ * stamped when they are queued, so they can be a little out of order, and
+ * the search allows for that. A session is found by scanning the indexes,
+ * without reading the records of other sessions.
+ *
+ * Iterators throw {@link UncheckedIOException} if a segment cannot be read.
+ *
+ * @version 1.0
+ */
+public final class TranscriptReader {
+    /** How far out of time order two records can be written. */
+    private static final long ORDER_SLACK_MILLIS = 1000;
+    
+    private final Path directory;
+    
+    public TranscriptReader(Path directory) {
+        this.directory = directory;
+    }
+    
+    /**
+     * Every record, in the order they were written.
+     */
+    public Iterator<TranscriptLog.Record> readAll() {
+        return new Scan(Long.MIN_VALUE, Long.MAX_VALUE, 0, -1);
+    }
+    
+    /**
+     * The records stamped from {@code fromMillis}, inclusive, to
+     * {@code toMillis}, exclusive.
+     */
+    public Iterator<TranscriptLog.Record> readBetween(long fromMillis, long toMillis) {
+        return new Scan(fromMillis, toMillis, 0, -1);
+    }
+    
+    /**
+     * The records of one session of one server run, in the order they were
+     * written. Session numbers start over with every run, see
+     * {@link TranscriptLog.Record#getRun}.
+     */
+    public Iterator<TranscriptLog.Record> readSession(long run, long session) {
+        return new Scan(Long.MIN_VALUE, Long.MAX_VALUE, run, session);
+    }
+    
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                "transcript-*" + TranscriptLog.DATA_SUFFIX)) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        segments.sort(Comparator.comparingLong(TranscriptLog::segmentNumber));
+        return segments;
+    }
+    
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+    
+    /**
+     * Walks the index entries of each segment in turn, decoding the records
+     * of those that match.
+     */
+    private final class Scan implements Iterator<TranscriptLog.Record> {
+        private final long fromMillis;
+        private final long toMillis;
+        private final long run;
+        /** The session to read, or -1 for all of them. */
+        private final long session;
+        private Iterator<Path> segments;
+        private ByteBuffer data;
+        private ByteBuffer index;
+        private int entry;
+        private int entries;
+        private TranscriptLog.Record next;
+        
+        Scan(long fromMillis, long toMillis, long run, long session) {
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+            this.run = run;
+            this.session = session;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null) {
+                    if (index == null || entry == entries) {
+                        if (!openNextSegment()) {
+                            return false;
+                        }
+                        continue;
+                    }
+                    long time = index.getLong(entry * TranscriptLog.INDEX_ENTRY_BYTES);
+                    if (time - ORDER_SLACK_MILLIS >= toMillis) {
+                        // Past the range, and far enough to be past any stragglers
+                        entry = entries;
+                        continue;
+                    }
+                    long entryRun = index.getLong(entry * TranscriptLog.INDEX_ENTRY_BYTES + 8);
+                    long entrySession = index.getLong(entry * TranscriptLog.INDEX_ENTRY_BYTES + 16);
+                    int position = index.getInt(entry * TranscriptLog.INDEX_ENTRY_BYTES + 24) - 1;
+                    entry++;
+                    if (time >= fromMillis && time < toMillis
+                            && (session < 0 || run == entryRun && session == entrySession)) {
+                        next = decode(position);
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        @Override
+        public TranscriptLog.Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            TranscriptLog.Record record = next;
+            next = null;
+            return record;
+        }
+        
+        private boolean openNextSegment() throws IOException {
+            if (segments == null) {
+                segments = segments().iterator();
+            }
+            index = null;
+            while (segments.hasNext()) {
+                Path file = segments.next();
+                String name = file.getFileName().toString();
+                Path indexFile = file.resolveSibling(name.substring(0, name.length() - TranscriptLog.DATA_SUFFIX.length())
+                        + TranscriptLog.INDEX_SUFFIX);
+                if (!Files.exists(indexFile)) {
+                    continue;
+                }
+                ByteBuffer candidate = map(indexFile);
+                entries = countEntries(candidate);
+                if (entries == 0) {
+                    continue;
+                }
+                index = candidate;
+                entry = firstEntryFrom(fromMillis);
+                data = map(file);
+                return true;
+            }
+            return false;
+        }
+        
+        /**
+         * Entries fill the index from the start, so the used ones are found
+         * by binary search for the first empty one.
+         */
+        private int countEntries(ByteBuffer candidate) {
+            int low = 0;
+            int high = candidate.capacity() / TranscriptLog.INDEX_ENTRY_BYTES;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (candidate.getInt(middle * TranscriptLog.INDEX_ENTRY_BYTES + 24) != 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+        
+        /**
+         * The first entry that can be at or after a time, allowing for
+         * records written slightly out of order.
+         */
+        private int firstEntryFrom(long millis) {
+            if (millis == Long.MIN_VALUE) {
+                return 0;
+            }
+            long target = millis - ORDER_SLACK_MILLIS;
+            int low = 0;
+            int high = entries;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (index.getLong(middle * TranscriptLog.INDEX_ENTRY_BYTES) < target) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+        
+        private TranscriptLog.Record decode(int position) throws IOException {
+            int length = data.getInt(position);
+            if (length < TranscriptLog.RECORD_HEADER_BYTES - 4 || position + 4 + length > data.capacity()) {
+                throw new IOException("Corrupt transcript record at " + position);
+            }
+            long time = data.getLong(position + 4);
+            long recordRun = data.getLong(position + 12);
+            long recordSession = data.getLong(position + 20);
+            int inputBytes = data.getInt(position + 28);
+            if (inputBytes < 0 || inputBytes > length + 4 - TranscriptLog.RECORD_HEADER_BYTES) {
+                throw new IOException("Corrupt transcript record at " + position);
+            }
+            int inputAt = position + TranscriptLog.RECORD_HEADER_BYTES;
+            int end = position + 4 + length;
+            return new TranscriptLog.Record(time, recordRun, recordSession,
+                    decodeString(inputAt, inputAt + inputBytes), decodeString(inputAt + inputBytes, end));
+        }
+        
+        private String decodeString(int start, int end) {
+            ByteBuffer bytes = data.duplicate();
+            bytes.limit(end).position(start);
+            return StandardCharsets.UTF_8.decode(bytes).toString();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package socket_bot_test;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import socket_bot.ChatTranscript;
+
+class ChatTranscriptTest {
+
+    @Test
+    void testEvictedMessagesCanBeReadBack() {
+        ChatTranscript transcript = new ChatTranscript(3);
+        try {
+            for (int i = 0; i < 200; i++) {
+                transcript.add("Bot: message " + i + " é");
+            }
+            assertEquals(200, transcript.getSize());
+            assertEquals(197, transcript.getSpilledCount());
+            for (int i = 199; i >= 0; i--) {
+                assertEquals("Bot: message " + i + " é", transcript.getElementAt(i));
+            }
+        } finally {
+            transcript.close();
+        }
+    }
+
+    @Test
+    void testClear() {
+        ChatTranscript transcript = new ChatTranscript(2);
+        try {
+            transcript.add("You: one");
+            transcript.add("You: two");
+            transcript.add("You: three");
+            transcript.clear();
+            assertEquals(0, transcript.getSize());
+            transcript.add("You: four");
+            assertEquals("You: four", transcript.getElementAt(0));
+        } finally {
+            transcript.close();
+        }
+    }
+}
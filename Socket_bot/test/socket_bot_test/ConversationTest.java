@@ -0,0 +1,50 @@
+package socket_bot_test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import static org.junit.jupiter.api.Assertions.*;
+import socket_bot.BotClient;
+import socket_bot.BotServer;
+import socket_bot.ServerConfig;
+
+class ConversationTest {
+
+    @ParameterizedTest
+    @EnumSource(ServerConfig.Mode.class)
+    void testRemembersTheSession(ServerConfig.Mode mode) throws Exception {
+        BotServer server = new BotServer(new ServerConfig().setPort(0).setMode(mode).setNoRepeat(true));
+        server.start();
+        BotClient ada = new BotClient("localhost", server.getLocalPort());
+        BotClient stranger = new BotClient("localhost", server.getLocalPort());
+        ada.connect();
+        stranger.connect();
+
+        assertTrue(ada.sendAsync("Hi, my name is ada").get().contains(", Ada!"));
+        // Without a name the greeting is the plain one
+        assertTrue(stranger.sendAsync("hello").get().matches("Good (morning|afternoon|evening)! .*"));
+        // Every greeting once before any of them comes round again
+        Set<String> greetings = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            String reply = ada.sendAsync("hello").get();
+            assertTrue(reply.contains(", Ada!"), reply);
+            greetings.add(reply);
+        }
+        assertEquals(4, greetings.size());
+        // Only an introduction that gives a name is a greeting
+        assertFalse(stranger.sendAsync("call me later").get().startsWith("Good "));
+        assertFalse(stranger.sendAsync("hello").get().contains("Later"));
+        // Both introductions are greetings, and greetings use the name
+        assertTrue(stranger.sendAsync("Please call me bob").get().contains(", Bob!"));
+        assertTrue(stranger.sendAsync("hey").get().contains(", Bob!"));
+        assertEquals(2, server.getMetrics().getConversations());
+
+        ada.disconnect();
+        stranger.disconnect();
+        server.stop();
+        assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0, server.getMetrics().getConversations());
+    }
+}
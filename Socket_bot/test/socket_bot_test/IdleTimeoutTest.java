@@ -0,0 +1,43 @@
+package socket_bot_test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import static org.junit.jupiter.api.Assertions.*;
+import socket_bot.BotClient;
+import socket_bot.BotMetrics;
+import socket_bot.BotServer;
+import socket_bot.ServerConfig;
+
+class IdleTimeoutTest {
+
+    @ParameterizedTest
+    @EnumSource(ServerConfig.Mode.class)
+    void testIdleConnectionsAreReaped(ServerConfig.Mode mode) throws Exception {
+        BotServer server = new BotServer(new ServerConfig()
+                .setPort(0)
+                .setMode(mode)
+                .setIdleTimeoutMillis(300));
+        server.start();
+
+        BotClient idle = new BotClient("localhost", server.getLocalPort());
+        BotClient busy = new BotClient("localhost", server.getLocalPort());
+        idle.connect();
+        busy.connect();
+        assertNotNull(idle.sendAsync("hello").get());
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(busy.sendAsync("hello").get());
+            Thread.sleep(100);
+        }
+
+        BotMetrics metrics = server.getMetrics();
+        assertEquals(1, metrics.getReapedConnections());
+        assertEquals(1, metrics.getActiveConnections());
+        assertThrows(ExecutionException.class, () -> idle.sendAsync("hello").get());
+        assertNotNull(busy.sendAsync("hello").get());
+        busy.disconnect();
+        server.stop();
+        assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+    }
+}
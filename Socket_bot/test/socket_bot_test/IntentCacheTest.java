@@ -0,0 +1,65 @@
+package socket_bot_test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import socket_bot.BotClient;
+import socket_bot.BotMetrics;
+import socket_bot.BotServer;
+import socket_bot.ServerConfig;
+
+class IntentCacheTest {
+    private static final String CATALOG = String.join("\n",
+            "[rules]", "GREETING = hello", "WEATHER = weather",
+            "[GREETING]", "Hi!",
+            "[FAREWELL]", "Bye!",
+            "[TIME]", "{time}",
+            "[WEATHER]", "Sunny.",
+            "[MOOD]", "Fine.",
+            "[CURIOSITY]", "Hmm.",
+            "[WHY]", "Because.",
+            "[DEFAULT]", "Pardon?");
+
+    @Test
+    void testRepeatedInputsSkipClassification() throws Exception {
+        Path file = Files.createTempFile("responses", ".catalog");
+        try {
+            Files.write(file, CATALOG.getBytes(StandardCharsets.UTF_8));
+            BotServer server = new BotServer(new ServerConfig().setPort(0).setCatalogFile(file).setIntentCacheSize(16));
+            server.start();
+            BotClient client = new BotClient("localhost", server.getLocalPort());
+            client.connect();
+            BotMetrics metrics = server.getMetrics();
+
+            for (String input : new String[]{"Hello!", "hello!", "  HELLO!  ", "Hello!"}) {
+                assertEquals("Hi!", client.sendAsync(input).get());
+            }
+            assertEquals(3, metrics.getIntentCacheHits());
+            assertEquals(1, metrics.getIntentCacheMisses());
+            assertEquals(0.75, metrics.getIntentCacheHitRate(), 1e-9);
+
+            // A reloaded catalog must not be answered from the old cache
+            Files.write(file, CATALOG.replace("GREETING = hello", "FAREWELL = hello")
+                    .getBytes(StandardCharsets.UTF_8));
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (metrics.getCatalogLoads() < 2) {
+                assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for reload");
+                Thread.sleep(20);
+            }
+            assertEquals("Bye!", client.sendAsync("Hello!").get());
+            assertEquals("Bye!", client.sendAsync("Hello!").get());
+            assertEquals(4, metrics.getIntentCacheHits());
+            assertEquals(2, metrics.getIntentCacheMisses());
+            assertEquals(1, metrics.getIntentCacheSize());
+
+            client.disconnect();
+            server.stop();
+            assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
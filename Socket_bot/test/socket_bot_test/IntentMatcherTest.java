@@ -0,0 +1,76 @@
+package socket_bot_test;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import socket_bot.Intent;
+import socket_bot.IntentMatcher;
+
+class IntentMatcherTest {
+    private final IntentMatcher<Intent> matcher = new IntentMatcher.Builder<Intent>()
+            .rule(Intent.GREETING, "hello", "hi", "hey", "good morning", "good afternoon", "good evening")
+            .rule(Intent.FAREWELL, "bye", "goodbye", "see you", "farewell", "good night")
+            .rule(Intent.TIME, "time")
+            .rule(Intent.WEATHER, "weather")
+            .rule(Intent.MOOD, new String[]{"how are you"}, "?")
+            .rule(Intent.CURIOSITY, new String[]{"what", "how"}, "?")
+            .rule(Intent.WHY, new String[]{"why"}, "?")
+            .build(Intent.DEFAULT);
+
+    @Test
+    void testMatchesContainsChain() {
+        String[] messages = {
+            "Hello!", "What's the weather like?", "What time is it?", "Goodbye",
+            "how are you?", "how are you", "Why is the sky blue?", "why not",
+            "good night everyone", "this is it", "SEE YOU SOON", "weather time",
+            "what?", "", "   ", "the weatherman said so?", "oh, whY?", "héllo ¿qué tal?"
+        };
+        for (String message : messages) {
+            assertEquals(classifyWithContains(message), matcher.classify(message), message);
+        }
+    }
+
+    @Test
+    void testPriorityOrder() {
+        assertEquals(Intent.GREETING, matcher.classify("hi, bye"));
+        assertEquals(Intent.FAREWELL, matcher.classify("bye, what time is it?"));
+        assertEquals(Intent.TIME, matcher.classify("weather at lunch time"));
+        assertEquals(Intent.MOOD, matcher.classify("so how are you?"));
+    }
+
+    @Test
+    void testRequiredKeywords() {
+        assertEquals(Intent.DEFAULT, matcher.classify("why"));
+        assertEquals(Intent.WHY, matcher.classify("why?"));
+    }
+
+    @Test
+    void testNonAsciiKeywords() {
+        IntentMatcher<String> spanish = new IntentMatcher.Builder<String>()
+                .rule("greeting", "¡hola")
+                .rule("question", new String[]{"qué"}, "?")
+                .build("other");
+        assertEquals("greeting", spanish.classify("¡HOLA amigo"));
+        assertEquals("question", spanish.classify("¿Qué hora es?"));
+        assertEquals("other", spanish.classify("que hora es?"));
+    }
+
+    /**
+     * The String.contains chain the matcher replaced.
+     */
+    private static Intent classifyWithContains(String input) {
+        String cleanInput = input.toLowerCase().trim();
+        String[] greetings = {"hello", "hi", "hey", "good morning", "good afternoon", "good evening"};
+        String[] farewells = {"bye", "goodbye", "see you", "farewell", "good night"};
+        if (Arrays.stream(greetings).anyMatch(cleanInput::contains)) return Intent.GREETING;
+        if (Arrays.stream(farewells).anyMatch(cleanInput::contains)) return Intent.FAREWELL;
+        if (cleanInput.contains("time")) return Intent.TIME;
+        if (cleanInput.contains("weather")) return Intent.WEATHER;
+        if (cleanInput.contains("?")) {
+            if (cleanInput.contains("how are you")) return Intent.MOOD;
+            if (cleanInput.contains("what") || cleanInput.contains("how")) return Intent.CURIOSITY;
+            if (cleanInput.contains("why")) return Intent.WHY;
+        }
+        return Intent.DEFAULT;
+    }
+}
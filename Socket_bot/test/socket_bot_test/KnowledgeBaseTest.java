@@ -0,0 +1,175 @@
+package socket_bot_test;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import socket_bot.BotClient;
+import socket_bot.BotServer;
+import socket_bot.KnowledgeBase;
+import socket_bot.ServerConfig;
+
+class KnowledgeBaseTest {
+
+    private static final String FAQ = String.join("\n",
+            "# Opening hours, accounts and delivery",
+            "opening hours open closed sunday weekend\tWe are open 9 to 5, Monday to Saturday.",
+            "reset password forgot login account\tUse the 'Forgot password' link on the login page.",
+            "password change security account\tChange your password under Settings, Security.",
+            "delivery shipping time parcel days\tDelivery takes 2 to 3 working days.",
+            "");
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    @Test
+    void testAnswersBestMatchingDocument() throws Exception {
+        KnowledgeBase knowledgeBase = KnowledgeBase.parse(new StringReader(FAQ), 16, 0.5);
+        assertEquals("We are open 9 to 5, Monday to Saturday.",
+                knowledgeBase.answer("Are you open on Sundays? I mean on sunday"));
+        assertEquals("Use the 'Forgot password' link on the login page.",
+                knowledgeBase.answer("I forgot my password and cannot login"));
+        assertEquals("Change your password under Settings, Security.",
+                knowledgeBase.answer("How do I change my password?"));
+        assertNull(knowledgeBase.answer("Tell me about bananas"));
+        // Cached, and the same however it is cased
+        assertEquals("Delivery takes 2 to 3 working days.", knowledgeBase.answer("  DELIVERY time? "));
+        assertEquals("Delivery takes 2 to 3 working days.", knowledgeBase.answer("delivery time?"));
+    }
+
+    /**
+     * Terms of equal document frequency in documents of equal length add
+     * exactly the same score, so these corpora tie exactly.
+     */
+    @Test
+    void testTiesGoToTheFirstDocument() throws Exception {
+        // The second document is scored first; the first only ties once the other term is scored
+        KnowledgeBase unseen = KnowledgeBase.parse(new StringReader("alpha\tfirst\nbeta\tsecond\n"), 0, 0);
+        assertEquals("first", unseen.answer("beta alpha"));
+        // Both are scored before the last term, which only brings the first level with the second
+        KnowledgeBase candidate = KnowledgeBase.parse(new StringReader(String.join("\n",
+                "apple quince\tfirst",
+                "apple pear\tsecond",
+                "pear pear\tthird",
+                "quince filler filler\tfourth")), 0, 0);
+        assertEquals("first", candidate.answer("pear apple quince"));
+    }
+
+    @Test
+    void testRejectsLineWithoutAnswer() {
+        assertThrows(IllegalArgumentException.class,
+                () -> KnowledgeBase.parse(new StringReader("opening hours\n"), 0, 0));
+    }
+
+    /**
+     * Common words have thousands of postings, so searches skip through
+     * them and stop scoring new documents early; the answer must still be
+     * that of a top scoring document.
+     */
+    @Test
+    void testMatchesExhaustiveScoring() throws Exception {
+        Random random = new Random(42);
+        int documentCount = 5000;
+        String[] vocabulary = new String[300];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = "w" + Integer.toString(i, 36) + "x";
+        }
+        List<String[]> documents = new ArrayList<>();
+        StringBuilder corpus = new StringBuilder();
+        for (int d = 0; d < documentCount; d++) {
+            String[] words = new String[3 + random.nextInt(12)];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = vocabulary[skewed(random, vocabulary.length)];
+            }
+            documents.add(words);
+            corpus.append(String.join(" ", words)).append('\t').append("answer ").append(d).append('\n');
+        }
+        KnowledgeBase knowledgeBase = KnowledgeBase.parse(new StringReader(corpus.toString()), 0, 0);
+
+        for (int q = 0; q < 500; q++) {
+            String[] query = new String[1 + random.nextInt(5)];
+            for (int i = 0; i < query.length; i++) {
+                query[i] = vocabulary[skewed(random, vocabulary.length)];
+            }
+            double[] scores = exhaustiveScores(documents, query);
+            double best = Arrays.stream(scores).max().getAsDouble();
+            String answer = knowledgeBase.answer(String.join(" ", query));
+            assertNotNull(answer);
+            int document = Integer.parseInt(answer.substring("answer ".length()));
+            assertEquals(best, scores[document], best * 1e-4, "query " + String.join(" ", query));
+        }
+    }
+
+    @Test
+    void testServerAnswersQuestionsFromCorpus(@TempDir Path directory) throws Exception {
+        Path corpus = directory.resolve("faq.tsv");
+        Files.write(corpus, FAQ.getBytes(StandardCharsets.UTF_8));
+        BotServer server = new BotServer(new ServerConfig().setPort(0).setKnowledgeBaseFile(corpus));
+        server.start();
+        BotClient client = new BotClient("localhost", server.getLocalPort());
+        client.connect();
+        assertEquals("Delivery takes 2 to 3 working days.", client.sendAsync("How long does delivery take?").get());
+        assertEquals("Use the 'Forgot password' link on the login page.",
+                client.sendAsync("I forgot my password").get());
+        // Greetings keep their catalog replies, and unknown questions their canned ones
+        assertFalse(client.sendAsync("hello").get().contains("password"));
+        assertNotNull(client.sendAsync("why is the sky blue?").get());
+
+        server.stop();
+        assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+        client.disconnect();
+        assertEquals(4, server.getMetrics().getKnowledgeBaseDocuments());
+        assertTrue(server.getMetrics().getKnowledgeBaseBytes() > 0);
+        assertEquals(3, (long) server.getMetrics().getPluginCalls().get("knowledge-base"));
+    }
+
+    private static int skewed(Random random, int bound) {
+        // Roughly Zipf: small indexes are far more common
+        return (int) Math.min(bound - 1, Math.floor(Math.pow(bound, random.nextDouble())) - 1);
+    }
+
+    private static double[] exhaustiveScores(List<String[]> documents, String[] query) {
+        Map<String, Integer> documentFrequency = new HashMap<>();
+        long totalLength = 0;
+        for (String[] words : documents) {
+            totalLength += words.length;
+            for (String word : new HashSet<>(Arrays.asList(words))) {
+                documentFrequency.merge(word, 1, Integer::sum);
+            }
+        }
+        double averageLength = (double) totalLength / documents.size();
+        Set<String> terms = new HashSet<>(Arrays.asList(query));
+        double[] scores = new double[documents.size()];
+        for (int d = 0; d < documents.size(); d++) {
+            String[] words = documents.get(d);
+            for (String term : terms) {
+                int frequency = 0;
+                for (String word : words) {
+                    if (word.equals(term)) {
+                        frequency++;
+                    }
+                }
+                if (frequency == 0) {
+                    continue;
+                }
+                int count = documentFrequency.get(term);
+                double idf = Math.log(1 + (documents.size() - count + 0.5) / (count + 0.5));
+                double norm = K1 * (1 - B + B * words.length / averageLength);
+                scores[d] += idf * frequency * (K1 + 1) / (frequency + norm);
+            }
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,90 @@
+package socket_bot_test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import static org.junit.jupiter.api.Assertions.*;
+import socket_bot.BotClient;
+import socket_bot.BotServer;
+import socket_bot.ServerConfig;
+
+class LifecycleTest {
+
+    @ParameterizedTest
+    @EnumSource(ServerConfig.Mode.class)
+    void testStopDrainsConnections(ServerConfig.Mode mode) throws Exception {
+        BotServer server = new BotServer(new ServerConfig().setPort(0).setMode(mode));
+        server.start();
+        int port = server.getLocalPort();
+        assertTrue(port > 0);
+
+        BotClient idle = new BotClient("localhost", port);
+        idle.connect();
+        assertNotNull(idle.sendAsync("hello").get());
+        try (Socket socket = new Socket("localhost", port)) {
+            // Sent together with the stop: every request still gets its reply
+            OutputStream out = socket.getOutputStream();
+            out.write("hello\nweather\nbye\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            assertNotNull(in.readLine());
+            server.stop();
+            assertNotNull(in.readLine());
+            assertNotNull(in.readLine());
+            assertNull(in.readLine());
+        }
+
+        assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0, server.getMetrics().getActiveConnections());
+        // The port is free again
+        BotServer next = new BotServer(new ServerConfig().setPort(port).setMode(mode));
+        next.start();
+        assertEquals(port, next.getLocalPort());
+        next.stop();
+        assertTrue(next.awaitTermination(10, TimeUnit.SECONDS));
+        idle.disconnect();
+    }
+
+    @ParameterizedTest
+    @EnumSource(ServerConfig.Mode.class)
+    void testClientsThatResetRightAwayDoNotStopTheServer(ServerConfig.Mode mode) throws Exception {
+        BotServer server = new BotServer(new ServerConfig().setPort(0).setMode(mode).setMaxConnections(4));
+        server.start();
+        for (int i = 0; i < 20; i++) {
+            Socket socket = new Socket("localhost", server.getLocalPort());
+            // Closes with a reset rather than a FIN
+            socket.setSoLinger(true, 0);
+            socket.close();
+        }
+
+        // Every slot came back, or this would not be accepted
+        BotClient client = new BotClient("localhost", server.getLocalPort());
+        client.connect();
+        assertNotNull(client.sendAsync("hello").get(5, TimeUnit.SECONDS));
+        server.stop();
+        assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+        client.disconnect();
+    }
+
+    @Test
+    void testEphemeralPorts() throws Exception {
+        BotServer first = new BotServer(new ServerConfig().setPort(0));
+        BotServer second = new BotServer(new ServerConfig().setPort(0));
+        assertEquals(-1, first.getLocalPort());
+        first.start();
+        second.start();
+        assertNotEquals(first.getLocalPort(), second.getLocalPort());
+        first.stop();
+        second.stop();
+        assertTrue(first.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(second.awaitTermination(10, TimeUnit.SECONDS));
+        assertThrows(IllegalStateException.class, first::start);
+    }
+}
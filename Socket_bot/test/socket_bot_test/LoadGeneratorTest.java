@@ -0,0 +1,63 @@
+package socket_bot_test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import socket_bot.BotServer;
+import socket_bot.LoadGenerator;
+import socket_bot.ServerConfig;
+
+class LoadGeneratorTest {
+    private static BotServer server;
+
+    @BeforeAll
+    static void startServer() throws IOException {
+        server = new BotServer(new ServerConfig().setPort(0).setMode(ServerConfig.Mode.NIO));
+        server.start();
+    }
+
+    @AfterAll
+    static void stopServer() throws InterruptedException {
+        server.stop();
+        assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testClosedLoop() throws Exception {
+        LoadGenerator.Report report = new LoadGenerator()
+                .setPort(server.getLocalPort())
+                .setSessions(4)
+                .setDurationSeconds(1)
+                .run();
+        assertEquals(0, report.getErrors());
+        assertTrue(report.getAnswered() > 0);
+        assertEquals(report.getSent(), report.getAnswered());
+        assertTrue(report.getLatencyMicros(0.5) <= report.getLatencyMicros(0.99));
+    }
+
+    @Test
+    void testOpenLoopKeepsToTheRate() throws Exception {
+        LoadGenerator.Report report = new LoadGenerator()
+                .setPort(server.getLocalPort())
+                .setSessions(4)
+                .setDurationSeconds(1)
+                .setLoop(LoadGenerator.Loop.OPEN)
+                .setRate(200)
+                .setMix("hello", "What time is it?")
+                .run();
+        assertEquals(0, report.getErrors());
+        assertEquals(200, report.getSent(), 5);
+        assertEquals(report.getSent(), report.getAnswered());
+        // Measured from the schedule, latency can only be longer
+        assertTrue(report.getLatencyMicros(0.99) >= report.getServiceLatencyMicros(0.99));
+    }
+
+    @Test
+    void testOpenLoopNeedsRate() {
+        assertThrows(IllegalStateException.class,
+                () -> new LoadGenerator().setLoop(LoadGenerator.Loop.OPEN).run());
+    }
+}
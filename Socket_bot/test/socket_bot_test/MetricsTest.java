@@ -0,0 +1,65 @@
+package socket_bot_test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import socket_bot.BotClient;
+import socket_bot.BotMetrics;
+import socket_bot.BotServer;
+import socket_bot.Intent;
+import socket_bot.ServerConfig;
+
+class MetricsTest {
+
+    @Test
+    void testMessageMetrics() throws Exception {
+        BotServer server = new BotServer(new ServerConfig().setPort(0).setAdminPort(5006));
+        server.start();
+
+        BotClient client = new BotClient("localhost", server.getLocalPort());
+        client.connect();
+        for (CompletableFuture<String> reply
+                : client.sendAll(Collections.nCopies(20, "What time is it?"))) {
+            reply.get();
+        }
+        client.sendMessage("hello");
+
+        BotMetrics metrics = server.getMetrics();
+        assertEquals(21, metrics.getMessages());
+        assertEquals(20, metrics.getIntentCount(Intent.TIME));
+        assertEquals(1, metrics.getIntentCount(Intent.GREETING));
+        assertEquals(0, metrics.getIntentCount(Intent.WEATHER));
+        assertTrue(metrics.getLatencyP50Micros() > 0);
+        assertTrue(metrics.getLatencyP50Micros() <= metrics.getLatencyP999Micros());
+        assertTrue(metrics.getLatencyP999Micros() <= metrics.getLatencyMaxMicros());
+
+        MBeanServer jmx = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(21L, jmx.getAttribute(new ObjectName("socket_bot:type=BotServer,port=" + server.getLocalPort()), "Messages"));
+
+        try (Socket admin = new Socket("localhost", 5006)) {
+            OutputStream out = admin.getOutputStream();
+            out.write("GET /metrics HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            String response = new BufferedReader(new InputStreamReader(admin.getInputStream(), StandardCharsets.UTF_8))
+                    .lines().collect(Collectors.joining("\n"));
+            assertTrue(response.startsWith("HTTP/1.0 200 OK"), response);
+            assertTrue(response.contains("\nbot_messages_total 21\n"), response);
+            assertTrue(response.contains("\nbot_intent_total{intent=\"time\"} 20\n"), response);
+            assertTrue(response.contains("bot_message_latency_us{quantile=\"0.99\"}"), response);
+        }
+        client.disconnect();
+        server.stop();
+        assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+    }
+}
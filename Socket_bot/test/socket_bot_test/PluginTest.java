@@ -0,0 +1,195 @@
+package socket_bot_test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import static org.junit.jupiter.api.Assertions.*;
+import socket_bot.BotClient;
+import socket_bot.BotServer;
+import socket_bot.Intent;
+import socket_bot.IntentHandler;
+import socket_bot.ServerConfig;
+
+class PluginTest {
+
+    @Test
+    void testHandlersOnTheClassPathAreFound() throws Exception {
+        BotServer server = new BotServer(new ServerConfig().setPort(0));
+        server.start();
+        BotClient client = new BotClient("localhost", server.getLocalPort());
+        client.connect();
+        assertEquals("pong", client.sendAsync("ping!").get());
+        assertNotEquals("pong", client.sendAsync("hello").get());
+
+        server.stop();
+        assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+        client.disconnect();
+        assertEquals(2, (long) server.getMetrics().getPluginCalls().get("PingHandler"));
+    }
+
+    @Test
+    void testCheapHandlerAnswersItsIntents() throws Exception {
+        BotServer server = new BotServer(new ServerConfig().setPort(0));
+        server.addIntentHandler(new IntentHandler() {
+            @Override
+            public String getName() {
+                return "weather-station";
+            }
+
+            @Override
+            public boolean accepts(Intent intent) {
+                return intent == Intent.WEATHER;
+            }
+
+            @Override
+            public String reply(String input, Intent intent) {
+                return "It is 21 degrees and sunny.";
+            }
+        });
+        server.start();
+        BotClient client = new BotClient("localhost", server.getLocalPort());
+        client.connect();
+        assertEquals("It is 21 degrees and sunny.", client.sendAsync("how is the weather?").get());
+        assertNotEquals("It is 21 degrees and sunny.", client.sendAsync("hello").get());
+
+        server.stop();
+        assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+        client.disconnect();
+        assertEquals(1, (long) server.getMetrics().getPluginCalls().get("weather-station"));
+        assertTrue(server.getMetrics().toText().contains("bot_plugin_replies_total{plugin=\"weather-station\"} 1"));
+    }
+
+    @ParameterizedTest
+    @EnumSource(ServerConfig.Mode.class)
+    void testSlowHandlerTimesOutWithoutReorderingReplies(ServerConfig.Mode mode) throws Exception {
+        CountDownLatch never = new CountDownLatch(1);
+        BotServer server = new BotServer(new ServerConfig().setPort(0).setMode(mode));
+        server.addIntentHandler(new IntentHandler() {
+            @Override
+            public String getName() {
+                return "oracle";
+            }
+
+            @Override
+            public boolean accepts(Intent intent) {
+                return intent == Intent.WHY;
+            }
+
+            @Override
+            public String reply(String input, Intent intent) {
+                if (input.contains("universe")) {
+                    try {
+                        never.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return "Because of " + input.length() + " reasons.";
+            }
+
+            @Override
+            public boolean isExpensive() {
+                return true;
+            }
+
+            @Override
+            public long getTimeoutMillis() {
+                return 100;
+            }
+
+            @Override
+            public String getFallbackReply() {
+                return "Let me think about that.";
+            }
+        });
+        server.start();
+        BotClient client = new BotClient("localhost", server.getLocalPort());
+        client.connect();
+        CompletableFuture<String> slow = client.sendAsync("why is there a universe?");
+        CompletableFuture<String> quick = client.sendAsync("hello");
+        CompletableFuture<String> answered = client.sendAsync("why not?");
+        assertEquals("Let me think about that.", slow.get(5, TimeUnit.SECONDS));
+        assertNotNull(quick.get(5, TimeUnit.SECONDS));
+        assertEquals("Because of 8 reasons.", answered.get(5, TimeUnit.SECONDS));
+
+        server.stop();
+        assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+        client.disconnect();
+        assertEquals(1, (long) server.getMetrics().getPluginTimeouts().get("oracle"));
+    }
+
+    @ParameterizedTest
+    @EnumSource(ServerConfig.Mode.class)
+    void testHandlerThatThrowsIsLeftOut(ServerConfig.Mode mode) throws Exception {
+        BotServer server = new BotServer(new ServerConfig().setPort(0).setMode(mode));
+        server.addIntentHandler(new IntentHandler() {
+            @Override
+            public String getName() {
+                return "picky";
+            }
+
+            @Override
+            public boolean accepts(Intent intent) {
+                throw new IllegalStateException("cannot decide");
+            }
+
+            @Override
+            public String reply(String input, Intent intent) {
+                return "never";
+            }
+        });
+        server.addIntentHandler(new IntentHandler() {
+            @Override
+            public String getName() {
+                return "misconfigured";
+            }
+
+            @Override
+            public String reply(String input, Intent intent) {
+                return "never";
+            }
+
+            @Override
+            public boolean isExpensive() {
+                return true;
+            }
+
+            @Override
+            public long getTimeoutMillis() {
+                throw new IllegalStateException("no timeout set");
+            }
+        });
+        server.start();
+        BotClient first = new BotClient("localhost", server.getLocalPort());
+        BotClient second = new BotClient("localhost", server.getLocalPort());
+        first.connect();
+        second.connect();
+        // Both handlers are skipped and the catalog answers, on every connection
+        for (int i = 0; i < 3; i++) {
+            assertNotEquals("never", first.sendAsync("why?").get(5, TimeUnit.SECONDS));
+            assertNotEquals("never", second.sendAsync("hello").get(5, TimeUnit.SECONDS));
+        }
+
+        server.stop();
+        assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+        first.disconnect();
+        second.disconnect();
+        assertEquals(0, server.getMetrics().getActiveConnections());
+        assertEquals(6, (long) server.getMetrics().getPluginFailures().get("picky"));
+        assertEquals(6, (long) server.getMetrics().getPluginFailures().get("misconfigured"));
+    }
+
+    /**
+     * Listed in META-INF/services, and answers only a message no other
+     * test sends.
+     */
+    public static class PingHandler implements IntentHandler {
+        @Override
+        public String reply(String input, Intent intent) {
+            return "ping!".equals(input) ? "pong" : null;
+        }
+    }
+}
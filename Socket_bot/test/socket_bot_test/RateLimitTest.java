@@ -0,0 +1,145 @@
+package socket_bot_test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import static org.junit.jupiter.api.Assertions.*;
+import socket_bot.BotClient;
+import socket_bot.BotServer;
+import socket_bot.Intent;
+import socket_bot.IntentHandler;
+import socket_bot.ServerConfig;
+
+class RateLimitTest {
+
+    private static final String SLOW_DOWN = "Slow down, you are sending messages too fast.";
+    private static final String BUSY = "The server is busy, please try again later.";
+
+    @ParameterizedTest
+    @EnumSource(ServerConfig.Mode.class)
+    void testConnectionOverItsLimitIsRefused(ServerConfig.Mode mode) throws Exception {
+        BotServer server = new BotServer(new ServerConfig()
+                .setPort(0)
+                .setMode(mode)
+                .setRateLimitPerSecond(0.1)
+                .setRateLimitBurst(3));
+        server.start();
+        BotClient client = new BotClient("localhost", server.getLocalPort());
+        client.connect();
+        for (int i = 0; i < 3; i++) {
+            assertNotEquals(SLOW_DOWN, client.sendAsync("hello").get());
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals(SLOW_DOWN, client.sendAsync("hello").get());
+        }
+        // Another connection has a bucket of its own
+        BotClient other = new BotClient("localhost", server.getLocalPort());
+        other.connect();
+        assertNotEquals(SLOW_DOWN, other.sendAsync("hello").get());
+
+        server.stop();
+        assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+        client.disconnect();
+        other.disconnect();
+        assertEquals(5, server.getMetrics().getConnectionRateLimited());
+        assertEquals(0, server.getMetrics().getAddressRateLimited());
+    }
+
+    @Test
+    void testAddressLimitCoversAllItsConnections() throws Exception {
+        BotServer server = new BotServer(new ServerConfig()
+                .setPort(0)
+                .setAddressRateLimitPerSecond(0.1)
+                .setAddressRateLimitBurst(4));
+        server.start();
+        BotClient first = new BotClient("localhost", server.getLocalPort());
+        BotClient second = new BotClient("localhost", server.getLocalPort());
+        first.connect();
+        second.connect();
+        assertNotEquals(SLOW_DOWN, first.sendAsync("hello").get());
+        assertNotEquals(SLOW_DOWN, second.sendAsync("hello").get());
+        assertNotEquals(SLOW_DOWN, first.sendAsync("hello").get());
+        assertNotEquals(SLOW_DOWN, second.sendAsync("hello").get());
+        assertEquals(SLOW_DOWN, first.sendAsync("hello").get());
+        assertEquals(SLOW_DOWN, second.sendAsync("hello").get());
+
+        server.stop();
+        assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+        first.disconnect();
+        second.disconnect();
+        assertEquals(2, server.getMetrics().getAddressRateLimited());
+    }
+
+    @ParameterizedTest
+    @EnumSource(ServerConfig.Mode.class)
+    void testSlowProcessingShedsLoad(ServerConfig.Mode mode) throws Exception {
+        // No message is answered within a microsecond, so the server soon counts as overloaded
+        BotServer server = new BotServer(new ServerConfig()
+                .setPort(0)
+                .setMode(mode)
+                .setOverloadLatencyMicros(1));
+        server.start();
+        BotClient client = new BotClient("localhost", server.getLocalPort());
+        client.connect();
+        int busy = 0;
+        for (int i = 0; i < 200; i++) {
+            if (BUSY.equals(client.sendAsync("hello").get())) {
+                busy++;
+            }
+        }
+
+        server.stop();
+        assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+        client.disconnect();
+        assertTrue(busy > 0);
+        assertEquals(busy, server.getMetrics().getShedMessages());
+        assertEquals(1, server.getMetrics().getOverloads());
+    }
+
+    @Test
+    void testMessageThatThrowsLeavesNoMessageInFlight() throws Exception {
+        AtomicBoolean thrown = new AtomicBoolean();
+        BotServer server = new BotServer(new ServerConfig()
+                .setPort(0)
+                .setOverloadInFlight(1));
+        server.addIntentHandler(new IntentHandler() {
+            @Override
+            public String getName() {
+                return "broken";
+            }
+
+            @Override
+            public boolean accepts(Intent intent) {
+                if (thrown.compareAndSet(false, true)) {
+                    throw new IllegalStateException("broken handler");
+                }
+                return false;
+            }
+
+            @Override
+            public String reply(String input, Intent intent) {
+                return null;
+            }
+        });
+        server.start();
+        BotClient client = new BotClient("localhost", server.getLocalPort());
+        client.connect();
+        String reply = client.sendAsync("hello").get(10, TimeUnit.SECONDS);
+        assertTrue(thrown.get());
+        assertNotNull(reply);
+        assertNotEquals(BUSY, reply);
+        // The connection is still open, and with the first message still counted in flight
+        // the limit of one would refuse these
+        for (int i = 0; i < 3; i++) {
+            assertNotEquals(BUSY, client.sendAsync("hello").get(10, TimeUnit.SECONDS));
+        }
+
+        server.stop();
+        assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+        client.disconnect();
+        assertEquals(0, server.getMetrics().getShedMessages());
+        assertEquals(1, server.getMetrics().getAcceptedConnections());
+    }
+}
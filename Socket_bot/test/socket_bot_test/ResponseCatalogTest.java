@@ -0,0 +1,117 @@
+package socket_bot_test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import socket_bot.BotServer;
+import socket_bot.Intent;
+import socket_bot.ResponseCatalog;
+import socket_bot.ServerConfig;
+
+class ResponseCatalogTest {
+    private static final String SMALL_CATALOG = String.join("\n",
+            "[rules]",
+            "WEATHER = weather | forecast",
+            "WHY = why & ?",
+            "[GREETING]", "{greeting}!",
+            "[FAREWELL]", "Bye!",
+            "[TIME]", "It's {time}",
+            "[WEATHER]", "Sunny.",
+            "[MOOD]", "Fine.",
+            "[CURIOSITY]", "Hmm.",
+            "[WHY]", "Because.",
+            "[DEFAULT]", "Sorry?");
+
+    @Test
+    void testBundledCatalog() {
+        ResponseCatalog catalog = ResponseCatalog.defaults();
+        assertEquals(Intent.GREETING, catalog.classify("Hello!"));
+        assertEquals(Intent.TIME, catalog.classify("What time is it?"));
+        assertEquals(Intent.MOOD, catalog.classify("how are you?"));
+        assertEquals(Intent.DEFAULT, catalog.classify("why"));
+        assertEquals(37, catalog.size());
+    }
+
+    @Test
+    void testParse() throws IOException {
+        ResponseCatalog catalog = ResponseCatalog.parse(new StringReader(SMALL_CATALOG));
+        assertEquals(Intent.WEATHER, catalog.classify("Tomorrow's FORECAST"));
+        assertEquals(Intent.WHY, catalog.classify("why?"));
+        assertEquals(Intent.DEFAULT, catalog.classify("hello"));
+        assertEquals(8, catalog.size());
+    }
+
+    @Test
+    void testIntentNamesIgnoreDefaultLocale() throws IOException {
+        Locale defaultLocale = Locale.getDefault();
+        // Turkish upper-cases "i" to a dotted capital I
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            ResponseCatalog catalog = ResponseCatalog.parse(new StringReader(SMALL_CATALOG
+                    .replace("[TIME]", "[time]").replace("WHY = why", "why = why")));
+            assertEquals(Intent.WHY, catalog.classify("why?"));
+            assertEquals(8, catalog.size());
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    void testWeights() throws IOException {
+        ResponseCatalog catalog = ResponseCatalog.parse(new StringReader(
+                SMALL_CATALOG.replace("Bye!", "3| Bye!\nSee you!")));
+        assertEquals(9, catalog.size());
+    }
+
+    @Test
+    void testRejectsMalformedCatalogs() {
+        assertThrows(IllegalArgumentException.class,
+                () -> ResponseCatalog.parse(new StringReader(SMALL_CATALOG.replace("[WHY]\nBecause.\n", ""))));
+        assertThrows(IllegalArgumentException.class,
+                () -> ResponseCatalog.parse(new StringReader(SMALL_CATALOG + "\n[SMALLTALK]\nNice.")));
+        assertThrows(IllegalArgumentException.class,
+                () -> ResponseCatalog.parse(new StringReader("Hello\n" + SMALL_CATALOG)));
+        assertThrows(IllegalArgumentException.class,
+                () -> ResponseCatalog.parse(new StringReader(SMALL_CATALOG.replace("weather | forecast", " | "))));
+        assertThrows(IllegalArgumentException.class,
+                () -> ResponseCatalog.parse(new StringReader(SMALL_CATALOG.replace("Bye!", "0| Bye!"))));
+    }
+
+    @Test
+    void testReloadsOnChange() throws Exception {
+        Path file = Files.createTempFile("responses", ".catalog");
+        try {
+            Files.write(file, SMALL_CATALOG.getBytes(StandardCharsets.UTF_8));
+            BotServer server = new BotServer(new ServerConfig().setPort(0).setCatalogFile(file));
+            assertEquals(8, server.getCatalog().size());
+            server.start();
+
+            // A broken file is rejected and the current catalog stays
+            Files.write(file, "[rules]\nnonsense".getBytes(StandardCharsets.UTF_8));
+            waitFor(() -> server.getMetrics().getCatalogLoadFailures() > 0);
+            assertEquals(8, server.getCatalog().size());
+
+            Files.write(file, (SMALL_CATALOG + "\nPardon?").getBytes(StandardCharsets.UTF_8));
+            waitFor(() -> server.getCatalog().size() == 9);
+            assertEquals(9, server.getMetrics().getCatalogSize());
+            server.stop();
+            assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for reload");
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package socket_bot_test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import socket_bot.BotClient;
+import socket_bot.BotServer;
+import socket_bot.ServerConfig;
+
+class ResponseSelectionTest {
+
+    @Test
+    void testSeededSelectionIsReproducible() throws Exception {
+        List<String> first = askWeather(new ServerConfig()
+                .setPort(0).setSeed(42L).setNoRepeat(true), 30);
+        List<String> second = askWeather(new ServerConfig()
+                .setPort(0).setSeed(42L).setNoRepeat(true).setMode(ServerConfig.Mode.NIO), 30);
+        assertEquals(first, second);
+        for (int i = 1; i < first.size(); i++) {
+            assertNotEquals(first.get(i - 1), first.get(i));
+        }
+    }
+
+    @Test
+    void testWeightedSelection() throws Exception {
+        Path file = Files.createTempFile("responses", ".catalog");
+        try {
+            List<String> lines = new ArrayList<>();
+            lines.add("[WEATHER]");
+            lines.add("1000| Sunny.");
+            lines.add("Rainy.");
+            for (String intent : new String[]{"GREETING", "FAREWELL", "TIME", "MOOD", "CURIOSITY", "WHY", "DEFAULT"}) {
+                lines.add("[" + intent + "]");
+                lines.add("Hmm.");
+            }
+            lines.add("[rules]");
+            lines.add("WEATHER = weather");
+            Files.write(file, lines, StandardCharsets.UTF_8);
+
+            List<String> replies = askWeather(new ServerConfig().setPort(0)
+                    .setCatalogFile(file).setSeed(7L), 50);
+            assertTrue(Collections.frequency(replies, "Sunny.") >= 45, replies.toString());
+            assertFalse(replies.contains("1000| Sunny."));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static List<String> askWeather(ServerConfig config, int count) throws Exception {
+        BotServer server = new BotServer(config);
+        server.start();
+        BotClient client = new BotClient("localhost", server.getLocalPort());
+        client.connect();
+        try {
+            List<CompletableFuture<String>> futures = client.sendAll(Collections.nCopies(count, "weather"));
+            List<String> replies = new ArrayList<>();
+            for (CompletableFuture<String> future : futures) {
+                replies.add(future.get());
+            }
+            return replies;
+        } finally {
+            client.disconnect();
+            server.stop();
+            assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+}
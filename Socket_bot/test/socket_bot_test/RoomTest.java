@@ -0,0 +1,108 @@
+package socket_bot_test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import static org.junit.jupiter.api.Assertions.*;
+import socket_bot.BotClient;
+import socket_bot.BotServer;
+import socket_bot.ServerConfig;
+
+class RoomTest {
+
+    @ParameterizedTest
+    @EnumSource(ServerConfig.Mode.class)
+    void testMessagesReachEveryMember(ServerConfig.Mode mode) throws Exception {
+        BotServer server = new BotServer(new ServerConfig().setPort(0).setMode(mode));
+        server.start();
+        BotClient ada = new BotClient("localhost", server.getLocalPort());
+        BotClient bob = new BotClient("localhost", server.getLocalPort());
+        BotClient outsider = new BotClient("localhost", server.getLocalPort());
+        bob.setProtocol(BotClient.Protocol.FRAMED);
+        BlockingQueue<String> adaHears = listen(ada);
+        BlockingQueue<String> bobHears = listen(bob);
+        BlockingQueue<String> outsiderHears = listen(outsider);
+        ada.connect();
+        bob.connect();
+        outsider.connect();
+
+        assertTrue(ada.sendAsync("my name is ada").get().contains("Ada"));
+        assertEquals("Joined #lobby, 1 members", ada.sendAsync("/join lobby").get());
+        assertEquals("Joined #lobby, 2 members", bob.sendAsync("/join lobby").get());
+        assertEquals("Sent to 1 members of #lobby", ada.sendAsync("/say lobby hi bob").get());
+        assertEquals("#ROOM lobby Ada: hi bob", bobHears.poll(5, TimeUnit.SECONDS));
+
+        // The bot answers in the room, to the asker as well
+        assertEquals("Sent to 1 members of #lobby", bob.sendAsync("/say lobby @bot what time is it?").get());
+        assertTrue(bobHears.poll(5, TimeUnit.SECONDS).startsWith("#ROOM lobby bot: "));
+        assertTrue(adaHears.poll(5, TimeUnit.SECONDS).startsWith("#ROOM lobby user1: @bot"));
+        assertTrue(adaHears.poll(5, TimeUnit.SECONDS).startsWith("#ROOM lobby bot: "));
+        // Ordinary messages still get ordinary replies
+        assertNotNull(ada.sendAsync("hello").get());
+
+        assertEquals("You are not in #lobby", outsider.sendAsync("/say lobby let me in").get());
+        assertEquals("Your rooms: lobby", ada.sendAsync("/rooms").get());
+        assertEquals(1, server.getMetrics().getRooms());
+        assertEquals("Left #lobby", bob.sendAsync("/leave lobby").get());
+        assertEquals("Sent to 0 members of #lobby", ada.sendAsync("/say lobby anyone?").get());
+        ada.disconnect();
+        bob.disconnect();
+        outsider.disconnect();
+        server.stop();
+        assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0, server.getMetrics().getRooms());
+        assertTrue(outsiderHears.isEmpty());
+        assertNull(bobHears.poll());
+    }
+
+    @ParameterizedTest
+    @EnumSource(ServerConfig.Mode.class)
+    void testSlowMemberDoesNotHoldUpTheRoom(ServerConfig.Mode mode) throws Exception {
+        BotServer server = new BotServer(new ServerConfig()
+                .setPort(0)
+                .setMode(mode)
+                .setSendBufferSize(4096)
+                .setRoomQueueCapacity(4));
+        server.start();
+        BotClient sender = new BotClient("localhost", server.getLocalPort());
+        sender.connect();
+        sender.sendAsync("/join lobby").get();
+        try (Socket slow = new Socket()) {
+            slow.setReceiveBufferSize(4096);
+            slow.connect(new InetSocketAddress("localhost", server.getLocalPort()));
+            OutputStream out = slow.getOutputStream();
+            // Joins, then never reads
+            out.write("/join lobby\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!sender.sendAsync("/say lobby ping").get().equals("Sent to 1 members of #lobby")) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(20);
+            }
+
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 2000; i++) {
+                text.append('x');
+            }
+            for (int i = 0; i < 1000; i++) {
+                assertEquals("Sent to", sender.sendAsync("/say lobby " + text).get(5, TimeUnit.SECONDS).substring(0, 7));
+            }
+            assertTrue(server.getMetrics().getRoomDrops() > 0);
+        }
+        sender.disconnect();
+        server.stop();
+        assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    private static BlockingQueue<String> listen(BotClient client) {
+        BlockingQueue<String> heard = new LinkedBlockingQueue<>();
+        client.setRoomListener(heard::add);
+        return heard;
+    }
+}
@@ -0,0 +1,204 @@
+package socket_bot_test;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import static org.junit.jupiter.api.Assertions.*;
+import socket_bot.BotClient;
+import socket_bot.BotRouter;
+import socket_bot.BotServer;
+import socket_bot.ServerConfig;
+
+class RouterTest {
+
+    @Test
+    void testLeastConnectionsSpreadsClients() throws Exception {
+        List<BotServer> servers = startServers(2);
+        BotRouter router = startRouter(servers, BotRouter.Balancing.LEAST_CONNECTIONS);
+        List<BotClient> clients = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            BotClient client = new BotClient("localhost", router.getLocalPort());
+            client.connect();
+            assertReply(client.sendMessage("hello"));
+            clients.add(client);
+        }
+
+        awaitActiveConnections(servers.get(0), 2);
+        awaitActiveConnections(servers.get(1), 2);
+        for (BotClient client : clients) {
+            client.disconnect();
+        }
+        stop(router, servers);
+    }
+
+    @Test
+    void testConsistentHashKeepsClientOnOneBackend() throws Exception {
+        List<BotServer> servers = startServers(3);
+        BotRouter router = startRouter(servers, BotRouter.Balancing.CONSISTENT_HASH);
+        List<BotClient> clients = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            BotClient client = new BotClient("localhost", router.getLocalPort());
+            client.connect();
+            assertReply(client.sendMessage("hello"));
+            clients.add(client);
+        }
+
+        // Every client comes from the same address, so they share a backend
+        long deadline = System.currentTimeMillis() + 5000;
+        while (activeConnections(servers) != 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        long busiest = 0;
+        for (BotServer server : servers) {
+            busiest = Math.max(busiest, server.getMetrics().getActiveConnections());
+        }
+        assertEquals(3, busiest);
+        for (BotClient client : clients) {
+            client.disconnect();
+        }
+        stop(router, servers);
+    }
+
+    @ParameterizedTest
+    @EnumSource(BotClient.Protocol.class)
+    void testRouterFailsOverWhenBackendStops(BotClient.Protocol protocol) throws Exception {
+        List<BotServer> servers = startServers(2);
+        BotRouter router = startRouter(servers, BotRouter.Balancing.LEAST_CONNECTIONS);
+        BotClient client = new BotClient("localhost", router.getLocalPort());
+        client.setProtocol(protocol);
+        client.connect();
+        assertEquals(protocol, client.getProtocol());
+        assertReply(client.sendMessage("hello"));
+
+        BotServer serving = servers.get(0).getMetrics().getActiveConnections() > 0 ? servers.get(0) : servers.get(1);
+        BotServer other = serving == servers.get(0) ? servers.get(1) : servers.get(0);
+        serving.stop();
+        assertTrue(serving.awaitTermination(10, TimeUnit.SECONDS));
+
+        // The client keeps its connection to the router and never sees the switch
+        for (int i = 0; i < 5; i++) {
+            assertReply(client.sendMessage("weather"));
+        }
+        awaitActiveConnections(other, 1);
+        client.disconnect();
+        stop(router, servers);
+    }
+
+    @Test
+    void testClientsThatResetRightAwayDoNotStopTheRouter() throws Exception {
+        List<BotServer> servers = startServers(1);
+        BotRouter router = startRouter(servers, BotRouter.Balancing.LEAST_CONNECTIONS);
+        for (int i = 0; i < 20; i++) {
+            Socket socket = new Socket("localhost", router.getLocalPort());
+            // Closes with a reset rather than a FIN
+            socket.setSoLinger(true, 0);
+            socket.close();
+        }
+
+        BotClient client = new BotClient("localhost", router.getLocalPort());
+        client.connect();
+        assertReply(client.sendMessage("hello"));
+        client.disconnect();
+        stop(router, servers);
+    }
+
+    @Test
+    void testClientFailsOverBetweenEndpoints() throws Exception {
+        int deadPort;
+        try (ServerSocket unused = new ServerSocket(0)) {
+            deadPort = unused.getLocalPort();
+        }
+        List<BotServer> servers = startServers(2);
+        BotClient client = new BotClient(Arrays.asList(
+                InetSocketAddress.createUnresolved("localhost", deadPort),
+                InetSocketAddress.createUnresolved("localhost", servers.get(0).getLocalPort()),
+                InetSocketAddress.createUnresolved("localhost", servers.get(1).getLocalPort())));
+        client.connect();
+        assertEquals(servers.get(0).getLocalPort(), client.getEndpoint().getPort());
+        assertReply(client.sendMessage("hello"));
+
+        servers.get(0).stop();
+        assertTrue(servers.get(0).awaitTermination(10, TimeUnit.SECONDS));
+        // Messages racing the lost connection may fail, later ones go to the next endpoint
+        String reply = client.sendMessage("hello");
+        for (int i = 0; i < 50 && reply.startsWith("Error"); i++) {
+            Thread.sleep(20);
+            reply = client.sendMessage("hello");
+        }
+        assertReply(reply);
+        assertEquals(servers.get(1).getLocalPort(), client.getEndpoint().getPort());
+        client.disconnect();
+        stop(null, servers);
+    }
+
+    @Test
+    void testParseEndpoints() {
+        List<InetSocketAddress> endpoints = BotClient.parseEndpoints("localhost:5001, 10.0.0.2:5002");
+        assertEquals(2, endpoints.size());
+        assertEquals("localhost", endpoints.get(0).getHostString());
+        assertEquals(5002, endpoints.get(1).getPort());
+        assertThrows(IllegalArgumentException.class, () -> BotClient.parseEndpoints("localhost"));
+    }
+
+    private static List<BotServer> startServers(int count) throws Exception {
+        List<BotServer> servers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            BotServer server = new BotServer(new ServerConfig().setPort(0).setDrainTimeoutMillis(1000));
+            server.start();
+            servers.add(server);
+        }
+        return servers;
+    }
+
+    private static BotRouter startRouter(List<BotServer> servers, BotRouter.Balancing balancing) throws Exception {
+        BotRouter router = new BotRouter().setPort(0).setBalancing(balancing).setHealthCheckIntervalMillis(200);
+        for (BotServer server : servers) {
+            router.addBackend("localhost", server.getLocalPort());
+        }
+        router.start();
+        return router;
+    }
+
+    private static void stop(BotRouter router, List<BotServer> servers) throws Exception {
+        if (router != null) {
+            router.stop();
+            assertTrue(router.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        for (BotServer server : servers) {
+            server.stop();
+            assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private static long activeConnections(List<BotServer> servers) {
+        long active = 0;
+        for (BotServer server : servers) {
+            active += server.getMetrics().getActiveConnections();
+        }
+        return active;
+    }
+
+    /**
+     * Health check probes also count as connections for a moment, so this
+     * waits for the count to settle.
+     */
+    private static void awaitActiveConnections(BotServer server, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getMetrics().getActiveConnections() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, server.getMetrics().getActiveConnections());
+    }
+
+    private static void assertReply(String reply) {
+        assertNotNull(reply);
+        assertFalse(reply.startsWith("Error"), reply);
+    }
+}
@@ -1,6 +1,10 @@
 package socket_bot_test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -8,19 +12,17 @@ import static org.junit.jupiter.api.Assertions.*;
 import socket_bot.BotClient;
 import socket_bot.BotServer;
 import socket_bot.ChatBotGUI;
+import socket_bot.ServerConfig;
 
 class TestSocket {
     private BotServer server;
     private BotClient client;
     
     @BeforeEach
-    void setUp() throws InterruptedException {
-        server = new BotServer();
-        client = new BotClient();
-        Thread serverThread = new Thread(() -> server.start());
-        serverThread.setDaemon(true);
-        serverThread.start();
-        Thread.sleep(1000);
+    void setUp() throws IOException {
+        server = new BotServer(new ServerConfig().setPort(0));
+        server.start();
+        client = new BotClient("localhost", server.getLocalPort());
     }
     
     @AfterEach
@@ -28,7 +30,8 @@ class TestSocket {
         if (client != null) {
             client.disconnect();
         }
-        Thread.sleep(500);
+        server.stop();
+        assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
     }
 
     @Test
@@ -65,4 +68,30 @@ class TestSocket {
             fail("Server response test failed: " + e.getMessage());
         }
     }
+
+    @Test
+    void testPipelinedMessages() throws Exception {
+        client.connect();
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            messages.add(i % 2 == 0 ? "What time is it?" : "weather");
+        }
+        List<CompletableFuture<String>> replies = client.sendAll(messages);
+        assertEquals(messages.size(), replies.size());
+        for (int i = 0; i < replies.size(); i++) {
+            String reply = replies.get(i).get();
+            // Only the time replies contain a clock reading, so order is kept
+            assertEquals(i % 2 == 0, reply.contains(":"), reply);
+        }
+        assertNotNull(client.sendAsync("hello").get());
+    }
+
+    @Test
+    void testFramedProtocol() throws Exception {
+        client.setProtocol(BotClient.Protocol.FRAMED);
+        client.connect();
+        assertEquals(BotClient.Protocol.FRAMED, client.getProtocol());
+        String response = client.sendMessage("What time is it?");
+        assertTrue(response.contains(":"), response);
+    }
 }
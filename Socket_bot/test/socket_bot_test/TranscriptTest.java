@@ -0,0 +1,135 @@
+package socket_bot_test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import static org.junit.jupiter.api.Assertions.*;
+import socket_bot.BotClient;
+import socket_bot.BotServer;
+import socket_bot.ServerConfig;
+import socket_bot.TranscriptLog;
+import socket_bot.TranscriptReader;
+
+class TranscriptTest {
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @EnumSource(ServerConfig.Mode.class)
+    void testEveryExchangeIsRecorded(ServerConfig.Mode mode) throws Exception {
+        long startedAt = System.currentTimeMillis();
+        BotServer server = new BotServer(new ServerConfig().setPort(0).setMode(mode).setTranscriptDirectory(directory));
+        server.start();
+        BotClient first = new BotClient("localhost", server.getLocalPort());
+        BotClient second = new BotClient("localhost", server.getLocalPort());
+        first.connect();
+        second.connect();
+        String reply = first.sendAsync("hello").get();
+        second.sendAsync("what time is it?").get();
+        first.sendAsync("bye").get();
+        // Stopped with the clients connected, as disconnecting sends one more message
+        server.stop();
+        assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+        first.disconnect();
+        second.disconnect();
+        assertEquals(3, server.getMetrics().getTranscriptRecords());
+
+        List<TranscriptLog.Record> all = drain(new TranscriptReader(directory).readAll());
+        assertEquals(3, all.size());
+        assertEquals("hello", all.get(0).getInput());
+        assertEquals(reply, all.get(0).getReply());
+        assertEquals(0, all.get(0).getSession());
+
+        List<TranscriptLog.Record> session = drain(new TranscriptReader(directory).readSession(all.get(0).getRun(), 1));
+        assertEquals(1, session.size());
+        assertEquals("what time is it?", session.get(0).getInput());
+
+        long now = System.currentTimeMillis();
+        assertEquals(3, drain(new TranscriptReader(directory).readBetween(startedAt, now + 1)).size());
+        assertEquals(0, drain(new TranscriptReader(directory).readBetween(now + 1, now + 60000)).size());
+    }
+
+    @Test
+    void testSegmentsRotateAndRestartsAppend() throws Exception {
+        StringBuilder text = new StringBuilder("question ");
+        while (text.length() < 2000) {
+            text.append("and more ");
+        }
+        for (int run = 0; run < 2; run++) {
+            BotServer server = new BotServer(new ServerConfig()
+                    .setPort(0)
+                    .setTranscriptDirectory(directory)
+                    .setTranscriptSegmentBytes(256 * 1024));
+            server.start();
+            BotClient client = new BotClient("localhost", server.getLocalPort());
+            client.connect();
+            List<String> batch = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                batch.add(i + " " + text);
+            }
+            client.sendAll(batch).get(batch.size() - 1).get(10, TimeUnit.SECONDS);
+            server.stop();
+            assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+            client.disconnect();
+            assertTrue(server.getMetrics().getTranscriptSegments() > 1);
+        }
+
+        Iterator<TranscriptLog.Record> records = new TranscriptReader(directory).readAll();
+        for (int run = 0; run < 2; run++) {
+            for (int i = 0; i < 300; i++) {
+                assertTrue(records.next().getInput().startsWith(i + " question"));
+            }
+        }
+        assertFalse(records.hasNext());
+    }
+
+    @Test
+    void testSessionsOfDifferentRunsAreKeptApart() throws Exception {
+        for (int run = 0; run < 2; run++) {
+            BotServer server = new BotServer(new ServerConfig().setPort(0).setTranscriptDirectory(directory));
+            server.start();
+            BotClient client = new BotClient("localhost", server.getLocalPort());
+            client.connect();
+            client.sendAsync("hello from run " + run).get(10, TimeUnit.SECONDS);
+            server.stop();
+            assertTrue(server.awaitTermination(10, TimeUnit.SECONDS));
+            client.disconnect();
+        }
+
+        List<TranscriptLog.Record> all = drain(new TranscriptReader(directory).readAll());
+        assertEquals(2, all.size());
+        // Both runs numbered their first session 0
+        assertEquals(0, all.get(0).getSession());
+        assertEquals(0, all.get(1).getSession());
+        assertTrue(all.get(0).getRun() < all.get(1).getRun());
+        for (int run = 0; run < 2; run++) {
+            List<TranscriptLog.Record> session = drain(new TranscriptReader(directory).readSession(all.get(run).getRun(), 0));
+            assertEquals(1, session.size());
+            assertEquals("hello from run " + run, session.get(0).getInput());
+        }
+    }
+
+    @Test
+    void testSegmentSizeOptionIsRangeChecked() {
+        assertEquals(2047 * 1024 * 1024, ServerConfig.fromArgs(new String[] {"--transcript-segment-mb=2047"})
+                .getTranscriptSegmentBytes());
+        IllegalArgumentException tooLarge = assertThrows(IllegalArgumentException.class,
+                () -> ServerConfig.fromArgs(new String[] {"--transcript-segment-mb=4096"}));
+        assertTrue(tooLarge.getMessage().contains("2047"), tooLarge.getMessage());
+        assertThrows(IllegalArgumentException.class,
+                () -> ServerConfig.fromArgs(new String[] {"--transcript-segment-mb=0"}));
+    }
+
+    private static List<TranscriptLog.Record> drain(Iterator<TranscriptLog.Record> records) {
+        List<TranscriptLog.Record> list = new ArrayList<>();
+        records.forEachRemaining(list::add);
+        return list;
+    }
+}